@@ -0,0 +1,57 @@
+package com.chanakya.shl.cache;
+
+import com.chanakya.shl.config.AppProperties;
+import com.chanakya.shl.model.document.ConsumedFileToken;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Ids of signed file-download tokens that have already been used.
+ * <p>
+ * The shared record is the {@code consumed_file_tokens} collection: consuming a token inserts
+ * its id, and the unique {@code _id} makes exactly one of any concurrent attempts win, on any
+ * instance. A local cache in front of it answers replays seen by this instance without a
+ * round trip. Entries only need to outlive the token itself, so both expire with it.
+ */
+@Component
+public class ConsumedFileTokenSet {
+
+    private final ReactiveMongoTemplate mongoTemplate;
+    private final Cache<String, Boolean> consumed;
+
+    public ConsumedFileTokenSet(ReactiveMongoTemplate mongoTemplate, AppProperties appProperties,
+                                MeterRegistry meterRegistry) {
+        this.mongoTemplate = mongoTemplate;
+        this.consumed = Caffeine.newBuilder()
+                .maximumSize(appProperties.getFileToken().getConsumedCacheSize())
+                .expireAfterWrite(Duration.ofMinutes(appProperties.getFileTokenTtlMinutes()))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, consumed, "shl.file-token-consumed");
+    }
+
+    /**
+     * Marks a token as used. Emits true if this call consumed it, false if it already was.
+     */
+    public Mono<Boolean> consume(String tokenId, Instant expiresAt) {
+        return Mono.defer(() -> {
+            if (consumed.getIfPresent(tokenId) != null) {
+                return Mono.just(false);
+            }
+            ConsumedFileToken record = ConsumedFileToken.builder().id(tokenId).expiresAt(expiresAt).build();
+            return mongoTemplate.insert(record)
+                    .thenReturn(true)
+                    .onErrorResume(DuplicateKeyException.class, e -> Mono.just(false))
+                    .doOnNext(first -> consumed.put(tokenId, Boolean.TRUE));
+        });
+    }
+}
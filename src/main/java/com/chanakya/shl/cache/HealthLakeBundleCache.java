@@ -0,0 +1,86 @@
+package com.chanakya.shl.cache;
+
+import com.chanakya.shl.config.AppProperties;
+import com.chanakya.shl.model.enums.FhirCategory;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Byte-bounded cache of merged HealthLake search results keyed by (patientId, category), so
+ * several SHLs created for the same patient in quick succession share one remote fetch.
+ * <p>
+ * An entry is served without contacting HealthLake for {@code fresh-for}. After that it is
+ * kept (up to {@code retain-for}) only so the next fetch can revalidate it with
+ * {@code If-None-Match} / {@code If-Modified-Since} instead of downloading it again.
+ * Entries hold PHI in process memory only; disable with {@code app.healthlake.cache.enabled}.
+ */
+@Component
+public class HealthLakeBundleCache {
+
+    private final boolean enabled;
+    private final Duration freshFor;
+    private final Cache<String, CachedBundle> cache;
+
+    public HealthLakeBundleCache(AppProperties appProperties, MeterRegistry meterRegistry) {
+        AppProperties.HealthLakeProperties.CacheProperties props = appProperties.getHealthlake().getCache();
+        this.enabled = props.isEnabled();
+        this.freshFor = props.getFreshFor();
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(props.getMaxSize().toBytes())
+                // Java strings are at most two bytes per char
+                .weigher((String key, CachedBundle bundle) -> 2 * bundle.entries().length())
+                .expireAfterWrite(props.getRetainFor())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "shl.healthlake.bundles");
+    }
+
+    /**
+     * The cached result, fresh or not; null on a miss or when the cache is disabled.
+     */
+    public CachedBundle get(String patientId, FhirCategory category) {
+        return enabled ? cache.getIfPresent(key(patientId, category)) : null;
+    }
+
+    public boolean isFresh(CachedBundle bundle) {
+        return bundle.fetchedAt().plus(freshFor).isAfter(Instant.now());
+    }
+
+    public CachedBundle put(String patientId, FhirCategory category, String entries, int count,
+                            String etag, String lastModified) {
+        CachedBundle bundle = new CachedBundle(entries, count, etag, lastModified, Instant.now());
+        if (enabled) {
+            cache.put(key(patientId, category), bundle);
+        }
+        return bundle;
+    }
+
+    /**
+     * Restarts the freshness window of an entry HealthLake confirmed as unchanged.
+     */
+    public CachedBundle revalidated(String patientId, FhirCategory category, CachedBundle bundle) {
+        return put(patientId, category, bundle.entries(), bundle.count(), bundle.etag(), bundle.lastModified());
+    }
+
+    private static String key(String patientId, FhirCategory category) {
+        return patientId + '|' + category.name();
+    }
+
+    /**
+     * Merged search entries (comma-separated, without the enclosing array) and the validators
+     * HealthLake returned for them. Validators are only kept for single-page results: for a
+     * paged search, an unchanged first page says nothing about the pages after it.
+     */
+    public record CachedBundle(String entries, int count, String etag, String lastModified, Instant fetchedAt) {
+
+        public boolean canRevalidate() {
+            return etag != null || lastModified != null;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.chanakya.shl.cache;
+
+import com.chanakya.shl.config.AppProperties;
+import com.chanakya.shl.model.ManifestTemplate;
+import com.chanakya.shl.model.document.ShlContentDocument;
+import com.chanakya.shl.model.document.ShlDocument;
+import com.chanakya.shl.model.dto.response.ManifestFileEntry;
+import com.chanakya.shl.model.dto.response.ManifestResponse;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import tools.jackson.databind.ObjectMapper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Pre-serialized manifests keyed by manifestId, for SHLs whose manifest response can only
+ * differ between requests in its links: no passcode, not single-use and not long-term. The
+ * status is then always {@code finalized}, so a template stays valid until the SHL's status
+ * changes, with one exception: {@code InlinePayloadMigration} can later move a payload onto its
+ * content record and delete the S3 object the template still points at. The manifest service
+ * falls back to the current record when that object is gone and evicts the template through
+ * {@link #invalidate(String)}.
+ * <p>
+ * Templates are serialized with the application's {@link ObjectMapper} from the same response
+ * types the dynamic path uses, with a marker value standing in for each file's
+ * {@code embedded} or {@code location}. The JSON around the marker becomes the template. Entries
+ * are evicted through {@link ShlLookupCache#invalidate(ShlDocument)}, the hook every status
+ * change already calls.
+ */
+@Component
+@Slf4j
+public class ManifestTemplateCache {
+
+    private static final String SLOT = "@@shl-manifest-slot@@";
+    private static final String FINALIZED = "finalized";
+
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final Cache<String, ManifestTemplate> cache;
+
+    public ManifestTemplateCache(ObjectMapper objectMapper, AppProperties appProperties,
+                                 MeterRegistry meterRegistry) {
+        AppProperties.ManifestCacheProperties props = appProperties.getManifestCache();
+        this.objectMapper = objectMapper;
+        this.enabled = props.isTemplatesEnabled();
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(props.getTemplateMaxSize().toBytes())
+                .weigher((String manifestId, ManifestTemplate template) -> template.weight())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "shl.manifest-template");
+    }
+
+    /**
+     * Whether this SHL's manifest is served from a template.
+     */
+    public boolean appliesTo(ShlDocument shl) {
+        String flags = shl.getFlags() != null ? shl.getFlags() : "";
+        return enabled && !shl.isSingleUse() && !flags.contains("P") && !flags.contains("L");
+    }
+
+    /**
+     * The cached template for this SHL, or null.
+     */
+    public ManifestTemplate get(ShlDocument shl) {
+        ManifestTemplate template = cache.getIfPresent(shl.getManifestId());
+        return template != null && template.shlId().equals(shl.getId()) ? template : null;
+    }
+
+    /**
+     * Builds and caches the template for an SHL from its contents in manifest order.
+     */
+    public ManifestTemplate put(ShlDocument shl, List<ShlContentDocument> contents) {
+        byte[] envelope = objectMapper.writeValueAsBytes(
+                ManifestResponse.builder().status(FINALIZED).files(List.of()).build());
+        int[] slot = find(envelope, "[]".getBytes(StandardCharsets.US_ASCII));
+        ManifestTemplate template = new ManifestTemplate(shl.getId(),
+                Arrays.copyOfRange(envelope, 0, slot[0] + 1),
+                Arrays.copyOfRange(envelope, slot[1] - 1, envelope.length),
+                contents.stream().map(this::fileTemplate).toList());
+        cache.put(shl.getManifestId(), template);
+        log.debug("Cached manifest template for SHL {} ({} files)", shl.getId(), contents.size());
+        return template;
+    }
+
+    public void invalidate(String manifestId) {
+        cache.invalidate(manifestId);
+    }
+
+    private ManifestTemplate.FileTemplate fileTemplate(ShlContentDocument content) {
+        String lastUpdated = content.getCreatedAt() != null ? content.getCreatedAt().toString() : null;
+        byte[] embedded = entry(ManifestFileEntry.builder()
+                .contentType(content.getContentType()).embedded(SLOT).lastUpdated(lastUpdated).build());
+        byte[] location = entry(ManifestFileEntry.builder()
+                .contentType(content.getContentType()).location(SLOT).lastUpdated(lastUpdated).build());
+        int[] embeddedSlot = find(embedded, quotedSlot());
+        int[] locationSlot = find(location, quotedSlot());
+
+        ShlContentDocument metadata = ShlContentDocument.builder()
+                .id(content.getId())
+                .shlId(content.getShlId())
+                .contentType(content.getContentType())
+                .storage(content.getStorage())
+                .s3Key(content.getS3Key())
+                .jweLength(content.getJweLength())
+                .createdAt(content.getCreatedAt())
+                .build();
+        ManifestTemplate.FileTemplate file = new ManifestTemplate.FileTemplate(metadata,
+                Arrays.copyOfRange(embedded, 0, embeddedSlot[0]),
+                Arrays.copyOfRange(embedded, embeddedSlot[1], embedded.length),
+                Arrays.copyOfRange(location, 0, locationSlot[0]),
+                Arrays.copyOfRange(location, locationSlot[1], location.length),
+                null);
+        if (content.isInline()) {
+            return new ManifestTemplate.FileTemplate(metadata, file.embeddedBefore(), file.embeddedAfter(),
+                    file.locationBefore(), file.locationAfter(), file.embedded(content.getInlinePayload()));
+        }
+        return file;
+    }
+
+    private byte[] entry(ManifestFileEntry entry) {
+        return objectMapper.writeValueAsBytes(entry);
+    }
+
+    private static byte[] quotedSlot() {
+        return ("\"" + SLOT + "\"").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Start (inclusive) and end (exclusive) of the first occurrence of {@code target}.
+     */
+    private static int[] find(byte[] json, byte[] target) {
+        outer:
+        for (int i = 0; i <= json.length - target.length; i++) {
+            for (int j = 0; j < target.length; j++) {
+                if (json[i + j] != target[j]) {
+                    continue outer;
+                }
+            }
+            return new int[]{i, i + target.length};
+        }
+        throw new IllegalStateException("Manifest serialization has no slot for "
+                + new String(target, StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,259 @@
+package com.chanakya.shl.cache;
+
+import com.chanakya.shl.config.AppProperties;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+/**
+ * Two-tier read-through cache for JWE payload objects, keyed by S3 key.
+ * <ul>
+ *   <li>Heap tier: small, weight-bounded map of payload bytes for the hottest objects.</li>
+ *   <li>Disk tier: larger, byte-budgeted set of files under a local directory, read back
+ *       through memory-mapped buffers so large payloads stay off the Java heap.</li>
+ * </ul>
+ * Stored objects never change after upload, so entries only leave the cache through
+ * eviction or {@link #invalidatePrefix(String)}. Disk writes run after {@link #put} returns, so
+ * each one carries the invalidation generation it was scheduled under and is discarded if any
+ * invalidation has happened since; otherwise a write pending while an SHL was deleted would
+ * bring its payload back. Cached bytes are the JWE compact
+ * serialization exactly as stored in S3, so payloads remain encrypted at rest.
+ */
+@Component
+@Slf4j
+public class PayloadCache {
+
+    private final boolean enabled;
+    private final long heapMaxEntryBytes;
+    private final Cache<String, byte[]> heapTier;
+    private final Cache<String, DiskEntry> diskTier;
+    private final Path diskDirectory;
+    private final Scheduler diskWriter;
+    private final Object diskLock = new Object();
+    /** Number of prefix invalidations so far; guarded by {@link #diskLock}. */
+    private long invalidations;
+
+    @Autowired
+    public PayloadCache(AppProperties appProperties, MeterRegistry meterRegistry) {
+        this(appProperties, meterRegistry, Schedulers.boundedElastic(), ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Tests pass their own disk-write scheduler and cache maintenance executor to control when
+     * spills and evictions happen.
+     */
+    PayloadCache(AppProperties appProperties, MeterRegistry meterRegistry, Scheduler diskWriter,
+                 Executor maintenance) {
+        AppProperties.PayloadCacheProperties props = appProperties.getPayloadCache();
+        this.enabled = props.isEnabled();
+        this.heapMaxEntryBytes = props.getHeapMaxEntrySize().toBytes();
+        this.diskWriter = diskWriter;
+
+        this.heapTier = Caffeine.newBuilder()
+                .executor(maintenance)
+                .maximumWeight(props.getHeapMaxSize().toBytes())
+                .weigher((String key, byte[] value) -> value.length)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, heapTier, "shl.payload.heap");
+
+        if (enabled && props.isDiskEnabled()) {
+            this.diskDirectory = prepareDirectory(Path.of(props.getDiskDirectory()));
+            this.diskTier = Caffeine.newBuilder()
+                    .executor(maintenance)
+                    .maximumWeight(props.getDiskMaxSize().toBytes())
+                    .weigher((String key, DiskEntry entry) -> entry.length())
+                    .removalListener((String key, DiskEntry entry, RemovalCause cause) -> {
+                        // Replacements reuse the same file name, so only delete on real removals
+                        if (entry != null && cause != RemovalCause.REPLACED) {
+                            deleteQuietly(entry.path());
+                        }
+                    })
+                    .recordStats()
+                    .build();
+            CaffeineCacheMetrics.monitor(meterRegistry, diskTier, "shl.payload.disk");
+        } else {
+            this.diskDirectory = null;
+            this.diskTier = null;
+        }
+    }
+
+    /**
+     * Returns the cached payload for the key, checking the heap tier first and then the
+     * disk tier. Disk hits small enough for the heap tier are promoted.
+     */
+    public ByteBuffer get(String s3Key) {
+        if (!enabled) {
+            return null;
+        }
+        byte[] heapValue = heapTier.getIfPresent(s3Key);
+        if (heapValue != null) {
+            return ByteBuffer.wrap(heapValue).asReadOnlyBuffer();
+        }
+        if (diskTier == null) {
+            return null;
+        }
+        DiskEntry entry = diskTier.getIfPresent(s3Key);
+        if (entry == null) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(entry.path(), StandardOpenOption.READ)) {
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, entry.length());
+            if (entry.length() <= heapMaxEntryBytes) {
+                byte[] bytes = new byte[entry.length()];
+                mapped.duplicate().get(bytes);
+                heapTier.put(s3Key, bytes);
+            }
+            return mapped;
+        } catch (IOException e) {
+            log.warn("Dropping unreadable disk cache entry for {}: {}", s3Key, e.getMessage());
+            diskTier.invalidate(s3Key);
+            return null;
+        }
+    }
+
+    /**
+     * Whether a payload of the given size is worth buffering on a streamed read so it can
+     * be cached once the stream completes.
+     */
+    public boolean accepts(long length) {
+        return enabled && length >= 0 && length <= heapMaxEntryBytes;
+    }
+
+    /**
+     * Stores a payload in the heap tier (when small enough) and asynchronously spills it
+     * to the disk tier.
+     */
+    public void put(String s3Key, byte[] payload) {
+        if (!enabled) {
+            return;
+        }
+        if (payload.length <= heapMaxEntryBytes) {
+            heapTier.put(s3Key, payload);
+        }
+        if (diskTier != null) {
+            long generation = currentGeneration();
+            Mono.fromRunnable(() -> writeToDisk(s3Key, payload, generation))
+                    .subscribeOn(diskWriter)
+                    .subscribe(null, err -> log.warn("Failed to spill payload {} to disk cache: {}",
+                            s3Key, err.getMessage()));
+        }
+    }
+
+    /**
+     * Drops every entry whose S3 key starts with the given prefix, e.g. all payloads of an SHL.
+     */
+    public void invalidatePrefix(String prefix) {
+        heapTier.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+        if (diskTier != null) {
+            synchronized (diskLock) {
+                invalidations++;
+                diskTier.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+            }
+        }
+    }
+
+    @PreDestroy
+    public void clear() {
+        heapTier.invalidateAll();
+        if (diskTier != null) {
+            diskTier.invalidateAll();
+            diskTier.cleanUp();
+        }
+    }
+
+    private long currentGeneration() {
+        synchronized (diskLock) {
+            return invalidations;
+        }
+    }
+
+    /**
+     * Writes the file outside the lock, then publishes it under the lock only if no invalidation
+     * happened since the put; a stale write is deleted instead.
+     */
+    private void writeToDisk(String s3Key, byte[] payload, long generation) {
+        if (diskTier.getIfPresent(s3Key) != null) {
+            return;
+        }
+        Path path = diskDirectory.resolve(fileNameFor(s3Key));
+        Path tmp;
+        try {
+            tmp = Files.createTempFile(diskDirectory, "payload", ".tmp");
+            Files.write(tmp, payload);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        synchronized (diskLock) {
+            if (invalidations != generation || diskTier.getIfPresent(s3Key) != null) {
+                deleteQuietly(tmp);
+                return;
+            }
+            try {
+                Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                deleteQuietly(tmp);
+                throw new UncheckedIOException(e);
+            }
+            diskTier.put(s3Key, new DiskEntry(path, payload.length));
+        }
+    }
+
+    private static Path prepareDirectory(Path directory) {
+        try {
+            Files.createDirectories(directory);
+            // The disk index lives in memory, so files left by a previous process are orphans
+            try (Stream<Path> existing = Files.list(directory)) {
+                existing.forEach(PayloadCache::deleteQuietly);
+            }
+            return directory;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot prepare payload cache directory: " + directory, e);
+        }
+    }
+
+    private static String fileNameFor(String s3Key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(s3Key.getBytes(StandardCharsets.UTF_8))) + ".jwe";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.debug("Could not delete payload cache file {}: {}", path, e.getMessage());
+        }
+    }
+
+    private record DiskEntry(Path path, int length) {
+    }
+}
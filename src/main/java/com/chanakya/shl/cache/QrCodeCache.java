@@ -0,0 +1,78 @@
+package com.chanakya.shl.cache;
+
+import com.chanakya.shl.config.AppProperties;
+import com.chanakya.shl.model.QrImage;
+import com.chanakya.shl.model.enums.QrFormat;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.function.Supplier;
+
+/**
+ * Cache of rendered QR images keyed by (SHA-256 of the encoded URL, size, format). A QR code
+ * is a pure function of those three, so entries never go stale and are only evicted for space.
+ * <p>
+ * The cache is a byte-weighted heap tier only. The image itself encodes the full shlink,
+ * decryption key included, so it is never written anywhere the encrypted payloads are stored.
+ */
+@Component
+public class QrCodeCache {
+
+    private final boolean enabled;
+    private final Cache<String, QrImage> heapTier;
+
+    public QrCodeCache(AppProperties appProperties, MeterRegistry meterRegistry) {
+        AppProperties.QrCacheProperties props = appProperties.getQrCache();
+        this.enabled = props.isEnabled();
+        this.heapTier = Caffeine.newBuilder()
+                .maximumWeight(props.getMaxSize().toBytes())
+                .weigher((String key, QrImage image) -> image.bytes().length)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, heapTier, "shl.qr");
+    }
+
+    /**
+     * Returns the cached image for the given parameters, or renders it with {@code renderer}
+     * (which must be safe to call off the event loop) and caches the result.
+     */
+    public Mono<QrImage> get(String content, int size, QrFormat format, Supplier<Mono<byte[]>> renderer) {
+        if (!enabled) {
+            return renderer.get().map(bytes -> toImage(bytes, format));
+        }
+        String key = cacheKey(content, size, format);
+        return Mono.defer(() -> {
+            QrImage cached = heapTier.getIfPresent(key);
+            if (cached != null) {
+                return Mono.just(cached);
+            }
+            return renderer.get()
+                    .map(bytes -> toImage(bytes, format))
+                    .doOnNext(image -> heapTier.put(key, image));
+        });
+    }
+
+    private static QrImage toImage(byte[] bytes, QrFormat format) {
+        return new QrImage(bytes, format, "\"" + sha256Hex(bytes).substring(0, 32) + "\"");
+    }
+
+    private static String cacheKey(String content, int size, QrFormat format) {
+        return sha256Hex(content.getBytes(StandardCharsets.UTF_8)) + "-" + size + "." + format.getExtension();
+    }
+
+    private static String sha256Hex(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.chanakya.shl.cache;
+
+import com.chanakya.shl.config.AppProperties;
+import com.chanakya.shl.model.document.ShlDocument;
+import com.chanakya.shl.repository.ShlRepository;
+import com.chanakya.shl.util.MetricsUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+/**
+ * Bounded, TTL-evicted cache of {@link ShlDocument} metadata keyed by manifestId.
+ * Sits in front of {@link ShlRepository#findByManifestId(String)} so repeated scans
+ * of the same QR code do not each cost a Mongo round trip.
+ * <p>
+ * Callers always receive a copy, so in-place mutations (e.g. {@code setActive(false)})
+ * never leak into the cached instance. Any code path that changes an SHL's status
+ * must call {@link #invalidate(ShlDocument)} after persisting the change; that also drops
+ * the SHL's {@link ManifestTemplateCache} entry.
+ */
+@Component
+@Slf4j
+public class ShlLookupCache {
+
+    private final ShlRepository shlRepository;
+    private final ManifestTemplateCache manifestTemplateCache;
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final Cache<String, ShlDocument> cache;
+
+    public ShlLookupCache(ShlRepository shlRepository, ManifestTemplateCache manifestTemplateCache,
+                          AppProperties appProperties, MeterRegistry meterRegistry) {
+        AppProperties.ManifestCacheProperties props = appProperties.getManifestCache();
+        this.shlRepository = shlRepository;
+        this.manifestTemplateCache = manifestTemplateCache;
+        this.meterRegistry = meterRegistry;
+        this.enabled = props.isEnabled();
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(props.getMaximumSize())
+                .expireAfterWrite(Duration.ofSeconds(props.getTtlSeconds()))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "shl.manifest-lookup");
+    }
+
+    public Mono<ShlDocument> findByManifestId(String manifestId) {
+        if (!enabled) {
+            return load(manifestId);
+        }
+        return Mono.defer(() -> {
+            ShlDocument cached = cache.getIfPresent(manifestId);
+            if (cached != null) {
+                return Mono.just(cached.toBuilder().build());
+            }
+            return load(manifestId)
+                    .doOnNext(shl -> cache.put(manifestId, shl.toBuilder().build()));
+        });
+    }
+
+    private Mono<ShlDocument> load(String manifestId) {
+        return MetricsUtil.timed(shlRepository.findByManifestId(manifestId),
+                meterRegistry, "shl.mongo.query", "query", "shl-by-manifest-id");
+    }
+
+    public void invalidate(ShlDocument shl) {
+        if (shl.getManifestId() != null) {
+            cache.invalidate(shl.getManifestId());
+            manifestTemplateCache.invalidate(shl.getManifestId());
+            log.debug("Invalidated cached SHL for manifestId: {}", shl.getManifestId());
+        }
+    }
+}
@@ -4,6 +4,9 @@ import lombok.Getter;
 import lombok.Setter;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
 
 @Getter
 @Setter
@@ -15,9 +18,37 @@ public class AppProperties {
     private String viewerPath;
     private int defaultPasscodeAttempts = 10;
     private int fileTokenTtlMinutes = 60;
+    private FileTokenProperties fileToken = new FileTokenProperties();
     private int qrCodeDefaultSize = 300;
     private S3Properties s3 = new S3Properties();
     private HealthLakeProperties healthlake = new HealthLakeProperties();
+    private ManifestCacheProperties manifestCache = new ManifestCacheProperties();
+    private PayloadCacheProperties payloadCache = new PayloadCacheProperties();
+    private PasscodeProperties passcode = new PasscodeProperties();
+    private AccessLogProperties accessLog = new AccessLogProperties();
+    private CounterProperties counters = new CounterProperties();
+    private QrCacheProperties qrCache = new QrCacheProperties();
+    private BatchProperties batch = new BatchProperties();
+    private PayloadSweepProperties payloadSweep = new PayloadSweepProperties();
+    private ContentBackfillProperties contentBackfill = new ContentBackfillProperties();
+    private InlinePayloadProperties inlinePayloads = new InlinePayloadProperties();
+    private CryptoProperties crypto = new CryptoProperties();
+
+    @Getter
+    @Setter
+    public static class FileTokenProperties {
+        /** How download tokens are issued: one Mongo document each, or signed into the URL. */
+        private Mode mode = Mode.STORED;
+        /** Base64 HMAC-SHA256 key for signed tokens, at least 32 bytes, shared by all instances. */
+        private String signingKey;
+        /** Consumed signed tokens remembered locally in front of the shared consumed set. */
+        private long consumedCacheSize = 100_000;
+
+        public enum Mode {
+            STORED,
+            SIGNED
+        }
+    }
 
     @Getter
     @Setter
@@ -26,6 +57,11 @@ public class AppProperties {
         private String region;
         private String endpoint;
         private String payloadPrefix = "payloads/";
+        private DataSize multipartPartSize = DataSize.ofMegabytes(8);
+        /** Payloads of one SHL encrypted and uploaded at the same time. */
+        private int uploadConcurrency = 4;
+        /** Payloads fetched at the same time when a manifest embeds them. */
+        private int downloadConcurrency = 8;
     }
 
     @Getter
@@ -33,5 +69,178 @@ public class AppProperties {
     public static class HealthLakeProperties {
         private String datastoreEndpoint;
         private String region = "us-east-1";
+        /** Resources requested per search page ({@code _count}). */
+        private int pageSize = 100;
+        /** Upper bound on pages followed per search, against runaway next links. */
+        private int maxPages = 1000;
+        /** Categories fetched at the same time for one SHL. */
+        private int maxConcurrentRequests = 4;
+        /** Largest search page the client will buffer. */
+        private DataSize maxPageBytes = DataSize.ofMegabytes(16);
+        /** How multiple categories are fetched: one search each, or one {@code Patient/$everything}. */
+        private FetchMode fetchMode = FetchMode.PER_CATEGORY;
+        /** In {@code everything} mode, store all categories as one bundle instead of one per category. */
+        private boolean combineCategories = false;
+        private CacheProperties cache = new CacheProperties();
+        private ClientProperties client = new ClientProperties();
+
+        public enum FetchMode {
+            PER_CATEGORY,
+            EVERYTHING
+        }
+
+        @Getter
+        @Setter
+        public static class CacheProperties {
+            private boolean enabled = true;
+            /** How long a fetched bundle is served without contacting HealthLake. */
+            private Duration freshFor = Duration.ofMinutes(5);
+            /** How long a stale bundle is kept for conditional revalidation. */
+            private Duration retainFor = Duration.ofHours(1);
+            /** Upper bound on memory held by cached bundles. */
+            private DataSize maxSize = DataSize.ofMegabytes(64);
+        }
+
+        @Getter
+        @Setter
+        public static class ClientProperties {
+            /** Pooled connections to the datastore, shared by all in-flight searches. */
+            private int maxConnections = 50;
+            /** Requests queued for a pooled connection before further ones fail fast. */
+            private int maxPendingAcquires = 500;
+            private Duration pendingAcquireTimeout = Duration.ofSeconds(10);
+            private Duration maxIdleTime = Duration.ofSeconds(30);
+            private Duration maxLifeTime = Duration.ofMinutes(5);
+            private Duration connectTimeout = Duration.ofSeconds(2);
+            /** Longest wait between reads while a response is arriving. */
+            private Duration readTimeout = Duration.ofSeconds(10);
+            /** Limit on one attempt, response body included. */
+            private Duration requestTimeout = Duration.ofSeconds(30);
+            /** Retries after a 429, a 5xx, a timeout or a connection failure; 0 disables retrying. */
+            private int maxRetries = 3;
+            private Duration retryMinBackoff = Duration.ofMillis(200);
+            private Duration retryMaxBackoff = Duration.ofSeconds(5);
+            /** Fraction of each backoff that is randomized, so throttled callers spread out. */
+            private double retryJitter = 0.5;
+            /** Credentials are refreshed in the background this long before they expire. */
+            private Duration credentialsRefreshAhead = Duration.ofMinutes(5);
+            /** Re-resolution interval for credentials that carry no expiry. */
+            private Duration credentialsMaxAge = Duration.ofMinutes(15);
+        }
+    }
+
+    @Getter
+    @Setter
+    public static class ManifestCacheProperties {
+        private boolean enabled = true;
+        private long maximumSize = 10_000;
+        private int ttlSeconds = 30;
+        /** Keep pre-serialized manifests for SHLs whose response only varies in its links. */
+        private boolean templatesEnabled = true;
+        /** Heap budget for manifest templates. */
+        private DataSize templateMaxSize = DataSize.ofMegabytes(32);
+    }
+
+    @Getter
+    @Setter
+    public static class PayloadCacheProperties {
+        private boolean enabled = true;
+        private DataSize heapMaxSize = DataSize.ofMegabytes(64);
+        private DataSize heapMaxEntrySize = DataSize.ofKilobytes(512);
+        private boolean diskEnabled = true;
+        private DataSize diskMaxSize = DataSize.ofGigabytes(2);
+        private String diskDirectory = System.getProperty("java.io.tmpdir") + "/shl-payload-cache";
+    }
+
+    @Getter
+    @Setter
+    public static class PasscodeProperties {
+        private String algorithm = "bcrypt";
+        private int bcryptStrength = 10;
+        private int pbkdf2Iterations = 310_000;
+        private int executorThreads = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+        private int queueCapacity = 256;
+    }
+
+    @Getter
+    @Setter
+    public static class AccessLogProperties {
+        private int bufferCapacity = 10_000;
+        private int batchSize = 500;
+        private Duration flushInterval = Duration.ofSeconds(1);
+        private Duration shutdownTimeout = Duration.ofSeconds(10);
+        private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_NEWEST;
+
+        public enum OverflowPolicy {
+            /** Discard the event being logged. */
+            DROP_NEWEST,
+            /** Discard the oldest buffered event to make room. */
+            DROP_OLDEST,
+            /** Insert the event directly, bypassing the buffer. */
+            WRITE_THROUGH
+        }
+    }
+
+    @Getter
+    @Setter
+    public static class CounterProperties {
+        /** Cron for the job that recomputes contentCount / successfulAccessCount from source collections. */
+        private String reconcileCron = "0 30 3 * * *";
+    }
+
+    @Getter
+    @Setter
+    public static class PayloadSweepProperties {
+        /** Cron for the job that deletes payload objects no content document refers to. */
+        private String cron = "0 0 4 * * *";
+        /** Objects younger than this are skipped, so creates still in progress are not touched. */
+        private Duration gracePeriod = Duration.ofHours(6);
+    }
+
+    @Getter
+    @Setter
+    public static class ContentBackfillProperties {
+        /** Cron for the job that fills in jweLength / contentHash on content records missing them. */
+        private String cron = "0 15 4 * * *";
+        /** Payloads read from S3 at the same time while backfilling. */
+        private int concurrency = 4;
+    }
+
+    @Getter
+    @Setter
+    public static class InlinePayloadProperties {
+        /** Encrypted payloads up to this size are stored on their content record instead of in S3; 0 disables. */
+        private DataSize maxSize = DataSize.ofKilobytes(16);
+        /** When existing small S3 payloads are moved onto their records. */
+        private String migrationCron = "0 30 4 * * *";
+        /** Objects read at the same time while migrating. */
+        private int migrationConcurrency = 4;
+    }
+
+    @Getter
+    @Setter
+    public static class CryptoProperties {
+        /** Largest plaintext a streamed JWE may inflate to before decryption is abandoned. */
+        private DataSize maxDecompressedSize = DataSize.ofMegabytes(512);
+    }
+
+    @Getter
+    @Setter
+    public static class QrCacheProperties {
+        private boolean enabled = true;
+        private DataSize maxSize = DataSize.ofMegabytes(32);
+        private int minSize = 100;
+        private int maxImageSize = 1000;
+    }
+
+    @Getter
+    @Setter
+    public static class BatchProperties {
+        /** Batch items prepared (hashed, fetched, encrypted, uploaded) at the same time. */
+        private int concurrency = 16;
+        /** Prepared items inserted per insertMany. */
+        private int insertBatchSize = 200;
+        /** Longest a prepared item waits for its insert chunk to fill. */
+        private Duration insertFlushInterval = Duration.ofMillis(500);
     }
 }
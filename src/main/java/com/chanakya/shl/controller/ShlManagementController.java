@@ -1,9 +1,13 @@
 package com.chanakya.shl.controller;
 
+import com.chanakya.shl.model.CursorPage;
+import com.chanakya.shl.model.ShlListFilter;
 import com.chanakya.shl.model.dto.request.CreateShlRequest;
+import com.chanakya.shl.model.dto.response.BatchCreateResult;
 import com.chanakya.shl.model.dto.response.CreateShlResponse;
 import com.chanakya.shl.model.dto.response.ShlDetailResponse;
 import com.chanakya.shl.model.enums.FhirCategory;
+import com.chanakya.shl.model.enums.QrFormat;
 import com.chanakya.shl.service.AccessLogService;
 import com.chanakya.shl.service.ShlService;
 import tools.jackson.databind.ObjectMapper;
@@ -12,13 +16,22 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.codec.multipart.FilePart;
 import org.springframework.http.codec.multipart.Part;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -28,6 +41,10 @@ import java.util.Map;
 @Slf4j
 public class ShlManagementController {
 
+    private static final int MAX_PAGE_SIZE = 200;
+    private static final Sort NEWEST_FIRST = Sort.by(Sort.Order.desc("createdAt"), Sort.Order.desc("id"));
+    private static final CacheControl QR_CACHE_CONTROL = CacheControl.maxAge(Duration.ofDays(1)).cachePrivate();
+
     private final ShlService shlService;
     private final AccessLogService accessLogService;
     private final ObjectMapper objectMapper;
@@ -69,54 +86,106 @@ public class ShlManagementController {
             optionsMono = Mono.just(new CreateShlOptions());
         }
 
-        return optionsMono.flatMap(options ->
-                DataBufferUtils.join(filePart.content())
-                        .map(dataBuffer -> {
-                            try {
-                                byte[] bytes = new byte[dataBuffer.readableByteCount()];
-                                dataBuffer.read(bytes);
-                                return bytes;
-                            } finally {
-                                DataBufferUtils.release(dataBuffer);
-                            }
-                        })
-                        .flatMap(fileBytes -> {
-                            String contentType = filePart.headers().getContentType() != null
-                                    ? filePart.headers().getContentType().toString()
-                                    : "application/octet-stream";
-                            return shlService.createFromFile(
-                                    fileBytes, contentType, filePart.filename(),
-                                    options.label, options.passcode, options.expirationInSeconds,
-                                    options.singleUse, options.directAccess, options.longTerm,
-                                    options.patientId, options.categories);
-                        })
-        ).map(response -> ResponseEntity.status(201).body(response));
+        return optionsMono.flatMap(options -> {
+            String contentType = filePart.headers().getContentType() != null
+                    ? filePart.headers().getContentType().toString()
+                    : "application/octet-stream";
+            return shlService.createFromFile(
+                    filePart.content(), contentType, filePart.filename(),
+                    options.label, options.passcode, options.expirationInSeconds,
+                    options.singleUse, options.directAccess, options.longTerm,
+                    options.patientId, options.categories, options.includeQrCode);
+        }).map(response -> ResponseEntity.status(201).body(response));
+    }
+
+    /**
+     * Bulk creation: one {@link CreateShlRequest} per NDJSON line in, one
+     * {@link BatchCreateResult} per line out, streamed while the batch runs. Results arrive in
+     * completion order and carry the zero-based line index; failed lines get an {@code error}
+     * instead of failing the batch.
+     */
+    @PostMapping(value = "/batch", consumes = MediaType.APPLICATION_NDJSON_VALUE,
+            produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<BatchCreateResult> createBatch(@RequestBody Flux<CreateShlRequest> requests) {
+        log.debug("Creating SHLs from NDJSON batch");
+        return shlService.createBatch(requests);
     }
 
+    /**
+     * Lists SHLs newest first. Pass the returned {@code nextCursor} as {@code cursor} to fetch the
+     * next page; {@code totalElements} is only computed when {@code includeTotal=true}.
+     * {@code flags} matches SHLs carrying every listed flag; the expiry window is
+     * {@code [expiresAfter, expiresBefore)}. The legacy {@code page} parameter still selects
+     * offset pagination (with a total, filtered by {@code active} only) for existing clients,
+     * but its cost grows with the page number.
+     */
     @GetMapping
     public Mono<ResponseEntity<Map<String, Object>>> listShls(
             @RequestParam(required = false) Boolean active,
-            @RequestParam(defaultValue = "0") int page,
-            @RequestParam(defaultValue = "20") int size) {
-
-        PageRequest pageable = PageRequest.of(page, size);
-        return Mono.zip(
-                shlService.listShls(active, pageable).collectList(),
-                shlService.countShls(active)
-        ).map(tuple -> ResponseEntity.ok(Map.of(
-                "content", tuple.getT1(),
-                "totalElements", tuple.getT2(),
-                "page", page,
-                "size", size
-        )));
+            @RequestParam(required = false) String flags,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant expiresAfter,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Instant expiresBefore,
+            @RequestParam(required = false) String labelPrefix,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer page,
+            @RequestParam(defaultValue = "20") int size,
+            @RequestParam(defaultValue = "false") boolean includeTotal) {
+
+        validatePageSize(size);
+        if (page != null && cursor == null) {
+            PageRequest pageable = PageRequest.of(page, size, NEWEST_FIRST);
+            return Mono.zip(
+                    shlService.listShls(active, pageable).collectList(),
+                    shlService.countShls(active)
+            ).map(tuple -> ResponseEntity.ok(Map.of(
+                    "content", tuple.getT1(),
+                    "totalElements", tuple.getT2(),
+                    "page", page,
+                    "size", size
+            )));
+        }
+
+        ShlListFilter filter = new ShlListFilter(active, flags, expiresAfter, expiresBefore, labelPrefix);
+        return shlService.listShls(filter, cursor, size, includeTotal)
+                .map(result -> ResponseEntity.ok(cursorPageBody(result, size)));
     }
 
     @GetMapping("/{id}")
-    public Mono<ResponseEntity<ShlDetailResponse>> getShlDetail(@PathVariable String id) {
-        return shlService.getShlDetail(id)
+    public Mono<ResponseEntity<ShlDetailResponse>> getShlDetail(
+            @PathVariable String id,
+            @RequestParam(defaultValue = "true") boolean includeQrCode) {
+        return shlService.getShlDetail(id, includeQrCode)
                 .map(ResponseEntity::ok);
     }
 
+    /**
+     * Serves the SHL's QR code as an image. The ETag is derived from the image bytes, so a
+     * client revalidating with {@code If-None-Match} gets a 304 without a body. Responses are
+     * private to the caller because the encoded link carries the decryption key.
+     */
+    @GetMapping("/{id}/qr")
+    public Mono<ResponseEntity<byte[]>> getQrCode(
+            @PathVariable String id,
+            @RequestParam(required = false) Integer size,
+            @RequestParam(defaultValue = "png") String format,
+            ServerWebExchange exchange) {
+        QrFormat qrFormat = QrFormat.fromParameter(format);
+        return shlService.getQrCode(id, size, qrFormat)
+                .map(image -> {
+                    if (exchange.checkNotModified(image.etag())) {
+                        return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                                .eTag(image.etag())
+                                .cacheControl(QR_CACHE_CONTROL)
+                                .<byte[]>build();
+                    }
+                    return ResponseEntity.ok()
+                            .contentType(MediaType.parseMediaType(image.format().getMediaType()))
+                            .eTag(image.etag())
+                            .cacheControl(QR_CACHE_CONTROL)
+                            .body(image.bytes());
+                });
+    }
+
     @DeleteMapping("/{id}")
     public Mono<ResponseEntity<Void>> deactivate(@PathVariable String id) {
         return shlService.deactivate(id)
@@ -126,17 +195,42 @@ public class ShlManagementController {
     @GetMapping("/{id}/access-log")
     public Mono<ResponseEntity<Map<String, Object>>> getAccessLog(
             @PathVariable String id,
-            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer page,
             @RequestParam(defaultValue = "50") int size) {
 
-        PageRequest pageable = PageRequest.of(page, size);
-        return accessLogService.getAccessLogs(id, pageable)
-                .collectList()
-                .map(logs -> ResponseEntity.ok(Map.<String, Object>of(
-                        "content", logs,
-                        "page", page,
-                        "size", size
-                )));
+        validatePageSize(size);
+        if (page != null && cursor == null) {
+            PageRequest pageable = PageRequest.of(page, size);
+            return accessLogService.getAccessLogs(id, pageable)
+                    .collectList()
+                    .map(logs -> ResponseEntity.ok(Map.<String, Object>of(
+                            "content", logs,
+                            "page", page,
+                            "size", size
+                    )));
+        }
+
+        return accessLogService.getAccessLogs(id, cursor, size)
+                .map(logs -> ResponseEntity.ok(cursorPageBody(logs, size)));
+    }
+
+    private static Map<String, Object> cursorPageBody(CursorPage<?> page, int size) {
+        // nextCursor is null on the last page, which Map.of does not allow
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("content", page.content());
+        body.put("nextCursor", page.nextCursor());
+        body.put("size", size);
+        if (page.totalElements() != null) {
+            body.put("totalElements", page.totalElements());
+        }
+        return body;
+    }
+
+    private static void validatePageSize(int size) {
+        if (size < 1 || size > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("size must be between 1 and " + MAX_PAGE_SIZE);
+        }
     }
 
     private static class CreateShlOptions {
@@ -148,5 +242,6 @@ public class ShlManagementController {
         public boolean longTerm;
         public String patientId;
         public List<FhirCategory> categories;
+        public boolean includeQrCode = true;
     }
 }
@@ -1,15 +1,17 @@
 package com.chanakya.shl.controller;
 
 import com.chanakya.shl.model.dto.request.ManifestRequest;
-import com.chanakya.shl.model.dto.response.ManifestResponse;
 import com.chanakya.shl.service.ManifestService;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 @RestController
@@ -20,49 +22,54 @@ public class ShlProtocolController {
 
     private final ManifestService manifestService;
 
+    /**
+     * Returns the manifest as already-serialized JSON; see {@link ManifestService#serveManifest}.
+     */
     @PostMapping("/manifest/{manifestId}")
-    public Mono<ResponseEntity<ManifestResponse>> manifest(
+    public Mono<ResponseEntity<byte[]>> manifest(
             @PathVariable String manifestId,
             @Valid @RequestBody ManifestRequest request,
             ServerHttpRequest httpRequest) {
 
         log.debug("Manifest request for manifestId: {}", manifestId);
-        return manifestService.processManifestRequest(manifestId, request, httpRequest)
-                .map(response -> {
-                    var builder = ResponseEntity.ok();
-                    if ("can-change".equals(response.getStatus())) {
+        return manifestService.serveManifest(manifestId, request, httpRequest)
+                .map(manifest -> {
+                    var builder = ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON);
+                    if ("can-change".equals(manifest.status())) {
                         builder.header("Retry-After", "60");
                     }
-                    return builder.body(response);
+                    return builder.body(manifest.body());
                 });
     }
 
     /**
      * Spec-compliant U-flag direct access: GET to the manifest URL with ?recipient=
-     * returns raw JWE with Content-Type: application/jose.
+     * streams raw JWE with Content-Type: application/jose.
      */
     @GetMapping("/manifest/{manifestId}")
-    public Mono<ResponseEntity<String>> directAccess(
+    public Mono<ResponseEntity<Flux<DataBuffer>>> directAccess(
             @PathVariable String manifestId,
             @RequestParam String recipient,
             ServerHttpRequest httpRequest) {
 
         log.debug("Direct access for manifestId: {}", manifestId);
         return manifestService.processDirectAccessRawJwe(manifestId, recipient, httpRequest)
-                .map(jweString -> ResponseEntity.ok()
+                .map(payload -> ResponseEntity.ok()
                         .header(HttpHeaders.CONTENT_TYPE, "application/jose")
-                        .body(jweString));
+                        .contentLength(payload.contentLength())
+                        .body(payload.body()));
     }
 
     @GetMapping("/file/{tokenId}")
-    public Mono<ResponseEntity<String>> downloadFile(
+    public Mono<ResponseEntity<Flux<DataBuffer>>> downloadFile(
             @PathVariable String tokenId,
             ServerHttpRequest httpRequest) {
 
         log.debug("File download for token: {}", tokenId);
         return manifestService.downloadFile(tokenId, httpRequest)
-                .map(jweString -> ResponseEntity.ok()
+                .map(payload -> ResponseEntity.ok()
                         .header(HttpHeaders.CONTENT_TYPE, "application/jose")
-                        .body(jweString));
+                        .contentLength(payload.contentLength())
+                        .body(payload.body()));
     }
 }
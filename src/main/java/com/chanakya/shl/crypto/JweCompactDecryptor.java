@@ -0,0 +1,271 @@
+package com.chanakya.shl.crypto;
+
+import com.nimbusds.jose.CompressionAlgorithm;
+import com.nimbusds.jose.EncryptionMethod;
+import com.nimbusds.jose.JWEAlgorithm;
+import com.nimbusds.jose.JWEHeader;
+import com.nimbusds.jose.util.Base64URL;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterOutputStream;
+
+/**
+ * Streaming reader for {@code dir} / {@code A256GCM} compact JWEs (optionally {@code zip=DEF}),
+ * the counterpart of {@link JweCompactOutputStream}.
+ * <p>
+ * The JDK's AES-GCM cipher buffers the whole ciphertext when decrypting, so this decryptor
+ * runs AES-CTR from the GCM initial counter to recover the plaintext incrementally and feeds
+ * the recovered bytes through a second, encrypt-mode GCM cipher to recompute the tag over the
+ * original ciphertext. Memory use is therefore constant, but plaintext reaches the sink
+ * <em>before</em> the tag is verified: if {@link #decrypt} throws, everything written to the
+ * sink is unauthenticated and must be discarded. Callers that cannot discard should decrypt
+ * into a staging file and release it only after {@code decrypt} returns.
+ * <p>
+ * Inflated output is capped by the caller's limit, so a small forged {@code zip=DEF} input
+ * cannot expand without bound before its tag is checked.
+ */
+public final class JweCompactDecryptor {
+
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH = 16;
+    private static final int MAX_HEADER_LENGTH = 8 * 1024;
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private JweCompactDecryptor() {
+    }
+
+    /**
+     * Decrypts the compact JWE read from {@code in} into {@code plaintextSink}. Neither stream
+     * is closed. If this throws, the bytes already written to the sink are not authenticated.
+     *
+     * @param maxPlaintextBytes upper bound on the (decompressed) plaintext written to the sink
+     * @return the number of plaintext bytes written
+     * @throws IOException if the input is malformed, uses unsupported algorithms, fails
+     *                     authentication, or decrypts to more than {@code maxPlaintextBytes}
+     */
+    public static long decrypt(InputStream in, OutputStream plaintextSink, SecretKey key, long maxPlaintextBytes)
+            throws IOException {
+        InputStream input = in instanceof BufferedInputStream ? in : new BufferedInputStream(in, BUFFER_SIZE);
+
+        String encodedHeader = readSegment(input, MAX_HEADER_LENGTH, "header");
+        JWEHeader header = parseHeader(encodedHeader);
+        if (!readSegment(input, 0, "encrypted key").isEmpty()) {
+            throw new IOException("Direct encryption JWE must have an empty encrypted key");
+        }
+        byte[] iv = Base64URL.from(readSegment(input, 32, "IV")).decode();
+        if (iv.length != IV_LENGTH) {
+            throw new IOException("Unexpected IV length: " + iv.length);
+        }
+
+        Cipher ctr;
+        Cipher tagCheck;
+        try {
+            ctr = Cipher.getInstance("AES/CTR/NoPadding");
+            ctr.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(initialCounter(iv)));
+            tagCheck = Cipher.getInstance("AES/GCM/NoPadding");
+            tagCheck.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, iv));
+            tagCheck.updateAAD(encodedHeader.getBytes(StandardCharsets.US_ASCII));
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to initialise AES-GCM", e);
+        }
+
+        boolean compressed = CompressionAlgorithm.DEF.equals(header.getCompressionAlgorithm());
+        Inflater inflater = compressed ? new Inflater(true) : null;
+        CountingStream counter = new CountingStream(plaintextSink, maxPlaintextBytes);
+        OutputStream plaintextStage = compressed ? new InflaterOutputStream(counter, inflater, BUFFER_SIZE) : counter;
+
+        try {
+            InputStream ciphertext = Base64.getUrlDecoder().wrap(new SegmentInputStream(input));
+            byte[] buffer = new byte[BUFFER_SIZE];
+            byte[] scratch = new byte[BUFFER_SIZE + TAG_LENGTH * 2];
+            int read;
+            while ((read = ciphertext.read(buffer)) != -1) {
+                byte[] recovered = ctr.update(buffer, 0, read);
+                if (recovered != null && recovered.length > 0) {
+                    tagCheck.update(recovered, 0, recovered.length, scratch, 0);
+                    plaintextStage.write(recovered);
+                }
+            }
+            byte[] recovered = ctr.doFinal();
+            if (recovered.length > 0) {
+                tagCheck.update(recovered, 0, recovered.length, scratch, 0);
+                plaintextStage.write(recovered);
+            }
+            byte[] finalBlock = tagCheck.doFinal();
+            byte[] expectedTag = Arrays.copyOfRange(finalBlock, finalBlock.length - TAG_LENGTH, finalBlock.length);
+
+            byte[] actualTag = Base64URL.from(readSegment(input, 32, "tag")).decode();
+            if (input.read() != -1) {
+                throw new IOException("Unexpected data after JWE authentication tag");
+            }
+            if (!MessageDigest.isEqual(expectedTag, actualTag)) {
+                throw new IOException("JWE authentication tag mismatch");
+            }
+            if (plaintextStage instanceof InflaterOutputStream inflaterStage) {
+                inflaterStage.finish();
+            }
+            plaintextStage.flush();
+            return counter.count;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("AES-GCM decryption failed", e);
+        } finally {
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+    }
+
+    private static JWEHeader parseHeader(String encodedHeader) throws IOException {
+        JWEHeader header;
+        try {
+            header = JWEHeader.parse(Base64URL.from(encodedHeader));
+        } catch (ParseException e) {
+            throw new IOException("Invalid JWE header", e);
+        }
+        if (!JWEAlgorithm.DIR.equals(header.getAlgorithm())
+                || !EncryptionMethod.A256GCM.equals(header.getEncryptionMethod())) {
+            throw new IOException("Unsupported JWE algorithm: " + header.getAlgorithm()
+                    + "/" + header.getEncryptionMethod());
+        }
+        CompressionAlgorithm zip = header.getCompressionAlgorithm();
+        if (zip != null && !CompressionAlgorithm.DEF.equals(zip)) {
+            throw new IOException("Unsupported JWE compression: " + zip);
+        }
+        return header;
+    }
+
+    /**
+     * GCM encrypts the payload with a 32-bit counter starting at inc32(IV || 0^31 || 1).
+     * CTR mode increments the full block instead, which only differs after 2^32 blocks (64 GiB).
+     */
+    private static byte[] initialCounter(byte[] iv) {
+        byte[] counter = new byte[16];
+        System.arraycopy(iv, 0, counter, 0, IV_LENGTH);
+        counter[15] = 2;
+        return counter;
+    }
+
+    /**
+     * Reads up to the next '.' (or end of input), rejecting segments longer than {@code maxLength}.
+     */
+    private static String readSegment(InputStream in, int maxLength, String name) throws IOException {
+        ByteArrayOutputStream segment = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != '.') {
+            if (segment.size() >= maxLength) {
+                throw new IOException("JWE " + name + " segment too long");
+            }
+            segment.write(b);
+        }
+        return segment.toString(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Exposes the bytes of the current compact segment, reporting end-of-stream at the next '.'
+     * and consuming that delimiter.
+     */
+    private static final class SegmentInputStream extends InputStream {
+
+        private final InputStream in;
+        private boolean ended;
+
+        SegmentInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (ended) {
+                return -1;
+            }
+            int b = in.read();
+            if (b == -1 || b == '.') {
+                ended = true;
+                return -1;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (ended) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            // Peek in bulk through the buffered stream so the delimiter is never over-read
+            in.mark(len);
+            int read = in.read(b, off, len);
+            if (read == -1) {
+                ended = true;
+                return -1;
+            }
+            for (int i = 0; i < read; i++) {
+                if (b[off + i] == '.') {
+                    in.reset();
+                    in.skip(i + 1);
+                    ended = true;
+                    return i == 0 ? -1 : i;
+                }
+            }
+            return read;
+        }
+    }
+
+    /**
+     * Counts plaintext on its way to the sink and refuses to pass on more than {@code limit}
+     * bytes. It sits after the inflater, so it bounds the decompressed size.
+     */
+    private static final class CountingStream extends OutputStream {
+
+        private final OutputStream out;
+        private final long limit;
+        private long count;
+
+        CountingStream(OutputStream out, long limit) {
+            this.out = out;
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            checkLimit(1);
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            checkLimit(len);
+            out.write(b, off, len);
+            count += len;
+        }
+
+        private void checkLimit(int len) throws IOException {
+            if (len > limit - count) {
+                throw new IOException("JWE plaintext exceeds " + limit + " bytes");
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
@@ -11,6 +11,7 @@ import org.springframework.web.server.MissingRequestValueException;
 import reactor.core.publisher.Mono;
 
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestControllerAdvice
 @Slf4j
@@ -72,6 +73,14 @@ public class GlobalExceptionHandler {
                 .body(Map.of("error", ex.getMessage())));
     }
 
+    @ExceptionHandler(RejectedExecutionException.class)
+    public Mono<ResponseEntity<Map<String, String>>> handleOverloaded(RejectedExecutionException ex) {
+        log.warn("Rejected work: {}", ex.getMessage());
+        return Mono.just(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header("Retry-After", "1")
+                .body(Map.of("error", "Server busy, please retry")));
+    }
+
     @ExceptionHandler(Exception.class)
     public Mono<ResponseEntity<Map<String, String>>> handleGeneric(Exception ex) {
         log.error("Unexpected error", ex);
@@ -0,0 +1,28 @@
+package com.chanakya.shl.model;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * One page of a keyset-paginated listing. {@code nextCursor} is null on the last page;
+ * {@code totalElements} is null unless the caller asked for it.
+ */
+public record CursorPage<T>(List<T> content, String nextCursor, Long totalElements) {
+
+    /**
+     * Builds a page from rows fetched with a limit of {@code size + 1}: the extra row only
+     * signals that another page exists and is not returned.
+     */
+    public static <D, T> CursorPage<T> of(List<D> rows, int size, Function<D, PageCursor> cursorOf,
+                                          Function<D, T> mapper) {
+        return of(rows, size, cursorOf, mapper, null);
+    }
+
+    public static <D, T> CursorPage<T> of(List<D> rows, int size, Function<D, PageCursor> cursorOf,
+                                          Function<D, T> mapper, Long totalElements) {
+        boolean hasMore = rows.size() > size;
+        List<D> pageRows = hasMore ? rows.subList(0, size) : rows;
+        String nextCursor = hasMore ? cursorOf.apply(pageRows.get(size - 1)).encode() : null;
+        return new CursorPage<>(pageRows.stream().map(mapper).toList(), nextCursor, totalElements);
+    }
+}
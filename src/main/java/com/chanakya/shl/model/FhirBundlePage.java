@@ -0,0 +1,36 @@
+package com.chanakya.shl.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import tools.jackson.databind.JsonNode;
+
+import java.util.List;
+
+/**
+ * The parts of one FHIR searchset page that paging needs: its entries and its links.
+ * Everything else in the page is ignored.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record FhirBundlePage(List<Link> link, List<JsonNode> entry) {
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public record Link(String relation, String url) {
+    }
+
+    public List<JsonNode> entries() {
+        return entry != null ? entry : List.of();
+    }
+
+    /**
+     * The {@code next} link's URL, or null on the last page.
+     */
+    public String nextUrl() {
+        if (link == null) {
+            return null;
+        }
+        return link.stream()
+                .filter(l -> "next".equals(l.relation()))
+                .map(Link::url)
+                .findFirst()
+                .orElse(null);
+    }
+}
@@ -0,0 +1,7 @@
+package com.chanakya.shl.model;
+
+/**
+ * A manifest response serialized to JSON, with its status kept alongside for response headers.
+ */
+public record ManifestJson(String status, byte[] body) {
+}
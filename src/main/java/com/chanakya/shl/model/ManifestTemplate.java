@@ -0,0 +1,119 @@
+package com.chanakya.shl.model;
+
+import com.chanakya.shl.model.document.ShlContentDocument;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * A manifest response serialized ahead of time, leaving only each file's {@code embedded} or
+ * {@code location} value to fill in per request.
+ * <p>
+ * {@code head} and {@code tail} surround the comma-separated file entries. Each file keeps the
+ * JSON before and after its value slot for both forms, and inline payloads also keep their
+ * complete embedded entry.
+ */
+public record ManifestTemplate(String shlId, byte[] head, byte[] tail, List<FileTemplate> files) {
+
+    private static final byte COMMA = ',';
+
+    /**
+     * Joins rendered file entries, in manifest order, into the response body.
+     */
+    public byte[] render(List<byte[]> entries) {
+        int length = head.length + tail.length + Math.max(0, entries.size() - 1);
+        for (byte[] entry : entries) {
+            length += entry.length;
+        }
+        byte[] body = new byte[length];
+        int offset = append(body, 0, head);
+        for (int i = 0; i < entries.size(); i++) {
+            if (i > 0) {
+                body[offset++] = COMMA;
+            }
+            offset = append(body, offset, entries.get(i));
+        }
+        append(body, offset, tail);
+        return body;
+    }
+
+    /**
+     * Approximate heap footprint, for the template cache's weigher.
+     */
+    public int weight() {
+        int weight = head.length + tail.length;
+        for (FileTemplate file : files) {
+            weight += file.weight();
+        }
+        return weight;
+    }
+
+    private static int append(byte[] target, int offset, byte[] source) {
+        System.arraycopy(source, 0, target, offset, source.length);
+        return offset + source.length;
+    }
+
+    /**
+     * One file of the manifest. {@code content} holds the record's metadata without its inline
+     * payload, which lives in {@code embeddedEntry} already serialized.
+     */
+    public record FileTemplate(ShlContentDocument content,
+                               byte[] embeddedBefore, byte[] embeddedAfter,
+                               byte[] locationBefore, byte[] locationAfter,
+                               byte[] embeddedEntry) {
+
+        /** Metadata fields, object headers and the kept content document. */
+        private static final int OVERHEAD = 512;
+
+        /**
+         * The entry embedding this compact JWE. Compact JWEs are base64url segments joined by
+         * dots, so they need no JSON escaping.
+         */
+        public byte[] embedded(String jwe) {
+            return splice(embeddedBefore, quoteAscii(jwe), embeddedAfter);
+        }
+
+        public byte[] location(String url) {
+            return splice(locationBefore, quote(url), locationAfter);
+        }
+
+        int weight() {
+            return OVERHEAD + embeddedBefore.length + embeddedAfter.length
+                    + locationBefore.length + locationAfter.length
+                    + (embeddedEntry != null ? embeddedEntry.length : 0);
+        }
+
+        private static byte[] splice(byte[] before, byte[] value, byte[] after) {
+            byte[] entry = new byte[before.length + value.length + after.length];
+            int offset = append(entry, 0, before);
+            offset = append(entry, offset, value);
+            append(entry, offset, after);
+            return entry;
+        }
+
+        private static byte[] quoteAscii(String value) {
+            byte[] quoted = new byte[value.length() + 2];
+            quoted[0] = '"';
+            for (int i = 0; i < value.length(); i++) {
+                quoted[i + 1] = (byte) value.charAt(i);
+            }
+            quoted[quoted.length - 1] = '"';
+            return quoted;
+        }
+
+        private static byte[] quote(String value) {
+            StringBuilder json = new StringBuilder(value.length() + 2).append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    json.append('\\').append(c);
+                } else if (c < 0x20) {
+                    json.append(String.format("\\u%04x", (int) c));
+                } else {
+                    json.append(c);
+                }
+            }
+            return json.append('"').toString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+}
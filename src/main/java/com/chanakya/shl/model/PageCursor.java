@@ -0,0 +1,36 @@
+package com.chanakya.shl.model;
+
+import com.chanakya.shl.util.Base64UrlUtil;
+
+import java.time.Instant;
+
+/**
+ * Position in a {@code (createdAt desc, _id desc)} listing: the sort key of the last row a
+ * client has seen. Clients receive it as an opaque base64url token and pass it back unchanged
+ * to fetch the next page.
+ */
+public record PageCursor(Instant createdAt, String id) {
+
+    public String encode() {
+        return Base64UrlUtil.encode(createdAt.toEpochMilli() + ":" + id);
+    }
+
+    /**
+     * Parses a token produced by {@link #encode()}; {@code null} or blank means "first page".
+     *
+     * @throws IllegalArgumentException if the token is malformed
+     */
+    public static PageCursor decode(String token) {
+        if (token == null || token.isBlank()) {
+            return null;
+        }
+        try {
+            String decoded = Base64UrlUtil.decodeToString(token);
+            int separator = decoded.indexOf(':');
+            return new PageCursor(Instant.ofEpochMilli(Long.parseLong(decoded.substring(0, separator))),
+                    decoded.substring(separator + 1));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.chanakya.shl.model;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import reactor.core.publisher.Flux;
+
+/**
+ * An encrypted payload body exposed as a stream of buffers, with its total length known
+ * up front so responses can carry a Content-Length without materializing the payload.
+ */
+public record PayloadStream(long contentLength, Flux<DataBuffer> body) {
+}
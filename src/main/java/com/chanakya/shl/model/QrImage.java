@@ -0,0 +1,10 @@
+package com.chanakya.shl.model;
+
+import com.chanakya.shl.model.enums.QrFormat;
+
+/**
+ * A rendered QR code. {@code etag} is derived from the image bytes, so it changes only if the
+ * rendered output does.
+ */
+public record QrImage(byte[] bytes, QrFormat format, String etag) {
+}
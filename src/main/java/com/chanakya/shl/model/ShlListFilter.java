@@ -0,0 +1,24 @@
+package com.chanakya.shl.model;
+
+import java.time.Instant;
+
+/**
+ * Optional filters for the SHL listing; null fields are not applied.
+ *
+ * @param flags         SHLs must carry every flag in this string, e.g. {@code "P"} or {@code "LP"}
+ * @param expiresAfter  inclusive lower bound on {@code expiresAt}
+ * @param expiresBefore exclusive upper bound on {@code expiresAt}
+ * @param labelPrefix   case-sensitive label prefix
+ */
+public record ShlListFilter(Boolean active, String flags, Instant expiresAfter, Instant expiresBefore,
+                            String labelPrefix) {
+
+    public static ShlListFilter none() {
+        return new ShlListFilter(null, null, null, null, null);
+    }
+
+    public boolean isEmpty() {
+        return active == null && (flags == null || flags.isEmpty()) && expiresAfter == null
+                && expiresBefore == null && (labelPrefix == null || labelPrefix.isEmpty());
+    }
+}
@@ -0,0 +1,29 @@
+package com.chanakya.shl.model.document;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * A signed file-download token that has been used. Only consumed tokens are stored, and each
+ * is removed by the TTL index once the token would have expired anyway.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "consumed_file_tokens")
+public class ConsumedFileToken {
+
+    @Id
+    private String id;
+
+    @Indexed(expireAfter = "0s")
+    private Instant expiresAt;
+}
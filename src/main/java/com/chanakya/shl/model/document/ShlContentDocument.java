@@ -1,5 +1,6 @@
 package com.chanakya.shl.model.document;
 
+import com.chanakya.shl.model.enums.PayloadStorage;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -26,14 +27,43 @@ public class ShlContentDocument {
 
     private String contentType;
 
+    /**
+     * Where the payload is stored. Null on records written before inline storage, which are
+     * all in S3; use {@link #isInline()} rather than comparing.
+     */
+    private PayloadStorage storage;
+
+    /** Null for inline payloads. */
     private String s3Key;
 
+    /** The compact JWE, for payloads small enough to be stored on the record. */
+    private String inlinePayload;
+
     private String originalFileName;
 
     private String originalContentType;
 
     private long contentLength;
 
+    /**
+     * Length of the stored compact JWE, so manifests can decide embedded vs. location without
+     * reading the payload. Null on records written before it was tracked, until backfilled.
+     */
+    private Long jweLength;
+
+    /** Hex SHA-256 of the stored compact JWE. */
+    private String contentHash;
+
+    /**
+     * Position in the SHL's manifest. Contents are stored concurrently, so insertion order is
+     * not the order they were supplied in.
+     */
+    private int sequence;
+
     @CreatedDate
     private Instant createdAt;
+
+    public boolean isInline() {
+        return storage == PayloadStorage.INLINE;
+    }
 }
@@ -7,16 +7,22 @@ import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.annotation.LastModifiedDate;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.Instant;
 
 @Data
-@Builder
+@Builder(toBuilder = true)
 @NoArgsConstructor
 @AllArgsConstructor
 @Document(collection = "shlinks")
+@CompoundIndexes({
+        @CompoundIndex(name = "createdAt_id", def = "{'createdAt': -1, '_id': -1}"),
+        @CompoundIndex(name = "active_createdAt_id", def = "{'active': 1, 'createdAt': -1, '_id': -1}")
+})
 public class ShlDocument {
 
     @Id
@@ -42,6 +48,14 @@ public class ShlDocument {
 
     private boolean singleUse;
 
+    /**
+     * Denormalized counters, maintained with atomic increments and corrected by
+     * {@code ShlCounterReconciler}. Never written through a full-document save after creation.
+     */
+    private int contentCount;
+
+    private long successfulAccessCount;
+
     @CreatedDate
     private Instant createdAt;
 
@@ -37,4 +37,11 @@ public class CreateShlRequest {
 
     @Builder.Default
     private boolean longTerm = false;
+
+    /**
+     * Set to false to omit the inline base64 QR code from the response; it stays available
+     * from {@code qrCodeUrl}.
+     */
+    @Builder.Default
+    private boolean includeQrCode = true;
 }
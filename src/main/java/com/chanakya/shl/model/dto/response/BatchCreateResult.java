@@ -0,0 +1,24 @@
+package com.chanakya.shl.model.dto.response;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One line of a {@code POST /api/shl/batch} response. {@code index} is the zero-based line of the
+ * request it answers; exactly one of {@code shl} and {@code error} is set. A line with index
+ * {@code -1} reports a request stream that could not be read past that point.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchCreateResult {
+
+    private long index;
+    private CreateShlResponse shl;
+    private String error;
+}
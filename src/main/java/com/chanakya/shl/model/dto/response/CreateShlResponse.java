@@ -14,6 +14,7 @@ public class CreateShlResponse {
     private String id;
     private String shlinkUrl;
     private String qrCode;
+    private String qrCodeUrl;
     private String managementUrl;
     private String label;
     private String flags;
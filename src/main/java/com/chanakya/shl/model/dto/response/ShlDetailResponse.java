@@ -23,6 +23,7 @@ public class ShlDetailResponse {
     private String updatedAt;
     private String shlinkUrl;
     private String qrCode;
+    private String qrCodeUrl;
     private List<ContentSummary> contents;
     private long totalAccesses;
 
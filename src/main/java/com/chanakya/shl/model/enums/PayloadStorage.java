@@ -0,0 +1,11 @@
+package com.chanakya.shl.model.enums;
+
+/**
+ * Where a content record's encrypted payload lives.
+ */
+public enum PayloadStorage {
+    /** An object at the record's {@code s3Key}. */
+    S3,
+    /** The compact JWE itself, in the record's {@code inlinePayload}. */
+    INLINE
+}
@@ -0,0 +1,31 @@
+package com.chanakya.shl.model.enums;
+
+public enum QrFormat {
+    PNG("image/png", "png"),
+    SVG("image/svg+xml", "svg");
+
+    private final String mediaType;
+    private final String extension;
+
+    QrFormat(String mediaType, String extension) {
+        this.mediaType = mediaType;
+        this.extension = extension;
+    }
+
+    public String getMediaType() {
+        return mediaType;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public static QrFormat fromParameter(String value) {
+        for (QrFormat format : values()) {
+            if (format.extension.equalsIgnoreCase(value)) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported QR format: " + value);
+    }
+}
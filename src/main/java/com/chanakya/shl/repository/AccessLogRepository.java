@@ -6,7 +6,8 @@ import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-public interface AccessLogRepository extends ReactiveMongoRepository<AccessLogDocument, String> {
+public interface AccessLogRepository extends ReactiveMongoRepository<AccessLogDocument, String>,
+        AccessLogRepositoryCustom {
 
     Flux<AccessLogDocument> findByShlIdOrderByCreatedAtDesc(String shlId, Pageable pageable);
 
@@ -0,0 +1,14 @@
+package com.chanakya.shl.repository;
+
+import com.chanakya.shl.model.PageCursor;
+import com.chanakya.shl.model.document.AccessLogDocument;
+import reactor.core.publisher.Flux;
+
+public interface AccessLogRepositoryCustom {
+
+    /**
+     * Keyset page of an SHL's access log, newest first, starting after {@code after} (or from the
+     * top when null).
+     */
+    Flux<AccessLogDocument> findPage(String shlId, PageCursor after, int limit);
+}
@@ -0,0 +1,20 @@
+package com.chanakya.shl.repository;
+
+import com.chanakya.shl.model.PageCursor;
+import com.chanakya.shl.model.document.AccessLogDocument;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import reactor.core.publisher.Flux;
+
+@RequiredArgsConstructor
+public class AccessLogRepositoryCustomImpl implements AccessLogRepositoryCustom {
+
+    private final ReactiveMongoTemplate mongoTemplate;
+
+    @Override
+    public Flux<AccessLogDocument> findPage(String shlId, PageCursor after, int limit) {
+        return mongoTemplate.find(KeysetQuery.page(Criteria.where("shlId").is(shlId), after, limit),
+                AccessLogDocument.class);
+    }
+}
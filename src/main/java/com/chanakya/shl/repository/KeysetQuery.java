@@ -0,0 +1,43 @@
+package com.chanakya.shl.repository;
+
+import com.chanakya.shl.model.PageCursor;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+/**
+ * Builds keyset-paginated queries ordered by {@code createdAt desc, _id desc}. Unlike skip/limit,
+ * each page is a bounded index range scan starting right after the cursor, so late pages cost
+ * the same as the first. Collections paged this way need a compound index ending in
+ * {@code createdAt: -1, _id: -1}.
+ */
+final class KeysetQuery {
+
+    static final Sort ORDER = Sort.by(Sort.Order.desc("createdAt"), Sort.Order.desc("id"));
+
+    private KeysetQuery() {
+    }
+
+    /**
+     * @param filter optional criteria on the leading index fields; {@code null} for none
+     */
+    static Query page(Criteria filter, PageCursor after, int limit) {
+        Query query = new Query();
+        if (filter != null) {
+            query.addCriteria(filter);
+        }
+        if (after != null) {
+            query.addCriteria(after(after));
+        }
+        return query.with(ORDER).limit(limit);
+    }
+
+    /**
+     * Matches rows that sort strictly after {@code cursor}.
+     */
+    static Criteria after(PageCursor cursor) {
+        return new Criteria().orOperator(
+                Criteria.where("createdAt").lt(cursor.createdAt()),
+                Criteria.where("createdAt").is(cursor.createdAt()).and("id").lt(cursor.id()));
+    }
+}
@@ -5,9 +5,16 @@ import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.Collection;
+
 public interface ShlContentRepository extends ReactiveMongoRepository<ShlContentDocument, String> {
 
-    Flux<ShlContentDocument> findByShlId(String shlId);
+    /**
+     * The SHL's contents in manifest order.
+     */
+    Flux<ShlContentDocument> findByShlIdOrderBySequenceAsc(String shlId);
 
     Mono<Long> countByShlId(String shlId);
+
+    Mono<Long> deleteByShlIdIn(Collection<String> shlIds);
 }
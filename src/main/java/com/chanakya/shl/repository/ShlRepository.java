@@ -6,7 +6,7 @@ import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-public interface ShlRepository extends ReactiveMongoRepository<ShlDocument, String> {
+public interface ShlRepository extends ReactiveMongoRepository<ShlDocument, String>, ShlRepositoryCustom {
 
     Mono<ShlDocument> findByManifestId(String manifestId);
 
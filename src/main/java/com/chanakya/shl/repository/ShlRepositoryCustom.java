@@ -0,0 +1,60 @@
+package com.chanakya.shl.repository;
+
+import com.chanakya.shl.model.PageCursor;
+import com.chanakya.shl.model.ShlListFilter;
+import com.chanakya.shl.model.document.ShlDocument;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Targeted, atomic updates on {@code shlinks} that must not go through a full-document save,
+ * since a stale copy would overwrite concurrent changes to counters and status, plus listing
+ * queries that derived query methods cannot express.
+ */
+public interface ShlRepositoryCustom {
+
+    /**
+     * Consumes one passcode attempt in a single atomic update, deactivating the SHL when the
+     * last attempt is used. Emits the updated document, or empty if no attempts were left.
+     */
+    Mono<ShlDocument> recordPasscodeFailure(String id);
+
+    /**
+     * Whether the SHL is still active with passcode attempts remaining. Read-only, so a
+     * correct passcode costs no write.
+     */
+    Mono<Boolean> isPasscodeUsable(String id);
+
+    /**
+     * Conditionally flips {@code active} to false. Emits {@code true} only for the caller that
+     * actually deactivated the SHL, which makes single-use consumption race-free.
+     */
+    Mono<Boolean> deactivate(String id);
+
+    /**
+     * Applies pre-aggregated {@code successfulAccessCount} increments (SHL id to delta) in a
+     * single unordered bulk write.
+     */
+    Mono<Void> incrementAccessCounts(Map<String, Long> increments);
+
+    /**
+     * Keyset page of SHL summaries, newest first, starting after {@code after} (or from the top
+     * when null), in a single aggregation. Rows carry only the fields a listing needs (no key or
+     * passcode hash). With {@code includeTotal} the same aggregation also counts every SHL
+     * matching {@code filter}.
+     */
+    Mono<Listing> findSummaries(ShlListFilter filter, PageCursor after, int limit, boolean includeTotal);
+
+    /**
+     * Collection size from metadata, without scanning; may be slightly stale.
+     */
+    Mono<Long> estimatedCount();
+
+    /**
+     * @param total null unless requested
+     */
+    record Listing(List<ShlDocument> rows, Long total) {
+    }
+}
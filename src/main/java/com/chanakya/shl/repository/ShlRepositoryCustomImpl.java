@@ -0,0 +1,147 @@
+package com.chanakya.shl.repository;
+
+import com.chanakya.shl.model.PageCursor;
+import com.chanakya.shl.model.ShlListFilter;
+import com.chanakya.shl.model.document.ShlDocument;
+import lombok.RequiredArgsConstructor;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveBulkOperations;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+@RequiredArgsConstructor
+public class ShlRepositoryCustomImpl implements ShlRepositoryCustom {
+
+    private static final String[] SUMMARY_FIELDS = {
+            "label", "flags", "active", "singleUse", "expiresAt", "createdAt", "updatedAt",
+            "contentCount", "successfulAccessCount"};
+
+    private final ReactiveMongoTemplate mongoTemplate;
+
+    @Override
+    public Mono<ShlDocument> recordPasscodeFailure(String id) {
+        Query query = Query.query(Criteria.where("id").is(id)
+                .and("passcodeFailuresRemaining").gt(0));
+
+        // Both fields are computed from the pre-update document within one $set stage:
+        // the attempt that takes the count from 1 to 0 also deactivates the link.
+        Document decrement = new Document("$set", new Document()
+                .append("passcodeFailuresRemaining",
+                        new Document("$subtract", List.of("$passcodeFailuresRemaining", 1)))
+                .append("active", new Document("$and", List.of("$active",
+                        new Document("$gt", List.of("$passcodeFailuresRemaining", 1)))))
+                .append("updatedAt", "$$NOW"));
+        AggregationUpdate update = AggregationUpdate.from(List.of(context -> decrement));
+
+        return mongoTemplate.findAndModify(query, update,
+                FindAndModifyOptions.options().returnNew(true), ShlDocument.class);
+    }
+
+    @Override
+    public Mono<Boolean> isPasscodeUsable(String id) {
+        Query query = Query.query(Criteria.where("id").is(id)
+                .and("active").is(true)
+                .and("passcodeFailuresRemaining").gt(0));
+        return mongoTemplate.exists(query, ShlDocument.class);
+    }
+
+    @Override
+    public Mono<Boolean> deactivate(String id) {
+        Query query = Query.query(Criteria.where("id").is(id).and("active").is(true));
+        Update update = new Update().set("active", false).set("updatedAt", Instant.now());
+        return mongoTemplate.updateFirst(query, update, ShlDocument.class)
+                .map(result -> result.getModifiedCount() > 0);
+    }
+
+    @Override
+    public Mono<Void> incrementAccessCounts(Map<String, Long> increments) {
+        if (increments.isEmpty()) {
+            return Mono.empty();
+        }
+        ReactiveBulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ShlDocument.class);
+        increments.forEach((id, delta) -> bulk.updateOne(
+                Query.query(Criteria.where("id").is(id)),
+                new Update().inc("successfulAccessCount", delta)));
+        return bulk.execute().then();
+    }
+
+    @Override
+    public Mono<Listing> findSummaries(ShlListFilter filter, PageCursor after, int limit, boolean includeTotal) {
+        List<AggregationOperation> rowStages = new ArrayList<>();
+        if (after != null) {
+            rowStages.add(Aggregation.match(KeysetQuery.after(after)));
+        }
+        rowStages.add(Aggregation.limit(limit));
+        rowStages.add(Aggregation.project(SUMMARY_FIELDS));
+
+        // Filter and sort run before any $facet so both can use the createdAt/_id indexes
+        List<AggregationOperation> stages = new ArrayList<>();
+        stages.add(Aggregation.match(toCriteria(filter)));
+        stages.add(Aggregation.sort(KeysetQuery.ORDER));
+
+        if (!includeTotal) {
+            stages.addAll(rowStages);
+            return mongoTemplate.aggregate(Aggregation.newAggregation(ShlDocument.class, stages), ShlDocument.class)
+                    .collectList()
+                    .map(rows -> new Listing(rows, null));
+        }
+
+        stages.add(Aggregation.facet(rowStages.toArray(AggregationOperation[]::new)).as("rows")
+                .and(Aggregation.count().as("count")).as("total"));
+        return mongoTemplate.aggregate(Aggregation.newAggregation(ShlDocument.class, stages), Document.class)
+                .next()
+                .map(result -> {
+                    List<ShlDocument> rows = result.getList("rows", Document.class).stream()
+                            .map(row -> mongoTemplate.getConverter().read(ShlDocument.class, row))
+                            .toList();
+                    List<Document> total = result.getList("total", Document.class);
+                    long count = total.isEmpty() ? 0 : total.get(0).get("count", Number.class).longValue();
+                    return new Listing(rows, count);
+                });
+    }
+
+    private static Criteria toCriteria(ShlListFilter filter) {
+        List<Criteria> criteria = new ArrayList<>();
+        if (filter.active() != null) {
+            criteria.add(Criteria.where("active").is(filter.active()));
+        }
+        if (filter.flags() != null) {
+            // Flag strings are short and sorted, so "has every flag" is one character match per flag
+            filter.flags().chars().distinct().forEach(flag ->
+                    criteria.add(Criteria.where("flags").regex(Pattern.quote(Character.toString(flag)))));
+        }
+        if (filter.expiresAfter() != null || filter.expiresBefore() != null) {
+            Criteria expiresAt = Criteria.where("expiresAt");
+            if (filter.expiresAfter() != null) {
+                expiresAt.gte(filter.expiresAfter());
+            }
+            if (filter.expiresBefore() != null) {
+                expiresAt.lt(filter.expiresBefore());
+            }
+            criteria.add(expiresAt);
+        }
+        if (filter.labelPrefix() != null && !filter.labelPrefix().isEmpty()) {
+            criteria.add(Criteria.where("label").regex("^" + Pattern.quote(filter.labelPrefix())));
+        }
+        return criteria.isEmpty() ? new Criteria() : new Criteria().andOperator(criteria);
+    }
+
+    @Override
+    public Mono<Long> estimatedCount() {
+        return mongoTemplate.estimatedCount(ShlDocument.class);
+    }
+}
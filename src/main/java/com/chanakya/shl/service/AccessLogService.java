@@ -1,11 +1,15 @@
 package com.chanakya.shl.service;
 
+import com.chanakya.shl.model.CursorPage;
+import com.chanakya.shl.model.PageCursor;
 import com.chanakya.shl.model.document.AccessLogDocument;
 import com.chanakya.shl.model.dto.response.AccessLogEntry;
 import com.chanakya.shl.model.enums.AccessAction;
 import com.chanakya.shl.repository.AccessLogRepository;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.bson.types.ObjectId;
 import org.springframework.data.domain.Pageable;
 import org.springframework.http.server.reactive.ServerHttpRequest;
 import org.springframework.stereotype.Service;
@@ -13,6 +17,8 @@ import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.net.InetSocketAddress;
+import java.time.Instant;
+import java.util.Locale;
 
 @Service
 @RequiredArgsConstructor
@@ -20,13 +26,22 @@ import java.net.InetSocketAddress;
 public class AccessLogService {
 
     private final AccessLogRepository accessLogRepository;
+    private final AccessLogWriter accessLogWriter;
+    private final MeterRegistry meterRegistry;
 
-    public Mono<AccessLogDocument> logAccess(String shlId, AccessAction action, String recipient,
-                                              ServerHttpRequest request, boolean success, String failureReason) {
+    /**
+     * Records an access event. The event is buffered by {@link AccessLogWriter} and written
+     * asynchronously, so the returned Mono completes without waiting for Mongo. Each event is
+     * also counted in {@code shl.access.events} by action and outcome.
+     */
+    public Mono<Void> logAccess(String shlId, AccessAction action, String recipient,
+                                ServerHttpRequest request, boolean success, String failureReason) {
         String ipAddress = extractIpAddress(request);
         String userAgent = request.getHeaders().getFirst("User-Agent");
 
+        // Assigned here rather than on insert so the log reflects when the access happened
         AccessLogDocument logDoc = AccessLogDocument.builder()
+                .id(new ObjectId().toHexString())
                 .shlId(shlId)
                 .action(action.name())
                 .recipient(recipient)
@@ -34,10 +49,27 @@ public class AccessLogService {
                 .userAgent(userAgent)
                 .success(success)
                 .failureReason(failureReason)
+                .createdAt(Instant.now())
                 .build();
 
-        return accessLogRepository.save(logDoc)
-                .doOnSuccess(saved -> log.debug("Access logged: {} for SHL {} - success: {}", action, shlId, success));
+        return Mono.fromRunnable(() -> {
+            meterRegistry.counter("shl.access.events",
+                    "action", action.name().toLowerCase(Locale.ROOT),
+                    "outcome", success ? "success" : "failure").increment();
+            accessLogWriter.enqueue(logDoc);
+            log.debug("Access logged: {} for SHL {} - success: {}", action, shlId, success);
+        });
+    }
+
+    /**
+     * Keyset-paginated access log, newest first. {@code cursor} is the {@code nextCursor} of the
+     * previous page, or null for the first page.
+     */
+    public Mono<CursorPage<AccessLogEntry>> getAccessLogs(String shlId, String cursor, int size) {
+        return Mono.defer(() -> accessLogRepository.findPage(shlId, PageCursor.decode(cursor), size + 1)
+                .collectList()
+                .map(logs -> CursorPage.of(logs, size,
+                        doc -> new PageCursor(doc.getCreatedAt(), doc.getId()), this::toEntry)));
     }
 
     public Flux<AccessLogEntry> getAccessLogs(String shlId, Pageable pageable) {
@@ -45,10 +77,6 @@ public class AccessLogService {
                 .map(this::toEntry);
     }
 
-    public Mono<Long> getAccessCount(String shlId) {
-        return accessLogRepository.countByShlIdAndSuccess(shlId, true);
-    }
-
     private AccessLogEntry toEntry(AccessLogDocument doc) {
         return AccessLogEntry.builder()
                 .id(doc.getId())
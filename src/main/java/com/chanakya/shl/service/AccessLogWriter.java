@@ -0,0 +1,213 @@
+package com.chanakya.shl.service;
+
+import com.chanakya.shl.config.AppProperties;
+import com.chanakya.shl.config.AppProperties.AccessLogProperties.OverflowPolicy;
+import com.chanakya.shl.model.document.AccessLogDocument;
+import com.chanakya.shl.repository.ShlRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Write-behind buffer for access log events, so request paths never wait on a Mongo insert.
+ * <p>
+ * Events go into a bounded lock-free queue and are drained by a single background flusher
+ * with {@code insertMany}, either every {@code flush-interval} or as soon as a full batch is
+ * waiting. When the buffer is full the configured {@link OverflowPolicy} applies. Remaining
+ * events are flushed when the application shuts down, after the web server has stopped
+ * accepting requests.
+ * <p>
+ * Each flush also applies the batch's successful accesses to
+ * {@code ShlDocument.successfulAccessCount} as one {@code $inc} per SHL, so a heavily shared
+ * link costs one counter write per flush rather than one per access.
+ * <p>
+ * Logging is best-effort: a failed batch is logged and counted, not retried.
+ */
+@Component
+@Slf4j
+public class AccessLogWriter implements SmartLifecycle {
+
+    private final ReactiveMongoTemplate mongoTemplate;
+    private final ShlRepository shlRepository;
+    private final AppProperties.AccessLogProperties props;
+    private final Queue<AccessLogDocument> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final Sinks.Many<Boolean> batchReady = Sinks.many().multicast().directBestEffort();
+    private final Counter dropped;
+    private final Counter failed;
+    private final DistributionSummary batchSizes;
+
+    private volatile Disposable flusher;
+
+    public AccessLogWriter(ReactiveMongoTemplate mongoTemplate, ShlRepository shlRepository,
+                           AppProperties appProperties, MeterRegistry meterRegistry) {
+        this.mongoTemplate = mongoTemplate;
+        this.shlRepository = shlRepository;
+        this.props = appProperties.getAccessLog();
+
+        Gauge.builder("shl.access-log.queue.depth", depth, AtomicInteger::get)
+                .description("Access log events waiting to be written")
+                .register(meterRegistry);
+        this.batchSizes = DistributionSummary.builder("shl.access-log.batch.size")
+                .description("Access log events written per insertMany")
+                .register(meterRegistry);
+        this.dropped = Counter.builder("shl.access-log.dropped")
+                .description("Access log events discarded because the buffer was full")
+                .register(meterRegistry);
+        this.failed = Counter.builder("shl.access-log.failed")
+                .description("Access log events lost to failed inserts")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Buffers an event for the next flush. Never blocks.
+     */
+    public void enqueue(AccessLogDocument logDoc) {
+        if (depth.incrementAndGet() > props.getBufferCapacity()) {
+            switch (props.getOverflowPolicy()) {
+                case DROP_OLDEST -> {
+                    // Evict one event to make room; if the flusher emptied the queue meanwhile, there is room anyway
+                    if (queue.poll() != null) {
+                        depth.decrementAndGet();
+                        dropped.increment();
+                    }
+                }
+                case WRITE_THROUGH -> {
+                    depth.decrementAndGet();
+                    writeThrough(logDoc);
+                    return;
+                }
+                default -> {
+                    depth.decrementAndGet();
+                    dropped.increment();
+                    return;
+                }
+            }
+        }
+        queue.offer(logDoc);
+        if (depth.get() >= props.getBatchSize()) {
+            // Only a hint: if the emission races another one, the interval tick picks the batch up
+            batchReady.tryEmitNext(Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Writes everything currently buffered, one batch after another.
+     */
+    public Mono<Void> flush() {
+        return Mono.defer(this::flushBatch)
+                .expand(drained -> drained > 0 && depth.get() > 0 ? Mono.defer(this::flushBatch) : Mono.empty())
+                .then();
+    }
+
+    @Override
+    public void start() {
+        flusher = Flux.merge(
+                        Flux.interval(props.getFlushInterval()).map(tick -> Boolean.TRUE),
+                        batchReady.asFlux())
+                .onBackpressureDrop()
+                .concatMap(trigger -> flush(), 1)
+                .subscribe();
+        log.debug("Access log writer started (capacity {}, batch size {}, interval {})",
+                props.getBufferCapacity(), props.getBatchSize(), props.getFlushInterval());
+    }
+
+    @Override
+    public void stop() {
+        Disposable current = flusher;
+        flusher = null;
+        if (current != null) {
+            current.dispose();
+        }
+        int pending = depth.get();
+        try {
+            flush().block(props.getShutdownTimeout());
+            log.debug("Flushed {} buffered access log events on shutdown", pending);
+        } catch (RuntimeException e) {
+            log.warn("Failed to flush access log buffer on shutdown, {} events lost: {}",
+                    depth.get(), e.getMessage());
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return flusher != null;
+    }
+
+    /**
+     * Lower than the web server's phase, so this stops (and flushes) after requests have drained.
+     */
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 4096;
+    }
+
+    /**
+     * Writes up to one batch and emits how many events it took off the queue.
+     */
+    private Mono<Integer> flushBatch() {
+        List<AccessLogDocument> batch = new ArrayList<>(Math.min(depth.get(), props.getBatchSize()));
+        AccessLogDocument next;
+        while (batch.size() < props.getBatchSize() && (next = queue.poll()) != null) {
+            depth.decrementAndGet();
+            batch.add(next);
+        }
+        if (batch.isEmpty()) {
+            return Mono.just(0);
+        }
+        batchSizes.record(batch.size());
+        return mongoTemplate.insertAll(batch)
+                .then(Mono.defer(() -> incrementAccessCounts(batch)))
+                .then(Mono.just(batch.size()))
+                .onErrorResume(e -> {
+                    failed.increment(batch.size());
+                    log.warn("Failed to write {} access log events: {}", batch.size(), e.getMessage());
+                    return Mono.just(batch.size());
+                });
+    }
+
+    private void writeThrough(AccessLogDocument logDoc) {
+        mongoTemplate.insert(logDoc)
+                .then(Mono.defer(() -> incrementAccessCounts(List.of(logDoc))))
+                .subscribe(
+                        null,
+                        e -> {
+                            failed.increment();
+                            log.warn("Failed to write access log event for SHL {}: {}",
+                                    logDoc.getShlId(), e.getMessage());
+                        });
+    }
+
+    /**
+     * Counter drift from a failed increment is repaired by the reconciliation job, so it does
+     * not fail the batch whose events were already written.
+     */
+    private Mono<Void> incrementAccessCounts(List<AccessLogDocument> written) {
+        Map<String, Long> increments = written.stream()
+                .filter(AccessLogDocument::isSuccess)
+                .collect(Collectors.groupingBy(AccessLogDocument::getShlId, Collectors.counting()));
+        return shlRepository.incrementAccessCounts(increments)
+                .onErrorResume(e -> {
+                    log.warn("Failed to update access counters for {} SHLs: {}", increments.size(), e.getMessage());
+                    return Mono.empty();
+                });
+    }
+}
@@ -0,0 +1,68 @@
+package com.chanakya.shl.service;
+
+import com.chanakya.shl.config.AppProperties;
+import com.chanakya.shl.model.document.ShlContentDocument;
+import com.chanakya.shl.util.DigestUtil;
+import com.mongodb.client.result.UpdateResult;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+/**
+ * Fills in {@code jweLength} and {@code contentHash} on content records written before they
+ * were recorded at upload time, by reading each stored payload once.
+ * <p>
+ * Only records missing {@code jweLength} are read, so once every record is backfilled a run
+ * costs a single query. Payloads are read directly rather than through the payload cache, so a
+ * backfill does not evict hot entries. Records whose object is gone are left alone.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ContentMetadataBackfill {
+
+    private final ReactiveMongoTemplate mongoTemplate;
+    private final S3StorageService s3StorageService;
+    private final AppProperties appProperties;
+
+    @Scheduled(cron = "${app.content-backfill.cron:0 15 4 * * *}")
+    public void scheduledBackfill() {
+        backfill().subscribe(
+                updated -> {
+                    if (updated > 0) {
+                        log.info("Backfilled JWE metadata on {} content records", updated);
+                    }
+                },
+                err -> log.warn("Content metadata backfill failed: {}", err.getMessage()));
+    }
+
+    /**
+     * Emits the number of content records updated.
+     */
+    public Mono<Long> backfill() {
+        Query missing = Query.query(Criteria.where("jweLength").exists(false).and("s3Key").ne(null));
+        missing.fields().include("id", "s3Key");
+
+        return mongoTemplate.find(missing, ShlContentDocument.class)
+                .flatMap(content -> s3StorageService.getObjectBytes(content.getS3Key())
+                        .flatMap(jwe -> mongoTemplate.updateFirst(
+                                Query.query(Criteria.where("id").is(content.getId())
+                                        .and("jweLength").exists(false)),
+                                new Update()
+                                        .set("jweLength", (long) jwe.length)
+                                        .set("contentHash", DigestUtil.sha256Hex(jwe)),
+                                ShlContentDocument.class))
+                        .map(UpdateResult::getModifiedCount)
+                        .onErrorResume(e -> {
+                            log.warn("Could not backfill content {}: {}", content.getId(), e.getMessage());
+                            return Mono.empty();
+                        }), appProperties.getContentBackfill().getConcurrency())
+                .reduce(0L, Long::sum);
+    }
+}
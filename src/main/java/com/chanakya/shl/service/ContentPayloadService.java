@@ -0,0 +1,38 @@
+package com.chanakya.shl.service;
+
+import com.chanakya.shl.model.PayloadStream;
+import com.chanakya.shl.model.document.ShlContentDocument;
+import lombok.RequiredArgsConstructor;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads a content record's encrypted payload wherever it is stored: on the record itself for
+ * small payloads, or in S3 (through the payload cache) for everything else.
+ */
+@Service
+@RequiredArgsConstructor
+public class ContentPayloadService {
+
+    private final S3StorageService s3StorageService;
+
+    public Mono<String> read(ShlContentDocument content) {
+        if (content.isInline()) {
+            return Mono.just(content.getInlinePayload());
+        }
+        return s3StorageService.downloadPayload(content.getS3Key());
+    }
+
+    public Mono<PayloadStream> stream(ShlContentDocument content) {
+        if (content.isInline()) {
+            byte[] jwe = content.getInlinePayload().getBytes(StandardCharsets.US_ASCII);
+            return Mono.just(new PayloadStream(jwe.length,
+                    Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(jwe))));
+        }
+        return s3StorageService.streamPayload(content.getS3Key());
+    }
+}
@@ -1,47 +1,162 @@
 package com.chanakya.shl.service;
 
+import com.chanakya.shl.config.AppProperties;
+import com.chanakya.shl.crypto.JweCompactDecryptor;
+import com.chanakya.shl.crypto.JweCompactOutputStream;
 import com.chanakya.shl.util.Base64UrlUtil;
+import com.chanakya.shl.util.MetricsUtil;
 import com.nimbusds.jose.*;
 import com.nimbusds.jose.crypto.DirectDecrypter;
 import com.nimbusds.jose.crypto.DirectEncrypter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Schedulers;
 
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 
+/**
+ * JWE encryption and decryption of SHL payloads. Each operation is timed as {@code shl.crypto}
+ * (tagged {@code operation} and {@code mode}: {@code memory} or {@code stream}), and the size of
+ * what it produced is recorded in {@code shl.crypto.output.size}: the serialized JWE for
+ * encryption, the plaintext for decryption.
+ */
 @Service
 @Slf4j
 public class EncryptionService {
 
+    private final AppProperties appProperties;
+    private final MeterRegistry meterRegistry;
+
+    public EncryptionService(AppProperties appProperties, MeterRegistry meterRegistry) {
+        this.appProperties = appProperties;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Encrypts an in-memory payload. This is pure CPU work (DEFLATE and AES-GCM, no I/O), so it
+     * runs on the CPU-sized parallel scheduler rather than the elastic one.
+     */
     public Mono<String> encrypt(String plaintext, String base64UrlKey, String contentType) {
-        return Mono.fromCallable(() -> {
+        Mono<String> jwe = Mono.fromCallable(() -> {
             byte[] keyBytes = Base64UrlUtil.decode(base64UrlKey);
             SecretKey secretKey = new SecretKeySpec(keyBytes, "AES");
 
-            JWEHeader header = new JWEHeader.Builder(JWEAlgorithm.DIR, EncryptionMethod.A256GCM)
-                    .compressionAlgorithm(CompressionAlgorithm.DEF)
-                    .contentType(contentType)
-                    .build();
-
-            JWEObject jweObject = new JWEObject(header, new Payload(plaintext));
+            JWEObject jweObject = new JWEObject(buildHeader(contentType), new Payload(plaintext));
             jweObject.encrypt(new DirectEncrypter(secretKey));
 
             return jweObject.serialize();
+        }).subscribeOn(Schedulers.parallel());
+        return timed(jwe.doOnNext(out -> recordSize("encrypt", out.length())), "encrypt", "memory");
+    }
+
+    /**
+     * Opens a streaming JWE writer over the sink. Plaintext written to the returned stream is
+     * compressed and encrypted incrementally; closing it completes the JWE and closes the sink.
+     * Writes block, so callers should drive the stream from {@code boundedElastic}.
+     */
+    public JweCompactOutputStream openEncryptingStream(OutputStream sink, String base64UrlKey,
+                                                       String contentType) throws IOException {
+        SecretKey secretKey = new SecretKeySpec(Base64UrlUtil.decode(base64UrlKey), "AES");
+        return new JweCompactOutputStream(sink, secretKey, buildHeader(contentType));
+    }
+
+    /**
+     * Streams plaintext buffers into a compact JWE written to the sink, with constant memory.
+     * The output is byte-identical to {@link #encrypt(String, String, String)} for the same IV.
+     * The sink is closed on success.
+     *
+     * @return the length of the serialized JWE
+     */
+    public Mono<Long> encrypt(Flux<DataBuffer> plaintext, String base64UrlKey, String contentType,
+                              OutputStream sink) {
+        Mono<Long> written = Mono.fromCallable(() -> openEncryptingStream(sink, base64UrlKey, contentType))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(jwe -> DataBufferUtils.write(plaintext.publishOn(Schedulers.boundedElastic()), jwe)
+                        .doOnNext(DataBufferUtils::release)
+                        .then(Mono.fromCallable(() -> {
+                            jwe.close();
+                            return jwe.getBytesWritten();
+                        }).subscribeOn(Schedulers.boundedElastic())));
+        return timed(written.doOnNext(bytes -> recordSize("encrypt", bytes)), "encrypt", "stream");
+    }
+
+    /**
+     * Blocking-source variant of {@link #encrypt(Flux, String, String, OutputStream)}. Neither
+     * stream is held beyond the call; the sink is closed on success.
+     */
+    public Mono<Long> encrypt(InputStream plaintext, String base64UrlKey, String contentType,
+                              OutputStream sink) {
+        Mono<Long> written = Mono.fromCallable(() -> {
+            JweCompactOutputStream jwe = openEncryptingStream(sink, base64UrlKey, contentType);
+            plaintext.transferTo(jwe);
+            jwe.close();
+            return jwe.getBytesWritten();
         }).subscribeOn(Schedulers.boundedElastic());
+        return timed(written.doOnNext(bytes -> recordSize("encrypt", bytes)), "encrypt", "stream");
     }
 
+    /**
+     * Decrypts an in-memory payload; like {@link #encrypt(String, String, String)} this is CPU
+     * work only, so it runs on the parallel scheduler.
+     */
     public Mono<String> decrypt(String jweCompact, String base64UrlKey) {
-        return Mono.fromCallable(() -> {
+        Mono<byte[]> plaintext = Mono.fromCallable(() -> {
             byte[] keyBytes = Base64UrlUtil.decode(base64UrlKey);
             SecretKey secretKey = new SecretKeySpec(keyBytes, "AES");
 
             JWEObject jweObject = JWEObject.parse(jweCompact);
             jweObject.decrypt(new DirectDecrypter(secretKey));
 
-            return jweObject.getPayload().toString();
+            return jweObject.getPayload().toBytes();
+        }).subscribeOn(Schedulers.parallel());
+        return timed(plaintext.doOnNext(bytes -> recordSize("decrypt", bytes.length)), "decrypt", "memory")
+                .map(bytes -> new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Streams a compact JWE into plaintext with constant memory. Plaintext reaches the sink
+     * before the GCM tag is checked, so on error the sink's contents must be discarded.
+     * Decompressed output beyond {@code app.crypto.max-decompressed-size} fails the operation.
+     * Neither stream is closed.
+     *
+     * @return the number of plaintext bytes written
+     */
+    public Mono<Long> decrypt(InputStream jweCompact, String base64UrlKey, OutputStream sink) {
+        Mono<Long> written = Mono.fromCallable(() -> {
+            SecretKey secretKey = new SecretKeySpec(Base64UrlUtil.decode(base64UrlKey), "AES");
+            return JweCompactDecryptor.decrypt(jweCompact, sink, secretKey,
+                    appProperties.getCrypto().getMaxDecompressedSize().toBytes());
         }).subscribeOn(Schedulers.boundedElastic());
+        return timed(written.doOnNext(bytes -> recordSize("decrypt", bytes)), "decrypt", "stream");
+    }
+
+    private <T> Mono<T> timed(Mono<T> operation, String name, String mode) {
+        return MetricsUtil.timed(operation, meterRegistry, "shl.crypto", "operation", name, "mode", mode);
+    }
+
+    private void recordSize(String operation, long bytes) {
+        DistributionSummary.builder("shl.crypto.output.size")
+                .baseUnit("bytes")
+                .tag("operation", operation)
+                .register(meterRegistry)
+                .record(bytes);
+    }
+
+    private JWEHeader buildHeader(String contentType) {
+        return new JWEHeader.Builder(JWEAlgorithm.DIR, EncryptionMethod.A256GCM)
+                .compressionAlgorithm(CompressionAlgorithm.DEF)
+                .contentType(contentType)
+                .build();
     }
 }
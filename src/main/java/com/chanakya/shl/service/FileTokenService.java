@@ -0,0 +1,146 @@
+package com.chanakya.shl.service;
+
+import com.chanakya.shl.cache.ConsumedFileTokenSet;
+import com.chanakya.shl.config.AppProperties;
+import com.chanakya.shl.exception.ShlExpiredException;
+import com.chanakya.shl.exception.ShlNotFoundException;
+import com.chanakya.shl.model.document.ShlContentDocument;
+import com.chanakya.shl.util.Base64UrlUtil;
+import com.chanakya.shl.util.SecureRandomUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Base64;
+
+/**
+ * Stateless file-download tokens for {@code app.file-token.mode: signed}.
+ * <p>
+ * A token is {@code base64url(claims) "." base64url(HMAC-SHA256(claims))}, where the claims are
+ * a random token id, the shlId, contentId and s3Key (empty for inline payloads), and the
+ * expiry. Issuing one needs no storage, and redeeming one for an S3 payload needs no content
+ * lookup; only the single-use check touches Mongo, through {@link ConsumedFileTokenSet}.
+ * Stored tokens are 43-character ids without a dot, so {@link #isSignedToken(String)} tells
+ * the two apart and links issued under either mode keep working after a switch.
+ */
+@Service
+@Slf4j
+public class FileTokenService {
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final int MIN_KEY_BYTES = 32;
+    private static final int TOKEN_ID_BYTES = 16;
+    private static final String CLAIM_SEPARATOR = "\n";
+
+    private final AppProperties appProperties;
+    private final ConsumedFileTokenSet consumedTokens;
+    private final SecretKeySpec signingKey;
+
+    public FileTokenService(AppProperties appProperties, ConsumedFileTokenSet consumedTokens) {
+        this.appProperties = appProperties;
+        this.consumedTokens = consumedTokens;
+        this.signingKey = new SecretKeySpec(signingKeyBytes(appProperties.getFileToken()), HMAC_ALGORITHM);
+    }
+
+    public boolean isSigningEnabled() {
+        return appProperties.getFileToken().getMode() == AppProperties.FileTokenProperties.Mode.SIGNED;
+    }
+
+    public static boolean isSignedToken(String token) {
+        return token.indexOf('.') > 0;
+    }
+
+    public String issue(ShlContentDocument content) {
+        Instant expiresAt = Instant.now()
+                .plus(appProperties.getFileTokenTtlMinutes(), ChronoUnit.MINUTES)
+                .truncatedTo(ChronoUnit.SECONDS);
+        String claims = String.join(CLAIM_SEPARATOR,
+                SecureRandomUtil.generateBase64UrlRandom(TOKEN_ID_BYTES),
+                content.getShlId(),
+                content.getId(),
+                content.isInline() ? "" : content.getS3Key(),
+                Long.toString(expiresAt.getEpochSecond()));
+        String encodedClaims = Base64UrlUtil.encode(claims);
+        return encodedClaims + "." + Base64UrlUtil.encode(sign(encodedClaims));
+    }
+
+    /**
+     * Verifies a signed token and consumes it. Fails with {@link ShlNotFoundException} for a
+     * forged, malformed or already used token and {@link ShlExpiredException} for an expired one.
+     */
+    public Mono<SignedFileToken> redeem(String token) {
+        return Mono.fromCallable(() -> verify(token))
+                .flatMap(claims -> consumedTokens.consume(claims.id(), claims.expiresAt())
+                        .flatMap(first -> first
+                                ? Mono.just(claims)
+                                : Mono.error(new ShlNotFoundException("Token already consumed: " + claims.id()))));
+    }
+
+    SignedFileToken verify(String token) {
+        int dot = token.indexOf('.');
+        if (dot <= 0 || dot != token.lastIndexOf('.')) {
+            throw new ShlNotFoundException("Malformed file token");
+        }
+        String encodedClaims = token.substring(0, dot);
+        String[] claims;
+        try {
+            byte[] signature = Base64UrlUtil.decode(token.substring(dot + 1));
+            if (!MessageDigest.isEqual(sign(encodedClaims), signature)) {
+                throw new ShlNotFoundException("Invalid file token signature");
+            }
+            claims = Base64UrlUtil.decodeToString(encodedClaims).split(CLAIM_SEPARATOR, -1);
+        } catch (IllegalArgumentException e) {
+            throw new ShlNotFoundException("Malformed file token");
+        }
+        if (claims.length != 5) {
+            throw new ShlNotFoundException("Malformed file token");
+        }
+
+        Instant expiresAt = Instant.ofEpochSecond(Long.parseLong(claims[4]));
+        if (Instant.now().isAfter(expiresAt)) {
+            throw new ShlExpiredException("Download token expired");
+        }
+        String s3Key = claims[3].isEmpty() ? null : claims[3];
+        return new SignedFileToken(claims[0], claims[1], claims[2], s3Key, expiresAt);
+    }
+
+    private byte[] sign(String encodedClaims) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(signingKey);
+            return mac.doFinal(encodedClaims.getBytes(StandardCharsets.US_ASCII));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC-SHA256 not available", e);
+        }
+    }
+
+    private static byte[] signingKeyBytes(AppProperties.FileTokenProperties props) {
+        String configured = props.getSigningKey();
+        if (configured == null || configured.isBlank()) {
+            if (props.getMode() == AppProperties.FileTokenProperties.Mode.SIGNED) {
+                log.warn("app.file-token.signing-key is not set; signed download links are only valid on "
+                        + "this instance until it restarts");
+            }
+            return SecureRandomUtil.generateRandomBytes(MIN_KEY_BYTES);
+        }
+        byte[] key = Base64.getDecoder().decode(configured.trim());
+        if (key.length < MIN_KEY_BYTES) {
+            throw new IllegalStateException("app.file-token.signing-key must be at least "
+                    + MIN_KEY_BYTES + " bytes");
+        }
+        return key;
+    }
+
+    /**
+     * Claims of a verified token; {@code s3Key} is null when the payload was stored inline.
+     */
+    public record SignedFileToken(String id, String shlId, String contentId, String s3Key, Instant expiresAt) {
+    }
+}
@@ -0,0 +1,244 @@
+package com.chanakya.shl.service;
+
+import com.chanakya.shl.config.AppProperties;
+import com.chanakya.shl.model.FhirBundlePage;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.channel.ChannelOption;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+import reactor.util.retry.Retry;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.http.SdkHttpMethod;
+import software.amazon.awssdk.http.SdkHttpRequest;
+import software.amazon.awssdk.http.auth.aws.signer.AwsV4HttpSigner;
+import software.amazon.awssdk.http.auth.spi.signer.SignedRequest;
+import software.amazon.awssdk.identity.spi.AwsCredentialsIdentity;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * SigV4-signed GETs against the HealthLake datastore over a dedicated, bounded connection pool.
+ * <p>
+ * Each attempt is limited by the connect, read and request timeouts; 429s, 5xx responses and
+ * connection failures are retried with jittered exponential backoff, re-signing each attempt.
+ * Credentials are resolved off the event loop, cached, and refreshed in the background
+ * {@code credentials-refresh-ahead} before they expire, so requests never wait on IMDS or STS
+ * once warm. Latency is published as the {@code shl.healthlake.page} histogram per resource.
+ */
+@Component
+@Slf4j
+public class HealthLakeClient {
+
+    private final AppProperties.HealthLakeProperties.ClientProperties clientProps;
+    private final String region;
+    private final WebClient webClient;
+    private final AwsV4HttpSigner signer;
+    private final DefaultCredentialsProvider credentialsProvider;
+    private final MeterRegistry meterRegistry;
+    private final DistributionSummary pageEntries;
+
+    private volatile CachedCredentials cachedCredentials;
+    private Mono<AwsCredentialsIdentity> pendingRefresh;
+
+    public HealthLakeClient(AppProperties appProperties,
+                            DefaultCredentialsProvider credentialsProvider,
+                            MeterRegistry meterRegistry) {
+        AppProperties.HealthLakeProperties healthLakeProps = appProperties.getHealthlake();
+        this.clientProps = healthLakeProps.getClient();
+        this.region = healthLakeProps.getRegion();
+        this.signer = AwsV4HttpSigner.create();
+        this.credentialsProvider = credentialsProvider;
+        this.meterRegistry = meterRegistry;
+        this.pageEntries = DistributionSummary.builder("shl.healthlake.page.entries")
+                .description("Resources returned per HealthLake search page")
+                .register(meterRegistry);
+
+        ConnectionProvider pool = ConnectionProvider.builder("healthlake")
+                .maxConnections(clientProps.getMaxConnections())
+                .pendingAcquireMaxCount(clientProps.getMaxPendingAcquires())
+                .pendingAcquireTimeout(clientProps.getPendingAcquireTimeout())
+                .maxIdleTime(clientProps.getMaxIdleTime())
+                .maxLifeTime(clientProps.getMaxLifeTime())
+                .evictInBackground(clientProps.getMaxIdleTime())
+                .metrics(true)
+                .build();
+        HttpClient httpClient = HttpClient.create(pool)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) clientProps.getConnectTimeout().toMillis())
+                .responseTimeout(clientProps.getReadTimeout());
+        this.webClient = WebClient.builder()
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .codecs(codecs -> codecs.defaultCodecs()
+                        .maxInMemorySize((int) healthLakeProps.getMaxPageBytes().toBytes()))
+                .build();
+    }
+
+    /**
+     * Fetches one search page. With an {@code ifNoneMatch} or {@code ifModifiedSince}
+     * validator the request is conditional, and a 304 yields {@link SearchPage#NOT_MODIFIED}.
+     *
+     * @param resource the searched resource type (or {@code $everything}), used as metric tag
+     */
+    public Mono<SearchPage> get(URI uri, String resource, String ifNoneMatch, String ifModifiedSince) {
+        Mono<SearchPage> attempt = credentials()
+                .flatMap(credentials -> signedGet(uri, credentials, ifNoneMatch, ifModifiedSince)
+                        .exchangeToMono(response -> {
+                            if (response.statusCode().isSameCodeAs(HttpStatus.NOT_MODIFIED)) {
+                                return response.releaseBody().thenReturn(SearchPage.NOT_MODIFIED);
+                            }
+                            if (response.statusCode().isError()) {
+                                return response.createError();
+                            }
+                            HttpHeaders headers = response.headers().asHttpHeaders();
+                            return response.bodyToMono(FhirBundlePage.class)
+                                    .defaultIfEmpty(new FhirBundlePage(null, null))
+                                    .map(page -> new SearchPage(page, headers.getETag(),
+                                            headers.getFirst(HttpHeaders.LAST_MODIFIED), false));
+                        }))
+                .timeout(clientProps.getRequestTimeout());
+
+        return Mono.defer(() -> {
+            Timer.Sample sample = Timer.start(meterRegistry);
+            return attempt
+                    .retryWhen(Retry.backoff(clientProps.getMaxRetries(), clientProps.getRetryMinBackoff())
+                            .maxBackoff(clientProps.getRetryMaxBackoff())
+                            .jitter(clientProps.getRetryJitter())
+                            .filter(HealthLakeClient::isRetryable)
+                            .doBeforeRetry(signal -> {
+                                log.debug("Retrying HealthLake {} search (attempt {}): {}", resource,
+                                        signal.totalRetries() + 2, signal.failure().toString());
+                                meterRegistry.counter("shl.healthlake.retries",
+                                        "resource", resource, "reason", retryReason(signal.failure())).increment();
+                            })
+                            .onRetryExhaustedThrow((spec, signal) -> signal.failure()))
+                    .doOnSuccess(page -> {
+                        sample.stop(pageTimer(resource, page.notModified() ? "not-modified" : "success"));
+                        if (!page.notModified()) {
+                            pageEntries.record(page.bundle().entries().size());
+                        }
+                    })
+                    .doOnError(e -> sample.stop(pageTimer(resource, "error")));
+        });
+    }
+
+    private WebClient.RequestHeadersSpec<?> signedGet(URI uri, AwsCredentialsIdentity credentials,
+                                                      String ifNoneMatch, String ifModifiedSince) {
+        SdkHttpRequest httpRequest = SdkHttpRequest.builder()
+                .uri(uri)
+                .method(SdkHttpMethod.GET)
+                .build();
+
+        SignedRequest signedRequest = signer.sign(r -> r
+                .identity(credentials)
+                .request(httpRequest)
+                .putProperty(AwsV4HttpSigner.SERVICE_SIGNING_NAME, "healthlake")
+                .putProperty(AwsV4HttpSigner.REGION_NAME, region));
+
+        WebClient.RequestHeadersSpec<?> spec = webClient.get().uri(uri);
+        signedRequest.request().headers().forEach((name, values) ->
+                values.forEach(value -> spec.header(name, value)));
+        // Added after signing: SigV4 does not require every header to be signed
+        if (ifNoneMatch != null) {
+            spec.header(HttpHeaders.IF_NONE_MATCH, ifNoneMatch);
+        }
+        if (ifModifiedSince != null) {
+            spec.header(HttpHeaders.IF_MODIFIED_SINCE, ifModifiedSince);
+        }
+        return spec;
+    }
+
+    /**
+     * The cached credentials, refreshed in the background once inside the refresh-ahead window;
+     * callers only wait when there are none yet or they have expired.
+     */
+    private Mono<AwsCredentialsIdentity> credentials() {
+        return Mono.defer(() -> {
+            CachedCredentials cached = cachedCredentials;
+            Instant now = Instant.now();
+            if (cached == null || !now.isBefore(cached.expiresAt())) {
+                return refreshCredentials();
+            }
+            if (!now.isBefore(cached.refreshAt())) {
+                refreshCredentials().subscribe(null, e ->
+                        log.warn("Background HealthLake credentials refresh failed: {}", e.getMessage()));
+            }
+            return Mono.just(cached.identity());
+        });
+    }
+
+    /**
+     * Resolves credentials on a worker thread, sharing one resolution among concurrent callers.
+     */
+    private synchronized Mono<AwsCredentialsIdentity> refreshCredentials() {
+        if (pendingRefresh == null) {
+            pendingRefresh = Mono.<AwsCredentialsIdentity>fromCallable(credentialsProvider::resolveCredentials)
+                    .subscribeOn(Schedulers.boundedElastic())
+                    .doOnNext(identity -> cachedCredentials = CachedCredentials.of(identity, clientProps))
+                    .doFinally(signal -> clearPendingRefresh())
+                    .cache();
+        }
+        return pendingRefresh;
+    }
+
+    private synchronized void clearPendingRefresh() {
+        pendingRefresh = null;
+    }
+
+    private static boolean isRetryable(Throwable e) {
+        if (e instanceof WebClientResponseException response) {
+            return response.getStatusCode().isSameCodeAs(HttpStatus.TOO_MANY_REQUESTS)
+                    || response.getStatusCode().is5xxServerError();
+        }
+        // GETs are idempotent, so connection failures and timeouts are safe to retry
+        return e instanceof WebClientRequestException || e instanceof TimeoutException;
+    }
+
+    private static String retryReason(Throwable e) {
+        if (e instanceof WebClientResponseException response) {
+            return String.valueOf(response.getStatusCode().value());
+        }
+        return e instanceof TimeoutException ? "timeout" : "connection";
+    }
+
+    private Timer pageTimer(String resource, String outcome) {
+        return Timer.builder("shl.healthlake.page")
+                .description("Latency of one HealthLake search page, retries included")
+                .tag("resource", resource)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    /**
+     * One search page with its validators, or the 304 answer to a conditional request.
+     */
+    public record SearchPage(FhirBundlePage bundle, String etag, String lastModified, boolean notModified) {
+        public static final SearchPage NOT_MODIFIED = new SearchPage(null, null, null, true);
+    }
+
+    private record CachedCredentials(AwsCredentialsIdentity identity, Instant refreshAt, Instant expiresAt) {
+
+        static CachedCredentials of(AwsCredentialsIdentity identity,
+                                    AppProperties.HealthLakeProperties.ClientProperties props) {
+            Duration refreshAhead = props.getCredentialsRefreshAhead();
+            // Long-lived credentials carry no expiry; re-resolve them periodically all the same
+            Instant expiresAt = identity.expirationTime()
+                    .orElseGet(() -> Instant.now().plus(props.getCredentialsMaxAge()).plus(refreshAhead));
+            return new CachedCredentials(identity, expiresAt.minus(refreshAhead), expiresAt);
+        }
+    }
+}
@@ -1,76 +1,266 @@
 package com.chanakya.shl.service;
 
+import com.chanakya.shl.cache.HealthLakeBundleCache;
+import com.chanakya.shl.cache.HealthLakeBundleCache.CachedBundle;
 import com.chanakya.shl.config.AppProperties;
+import com.chanakya.shl.model.FhirBundlePage;
 import com.chanakya.shl.model.enums.FhirCategory;
+import com.chanakya.shl.service.HealthLakeClient.SearchPage;
+import com.chanakya.shl.util.MetricsUtil;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
-import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
-import software.amazon.awssdk.http.SdkHttpRequest;
-import software.amazon.awssdk.http.SdkHttpMethod;
-import software.amazon.awssdk.http.auth.aws.signer.AwsV4HttpSigner;
-import software.amazon.awssdk.http.auth.spi.signer.SignedRequest;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.node.ObjectNode;
 
 import java.net.URI;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
+/**
+ * Reads FHIR resources for a patient from AWS HealthLake, one collection bundle per category.
+ * <p>
+ * Search results are paged: each page is requested with {@code _count = page-size} and the
+ * {@code next} link is followed until the last page, so long histories are not truncated.
+ * Pages are processed as they arrive: each page's entries are appended to the category's
+ * bundle and the page is then released. Memory per category is the bundle built so far plus
+ * one page. Next links are only followed within the configured datastore.
+ * <p>
+ * Merged results are cached per (patient, category) by {@link HealthLakeBundleCache}; requests
+ * go through {@link HealthLakeClient}. Every search that goes to HealthLake, including a
+ * conditional revalidation, is timed end to end, across all its pages, as
+ * {@code shl.healthlake.fetch}, tagged with the {@code category} (or {@code everything}).
+ */
 @Service
 @Slf4j
 public class HealthLakeService {
 
+    private static final Pattern FHIR_ID = Pattern.compile("[A-Za-z0-9\\-.]{1,64}");
+
     private final AppProperties.HealthLakeProperties healthLakeProps;
-    private final WebClient webClient;
-    private final AwsV4HttpSigner signer;
-    private final DefaultCredentialsProvider credentialsProvider;
+    private final HealthLakeClient healthLakeClient;
+    private final HealthLakeBundleCache bundleCache;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
 
     public HealthLakeService(AppProperties appProperties,
-                             DefaultCredentialsProvider credentialsProvider) {
+                             HealthLakeClient healthLakeClient,
+                             HealthLakeBundleCache bundleCache,
+                             ObjectMapper objectMapper,
+                             MeterRegistry meterRegistry) {
         this.healthLakeProps = appProperties.getHealthlake();
-        this.webClient = WebClient.builder().build();
-        this.signer = AwsV4HttpSigner.create();
-        this.credentialsProvider = credentialsProvider;
+        this.healthLakeClient = healthLakeClient;
+        this.bundleCache = bundleCache;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
     }
 
+    /**
+     * Fetches every page of the category's search and merges the entries into one
+     * {@code collection} bundle, or serves it from {@link HealthLakeBundleCache}.
+     */
     public Mono<String> fetchBundle(String patientId, FhirCategory category) {
+        return fetchCategory(patientId, category).map(bundle -> toBundleJson(bundle.entries()));
+    }
+
+    /**
+     * Streams the search result pages for one category, requesting the next page only after
+     * the previous one has been consumed. Always goes to HealthLake.
+     */
+    public Flux<FhirBundlePage> fetchPages(String patientId, FhirCategory category) {
+        return Flux.defer(() -> {
+            validateConfigured();
+            validatePatientId(patientId);
+            return followPages(fetchPage(categorySearchUri(patientId, category), category.getResourceType(), null),
+                    category.getResourceType())
+                    .map(SearchPage::bundle);
+        });
+    }
+
+    /**
+     * Fetches the categories' bundles. With {@code fetch-mode: everything} all categories come
+     * from one paged {@code Patient/$everything} search; otherwise each category is searched
+     * separately, at most {@code max-concurrent-requests} at a time. Bundles are emitted in
+     * the order of {@code categories} either way.
+     */
+    public Flux<String> fetchBundles(String patientId, List<FhirCategory> categories) {
+        if (healthLakeProps.getFetchMode() == AppProperties.HealthLakeProperties.FetchMode.EVERYTHING) {
+            return fetchEverything(patientId, categories);
+        }
+        return Flux.fromIterable(categories)
+                .flatMapSequential(category -> fetchBundle(patientId, category),
+                        healthLakeProps.getMaxConcurrentRequests());
+    }
+
+    /**
+     * Serves a fresh cached result, revalidates a stale one that has validators, and otherwise
+     * fetches and caches the full search.
+     */
+    private Mono<CachedBundle> fetchCategory(String patientId, FhirCategory category) {
         return Mono.defer(() -> {
             validateConfigured();
+            validatePatientId(patientId);
 
-            String endpoint = healthLakeProps.getDatastoreEndpoint();
-            String resourcePath = "/r4/" + category.getResourceType();
-            String queryParam = "patient=Patient/" + patientId;
-            String fullUrl = endpoint + resourcePath + "?" + queryParam;
+            CachedBundle cached = bundleCache.get(patientId, category);
+            if (cached != null && bundleCache.isFresh(cached)) {
+                log.debug("Serving cached {} bundle for patient {}", category.getDisplayName(), patientId);
+                return Mono.just(cached);
+            }
+            CachedBundle revalidating = cached != null && cached.canRevalidate() ? cached : null;
+            String search = category.getResourceType();
+            log.debug("Fetching {} for patient {} from HealthLake{}", category.getDisplayName(), patientId,
+                    revalidating != null ? " (conditional)" : "");
 
-            URI uri = URI.create(fullUrl);
+            Mono<CachedBundle> fetched = fetchPage(categorySearchUri(patientId, category), search, revalidating)
+                    .flatMap(first -> {
+                        if (first.notModified()) {
+                            log.debug("{} bundle for patient {} unchanged", category.getDisplayName(), patientId);
+                            return Mono.just(bundleCache.revalidated(patientId, category, revalidating));
+                        }
+                        EntryWriter entries = new EntryWriter();
+                        AtomicInteger pages = new AtomicInteger();
+                        return followPages(Mono.just(first), search)
+                                .doOnNext(page -> {
+                                    pages.incrementAndGet();
+                                    page.bundle().entries().forEach(entry -> entries.append(entry, objectMapper));
+                                })
+                                .then(Mono.fromSupplier(() -> {
+                                    log.debug("Fetched {} bundle for patient {} in {} pages",
+                                            category.getDisplayName(), patientId, pages.get());
+                                    boolean singlePage = pages.get() == 1;
+                                    return bundleCache.put(patientId, category, entries.toString(), entries.count(),
+                                            singlePage ? first.etag() : null, singlePage ? first.lastModified() : null);
+                                }));
+                    })
+                    .doOnError(err -> log.error("Failed to fetch {} for patient {}: {}",
+                            category.getDisplayName(), patientId, err.getMessage()));
+            return MetricsUtil.timed(fetched, meterRegistry, "shl.healthlake.fetch",
+                    "category", category.name().toLowerCase(Locale.ROOT));
+        });
+    }
 
-            SdkHttpRequest httpRequest = SdkHttpRequest.builder()
-                    .uri(uri)
-                    .method(SdkHttpMethod.GET)
-                    .build();
+    /**
+     * One {@code $everything} search filtered by {@code _type} to the requested resource types:
+     * a single signed request (plus one per further page) instead of one search per category.
+     * Categories with a fresh cached result are left out of {@code _type}, and the search is
+     * skipped entirely when all are fresh. Entries are grouped by category either way: merged
+     * into one bundle, category after category, when {@code combine-categories} is set,
+     * otherwise returned as one bundle per requested category, in request order, exactly as the
+     * per-category mode returns them.
+     */
+    private Flux<String> fetchEverything(String patientId, List<FhirCategory> categories) {
+        return Flux.defer(() -> {
+            validateConfigured();
+            validatePatientId(patientId);
 
-            SignedRequest signedRequest = signer.sign(r -> r
-                    .identity(credentialsProvider.resolveCredentials())
-                    .request(httpRequest)
-                    .putProperty(AwsV4HttpSigner.SERVICE_SIGNING_NAME, "healthlake")
-                    .putProperty(AwsV4HttpSigner.REGION_NAME, healthLakeProps.getRegion()));
+            Map<FhirCategory, CachedBundle> results = new LinkedHashMap<>();
+            Map<String, FhirCategory> missing = new LinkedHashMap<>();
+            for (FhirCategory category : categories) {
+                CachedBundle cached = bundleCache.get(patientId, category);
+                results.put(category, cached != null && bundleCache.isFresh(cached) ? cached : null);
+                if (results.get(category) == null) {
+                    missing.put(category.getResourceType(), category);
+                }
+            }
 
-            WebClient.RequestHeadersSpec<?> spec = webClient.get().uri(uri);
-            signedRequest.request().headers().forEach((name, values) ->
-                    values.forEach(value -> spec.header(name, value)));
+            Mono<Void> fetchMissing = Mono.empty();
+            if (!missing.isEmpty()) {
+                URI firstPage = URI.create(healthLakeProps.getDatastoreEndpoint() + "/r4/Patient/" + patientId
+                        + "/$everything?_type=" + String.join(",", missing.keySet())
+                        + "&_count=" + healthLakeProps.getPageSize());
+                Map<String, EntryWriter> byType = new LinkedHashMap<>();
+                missing.keySet().forEach(type -> byType.put(type, new EntryWriter()));
+                log.debug("Fetching {} for patient {} from HealthLake with $everything", missing.keySet(), patientId);
 
-            log.debug("Fetching {} for patient {} from HealthLake", category.getDisplayName(), patientId);
+                Mono<Void> everything = followPages(fetchPage(firstPage, "$everything", null), "$everything")
+                        .doOnNext(page -> {
+                            for (JsonNode entry : page.bundle().entries()) {
+                                EntryWriter writer = byType.get(entry.path("resource").path("resourceType").asString());
+                                // $everything may add resources outside _type (e.g. the Patient itself)
+                                if (writer != null) {
+                                    writer.append(entry, objectMapper);
+                                }
+                            }
+                        })
+                        .then(Mono.fromRunnable(() -> byType.forEach((type, writer) -> {
+                            FhirCategory category = missing.get(type);
+                            results.put(category, bundleCache.put(patientId, category,
+                                    writer.toString(), writer.count(), null, null));
+                        })))
+                        .doOnError(err -> log.error("Failed to fetch {} for patient {}: {}",
+                                missing.keySet(), patientId, err.getMessage()))
+                        .then();
+                fetchMissing = MetricsUtil.timed(everything, meterRegistry, "shl.healthlake.fetch",
+                        "category", "everything");
+            }
 
-            return spec.retrieve()
-                    .bodyToMono(String.class)
-                    .doOnSuccess(body -> log.debug("Fetched {} bundle for patient {}", category.getDisplayName(), patientId))
-                    .doOnError(err -> log.error("Failed to fetch {} for patient {}: {}", category.getDisplayName(), patientId, err.getMessage()));
+            return fetchMissing.thenMany(Flux.defer(() -> {
+                if (healthLakeProps.isCombineCategories()) {
+                    return Flux.just(toBundleJson(results.values().stream()
+                            .filter(bundle -> bundle.count() > 0)
+                            .map(CachedBundle::entries)
+                            .collect(Collectors.joining(","))));
+                }
+                return Flux.fromIterable(results.values()).map(bundle -> toBundleJson(bundle.entries()));
+            }));
         });
     }
 
-    public Flux<String> fetchBundles(String patientId, List<FhirCategory> categories) {
-        return Flux.fromIterable(categories)
-                .flatMap(category -> fetchBundle(patientId, category));
+    private URI categorySearchUri(String patientId, FhirCategory category) {
+        return URI.create(healthLakeProps.getDatastoreEndpoint() + "/r4/" + category.getResourceType()
+                + "?patient=Patient/" + patientId + "&_count=" + healthLakeProps.getPageSize());
+    }
+
+    private Flux<SearchPage> followPages(Mono<SearchPage> firstPage, String search) {
+        URI datastore = URI.create(healthLakeProps.getDatastoreEndpoint());
+        AtomicInteger pageCount = new AtomicInteger(1);
+
+        return firstPage
+                .expand(fetched -> {
+                    String next = fetched.bundle().nextUrl();
+                    if (next == null) {
+                        return Mono.empty();
+                    }
+                    if (pageCount.incrementAndGet() > healthLakeProps.getMaxPages()) {
+                        return Mono.error(new IllegalStateException("HealthLake " + search
+                                + " search exceeded " + healthLakeProps.getMaxPages() + " pages"));
+                    }
+                    return fetchPage(sameDatastore(datastore, URI.create(next)), search, null);
+                });
+    }
+
+    private Mono<SearchPage> fetchPage(URI uri, String search, CachedBundle validators) {
+        return validators == null
+                ? healthLakeClient.get(uri, search, null, null)
+                : healthLakeClient.get(uri, search, validators.etag(), validators.lastModified());
+    }
+
+    /**
+     * Signed requests must not leave the datastore, whatever a next link points at.
+     */
+    private static URI sameDatastore(URI datastore, URI next) {
+        if (!datastore.getScheme().equalsIgnoreCase(next.getScheme())
+                || !datastore.getAuthority().equalsIgnoreCase(next.getAuthority())) {
+            throw new IllegalStateException("HealthLake next link points outside the datastore: " + next.getHost());
+        }
+        return next;
+    }
+
+    /**
+     * The id is placed in the request URL, so it must be a plain FHIR id.
+     */
+    private static void validatePatientId(String patientId) {
+        if (patientId == null || !FHIR_ID.matcher(patientId).matches()) {
+            throw new IllegalArgumentException("'patientId' must be a FHIR resource id");
+        }
     }
 
     private void validateConfigured() {
@@ -79,4 +269,38 @@ public class HealthLakeService {
             throw new IllegalStateException("HealthLake datastore endpoint is not configured. Set HEALTHLAKE_ENDPOINT environment variable.");
         }
     }
+
+    private static String toBundleJson(String entries) {
+        // Bundle.total is only allowed on searchset and history bundles
+        return "{\"resourceType\":\"Bundle\",\"type\":\"collection\",\"entry\":[" + entries + "]}";
+    }
+
+    /**
+     * Accumulates search entries as pages arrive, as the comma-separated body of a bundle's
+     * {@code entry} array. The search-only {@code search} element is dropped from each entry,
+     * since it is not valid outside a searchset.
+     */
+    private static final class EntryWriter {
+        private final StringBuilder json = new StringBuilder();
+        private int count;
+
+        void append(JsonNode entry, ObjectMapper objectMapper) {
+            if (entry instanceof ObjectNode objectEntry) {
+                objectEntry.remove("search");
+            }
+            if (count++ > 0) {
+                json.append(',');
+            }
+            json.append(objectMapper.writeValueAsString(entry));
+        }
+
+        int count() {
+            return count;
+        }
+
+        @Override
+        public String toString() {
+            return json.toString();
+        }
+    }
 }
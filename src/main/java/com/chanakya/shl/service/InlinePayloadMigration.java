@@ -0,0 +1,97 @@
+package com.chanakya.shl.service;
+
+import com.chanakya.shl.config.AppProperties;
+import com.chanakya.shl.model.document.ShlContentDocument;
+import com.chanakya.shl.model.enums.PayloadStorage;
+import com.chanakya.shl.util.DigestUtil;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Moves S3 payloads that are within {@code app.inline-payloads.max-size} onto their content
+ * records, then deletes the objects.
+ * <p>
+ * Candidates are chosen by their stored {@code jweLength}, so records that
+ * {@link ContentMetadataBackfill} has not reached yet wait for a later run. The record update
+ * is conditional on the record still pointing at the object, and the object is only deleted
+ * once the update has been applied, so an interrupted run leaves every payload readable.
+ * Objects whose bytes do not match the recorded {@code contentHash} are left in S3.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class InlinePayloadMigration {
+
+    private final ReactiveMongoTemplate mongoTemplate;
+    private final S3StorageService s3StorageService;
+    private final AppProperties appProperties;
+
+    @Scheduled(cron = "${app.inline-payloads.migration-cron:0 30 4 * * *}")
+    public void scheduledMigration() {
+        migrate().subscribe(
+                moved -> {
+                    if (moved > 0) {
+                        log.info("Moved {} small payloads from S3 onto their content records", moved);
+                    }
+                },
+                err -> log.warn("Inline payload migration failed: {}", err.getMessage()));
+    }
+
+    /**
+     * Emits the number of payloads moved inline.
+     */
+    public Mono<Long> migrate() {
+        long maxSize = appProperties.getInlinePayloads().getMaxSize().toBytes();
+        if (maxSize <= 0) {
+            return Mono.just(0L);
+        }
+        Query candidates = Query.query(Criteria.where("storage").ne(PayloadStorage.INLINE)
+                .and("s3Key").ne(null)
+                .and("jweLength").lte(maxSize));
+        candidates.fields().include("id", "s3Key", "contentHash");
+
+        return mongoTemplate.find(candidates, ShlContentDocument.class)
+                .flatMap(content -> moveInline(content, maxSize)
+                                .onErrorResume(e -> {
+                                    log.warn("Could not move content {} inline: {}", content.getId(), e.getMessage());
+                                    return Mono.empty();
+                                }),
+                        appProperties.getInlinePayloads().getMigrationConcurrency())
+                .reduce(0L, Long::sum);
+    }
+
+    private Mono<Long> moveInline(ShlContentDocument content, long maxSize) {
+        String s3Key = content.getS3Key();
+        return s3StorageService.getObjectBytes(s3Key)
+                .filter(jwe -> jwe.length <= maxSize)
+                .filter(jwe -> {
+                    boolean intact = content.getContentHash() == null
+                            || content.getContentHash().equals(DigestUtil.sha256Hex(jwe));
+                    if (!intact) {
+                        log.warn("Payload {} does not match its content hash; leaving it in S3", s3Key);
+                    }
+                    return intact;
+                })
+                .flatMap(jwe -> mongoTemplate.updateFirst(
+                        Query.query(Criteria.where("id").is(content.getId()).and("s3Key").is(s3Key)),
+                        new Update()
+                                .set("storage", PayloadStorage.INLINE)
+                                .set("inlinePayload", new String(jwe, StandardCharsets.US_ASCII))
+                                .set("jweLength", (long) jwe.length)
+                                .unset("s3Key"),
+                        ShlContentDocument.class))
+                .flatMap(result -> result.getModifiedCount() == 0
+                        ? Mono.just(0L)
+                        : s3StorageService.deleteObjects(List.of(s3Key)).thenReturn(1L));
+    }
+}
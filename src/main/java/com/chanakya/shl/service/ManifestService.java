@@ -1,11 +1,17 @@
 package com.chanakya.shl.service;
 
+import com.chanakya.shl.cache.ManifestTemplateCache;
+import com.chanakya.shl.cache.ShlLookupCache;
 import com.chanakya.shl.config.AppProperties;
 import com.chanakya.shl.exception.InvalidPasscodeException;
 import com.chanakya.shl.exception.ShlExpiredException;
 import com.chanakya.shl.exception.ShlInactiveException;
 import com.chanakya.shl.exception.ShlNotFoundException;
+import com.chanakya.shl.model.ManifestJson;
+import com.chanakya.shl.model.ManifestTemplate;
+import com.chanakya.shl.model.PayloadStream;
 import com.chanakya.shl.model.document.FileDownloadToken;
+import com.chanakya.shl.model.document.ShlContentDocument;
 import com.chanakya.shl.model.document.ShlDocument;
 import com.chanakya.shl.model.dto.request.ManifestRequest;
 import com.chanakya.shl.model.dto.response.ManifestFileEntry;
@@ -13,18 +19,21 @@ import com.chanakya.shl.model.dto.response.ManifestResponse;
 import com.chanakya.shl.model.enums.AccessAction;
 import com.chanakya.shl.repository.ShlContentRepository;
 import com.chanakya.shl.repository.ShlRepository;
+import com.chanakya.shl.util.MetricsUtil;
 import com.chanakya.shl.util.SecureRandomUtil;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.http.server.reactive.ServerHttpRequest;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import tools.jackson.databind.ObjectMapper;
 
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
@@ -36,21 +45,40 @@ import java.util.List;
 public class ManifestService {
 
     private final ShlRepository shlRepository;
+    private final ShlLookupCache shlLookupCache;
     private final ShlContentRepository shlContentRepository;
     private final S3StorageService s3StorageService;
     private final ShlPayloadService shlPayloadService;
     private final AccessLogService accessLogService;
     private final AppProperties appProperties;
     private final ReactiveMongoTemplate mongoTemplate;
+    private final PasscodeService passcodeService;
+    private final FileTokenService fileTokenService;
+    private final ContentPayloadService contentPayloadService;
+    private final ManifestTemplateCache manifestTemplateCache;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
 
-    private final BCryptPasswordEncoder passwordEncoder = new BCryptPasswordEncoder();
-
-    public Mono<ManifestResponse> processManifestRequest(String manifestId, ManifestRequest request,
-                                                          ServerHttpRequest httpRequest) {
-        return shlRepository.findByManifestId(manifestId)
+    /**
+     * The manifest response as JSON bytes. SHLs covered by {@link ManifestTemplateCache} are
+     * rendered from their template, filling in only the per-request links and embedded
+     * payloads; all others are built from their content records and serialized.
+     */
+    public Mono<ManifestJson> serveManifest(String manifestId, ManifestRequest request,
+                                            ServerHttpRequest httpRequest) {
+        Mono<ManifestJson> manifest = shlLookupCache.findByManifestId(manifestId)
                 .switchIfEmpty(Mono.error(new ShlNotFoundException(manifestId)))
                 .flatMap(shl -> validateShl(shl, request, httpRequest))
-                .flatMap(shl -> buildManifest(shl, request, httpRequest));
+                .flatMap(shl -> {
+                    boolean templated = manifestTemplateCache.appliesTo(shl);
+                    meterRegistry.counter("shl.manifest.rendered", "rendering", templated ? "template" : "built")
+                            .increment();
+                    return templated
+                            ? renderManifest(shl, request, httpRequest)
+                            : buildManifest(shl, request, httpRequest).map(response ->
+                                    new ManifestJson(response.getStatus(), objectMapper.writeValueAsBytes(response)));
+                });
+        return MetricsUtil.timed(manifest, meterRegistry, "shl.manifest.request");
     }
 
     private Mono<ShlDocument> validateShl(ShlDocument shl, ManifestRequest request,
@@ -84,82 +112,86 @@ public class ManifestService {
                             shl.getPasscodeFailuresRemaining() != null ? shl.getPasscodeFailuresRemaining() : 0)));
         }
 
-        // Atomic decrement of passcodeFailuresRemaining
-        Query query = Query.query(Criteria.where("id").is(shl.getId())
-                .and("passcodeFailuresRemaining").gt(0));
-        Update update = new Update().inc("passcodeFailuresRemaining", -1);
-
-        return mongoTemplate.findAndModify(query, update,
-                        FindAndModifyOptions.options().returnNew(true), ShlDocument.class)
-                .switchIfEmpty(Mono.defer(() -> {
-                    // No document found means either doesn't exist or attempts exhausted
-                    shl.setActive(false);
-                    return shlRepository.save(shl)
-                            .then(accessLogService.logAccess(shl.getId(), AccessAction.PASSCODE_FAILURE,
-                                    request.getRecipient(), httpRequest, false, "Passcode attempts exhausted"))
-                            .then(Mono.error(new InvalidPasscodeException(0)));
-                }))
-                .flatMap(decrementedShl -> {
-                    if (passwordEncoder.matches(request.getPasscode(), decrementedShl.getPasscodeHash())) {
-                        // Passcode correct — restore the decremented attempt
-                        Query restoreQuery = Query.query(Criteria.where("id").is(shl.getId()));
-                        Update restoreUpdate = new Update().inc("passcodeFailuresRemaining", 1);
-                        return mongoTemplate.findAndModify(restoreQuery, restoreUpdate, ShlDocument.class)
-                                .thenReturn(shl);
-                    } else {
-                        int remaining = decrementedShl.getPasscodeFailuresRemaining() != null
-                                ? decrementedShl.getPasscodeFailuresRemaining() : 0;
-                        return accessLogService.logAccess(shl.getId(), AccessAction.PASSCODE_FAILURE,
-                                        request.getRecipient(), httpRequest, false, "Invalid passcode")
-                                .then(Mono.error(new InvalidPasscodeException(remaining)));
+        int knownRemaining = shl.getPasscodeFailuresRemaining() != null ? shl.getPasscodeFailuresRemaining() : 0;
+        if (knownRemaining <= 0) {
+            return passcodeExhausted(shl, request, httpRequest);
+        }
+
+        // Verify first, then account: a correct passcode costs one read, a wrong one one atomic update
+        return passcodeService.matches(request.getPasscode(), shl.getPasscodeHash())
+                .flatMap(matches -> matches
+                        ? acceptPasscode(shl, request, httpRequest)
+                        : rejectPasscode(shl, request, httpRequest));
+    }
+
+    private Mono<ShlDocument> acceptPasscode(ShlDocument shl, ManifestRequest request,
+                                             ServerHttpRequest httpRequest) {
+        // Attempts may have been exhausted concurrently since the SHL was read
+        return shlRepository.isPasscodeUsable(shl.getId())
+                .flatMap(usable -> {
+                    if (!usable) {
+                        return passcodeExhausted(shl, request, httpRequest);
                     }
+                    upgradePasscodeHash(shl, request.getPasscode(), shl.getPasscodeHash());
+                    return Mono.just(shl);
                 });
     }
 
-    private Mono<ManifestResponse> buildManifest(ShlDocument shl, ManifestRequest request,
-                                                   ServerHttpRequest httpRequest) {
-        return shlContentRepository.findByShlId(shl.getId())
-                .flatMap(content -> {
-                    Integer maxEmbedded = request.getEmbeddedLengthMax();
-
-                    // Try to serve as embedded if the file is small enough
-                    if (maxEmbedded != null && maxEmbedded > 0) {
-                        return s3StorageService.downloadPayload(content.getS3Key())
-                                .flatMap(jweString -> {
-                                    String lastUpdated = content.getCreatedAt() != null ? content.getCreatedAt().toString() : null;
-                                    if (jweString.length() <= maxEmbedded) {
-                                        return Mono.just(ManifestFileEntry.builder()
-                                                .contentType(content.getContentType())
-                                                .embedded(jweString)
-                                                .lastUpdated(lastUpdated)
-                                                .build());
-                                    } else {
-                                        return createFileToken(shl, content.getId())
-                                                .map(token -> ManifestFileEntry.builder()
-                                                        .contentType(content.getContentType())
-                                                        .location(shlPayloadService.buildFileDownloadUrl(token.getId()))
-                                                        .lastUpdated(lastUpdated)
-                                                        .build());
-                                    }
-                                });
+    private Mono<ShlDocument> rejectPasscode(ShlDocument shl, ManifestRequest request,
+                                             ServerHttpRequest httpRequest) {
+        return shlRepository.recordPasscodeFailure(shl.getId())
+                .switchIfEmpty(Mono.defer(() -> passcodeExhausted(shl, request, httpRequest)))
+                .flatMap(updated -> {
+                    int remaining = updated.getPasscodeFailuresRemaining() != null
+                            ? updated.getPasscodeFailuresRemaining() : 0;
+                    if (remaining == 0) {
+                        // This attempt used the last one and deactivated the SHL in the same update
+                        shlLookupCache.invalidate(shl);
                     }
+                    return accessLogService.logAccess(shl.getId(), AccessAction.PASSCODE_FAILURE,
+                                    request.getRecipient(), httpRequest, false, "Invalid passcode")
+                            .then(Mono.error(new InvalidPasscodeException(remaining)));
+                });
+    }
+
+    private Mono<ShlDocument> passcodeExhausted(ShlDocument shl, ManifestRequest request,
+                                                ServerHttpRequest httpRequest) {
+        shlLookupCache.invalidate(shl);
+        return accessLogService.logAccess(shl.getId(), AccessAction.PASSCODE_FAILURE,
+                        request.getRecipient(), httpRequest, false, "Passcode attempts exhausted")
+                .then(Mono.error(new InvalidPasscodeException(0)));
+    }
 
-                    // Default: create download token
-                    String lastUpdated = content.getCreatedAt() != null ? content.getCreatedAt().toString() : null;
-                    return createFileToken(shl, content.getId())
-                            .map(token -> ManifestFileEntry.builder()
-                                    .contentType(content.getContentType())
-                                    .location(shlPayloadService.buildFileDownloadUrl(token.getId()))
-                                    .lastUpdated(lastUpdated)
-                                    .build());
-                })
+    /**
+     * Re-hashes a passcode stored with an outdated algorithm or cost, in the background so the
+     * manifest response does not wait for a second hash. The update is conditional on the old
+     * hash so a concurrent upgrade is never overwritten.
+     */
+    private void upgradePasscodeHash(ShlDocument shl, String passcode, String currentHash) {
+        if (!passcodeService.needsUpgrade(currentHash)) {
+            return;
+        }
+        passcodeService.hash(passcode)
+                .flatMap(newHash -> mongoTemplate.updateFirst(
+                        Query.query(Criteria.where("id").is(shl.getId()).and("passcodeHash").is(currentHash)),
+                        new Update().set("passcodeHash", newHash), ShlDocument.class))
+                .doOnSuccess(result -> shlLookupCache.invalidate(shl))
+                .subscribe(
+                        result -> log.debug("Upgraded passcode hash for SHL {}", shl.getId()),
+                        err -> log.warn("Failed to upgrade passcode hash for SHL {}: {}", shl.getId(), err.getMessage()));
+    }
+
+    private Mono<ManifestResponse> buildManifest(ShlDocument shl, ManifestRequest request,
+                                                   ServerHttpRequest httpRequest) {
+        return contentsOf(shl)
+                .flatMapSequential(content -> toFileEntry(shl, content, request.getEmbeddedLengthMax()),
+                        appProperties.getS3().getDownloadConcurrency())
                 .collectList()
                 .flatMap(files -> {
                     // If single-use, deactivate after manifest fetch
                     Mono<Void> deactivateMono = Mono.empty();
                     if (shl.isSingleUse()) {
-                        shl.setActive(false);
-                        deactivateMono = shlRepository.save(shl).then();
+                        deactivateMono = consumeSingleUse(shl);
                     }
 
                     String status = shl.getFlags().contains("L") ? "can-change" : "finalized";
@@ -171,6 +203,121 @@ public class ManifestService {
                 });
     }
 
+    /**
+     * Embeds the payload when it fits the receiver's {@code embeddedLengthMax}, otherwise issues
+     * a download link. The stored JWE length decides without reading S3, so only payloads that
+     * will be embedded are fetched; records from before the length was stored are fetched and
+     * measured.
+     */
+    private Mono<ManifestFileEntry> toFileEntry(ShlDocument shl, ShlContentDocument content, Integer maxEmbedded) {
+        if (!mayEmbed(content, maxEmbedded)) {
+            return locationEntry(shl, content);
+        }
+        return contentPayloadService.read(content)
+                .flatMap(jweString -> jweString.length() <= maxEmbedded
+                        ? Mono.just(ManifestFileEntry.builder()
+                                .contentType(content.getContentType())
+                                .embedded(jweString)
+                                .lastUpdated(lastUpdated(content))
+                                .build())
+                        : locationEntry(shl, content));
+    }
+
+    private Mono<ManifestFileEntry> locationEntry(ShlDocument shl, ShlContentDocument content) {
+        return fileDownloadUrl(shl, content)
+                .map(url -> ManifestFileEntry.builder()
+                        .contentType(content.getContentType())
+                        .location(url)
+                        .lastUpdated(lastUpdated(content))
+                        .build());
+    }
+
+    /**
+     * Renders a templated manifest: the same embed-or-link decisions as {@link #toFileEntry},
+     * spliced into pre-serialized JSON. A missing template is built from the contents once.
+     */
+    private Mono<ManifestJson> renderManifest(ShlDocument shl, ManifestRequest request,
+                                              ServerHttpRequest httpRequest) {
+        Mono<ManifestTemplate> template = Mono.justOrEmpty(manifestTemplateCache.get(shl))
+                .switchIfEmpty(Mono.defer(() -> contentsOf(shl)
+                        .collectList()
+                        .map(contents -> manifestTemplateCache.put(shl, contents))));
+
+        return template.flatMap(t -> Flux.fromIterable(t.files())
+                        .flatMapSequential(file -> renderFile(shl, file, request.getEmbeddedLengthMax()),
+                                appProperties.getS3().getDownloadConcurrency())
+                        .collectList()
+                        .map(t::render))
+                .flatMap(body -> accessLogService.logAccess(shl.getId(), AccessAction.MANIFEST_REQUEST,
+                                request.getRecipient(), httpRequest, true, null)
+                        .thenReturn(new ManifestJson("finalized", body)));
+    }
+
+    private Mono<byte[]> renderFile(ShlDocument shl, ManifestTemplate.FileTemplate file, Integer maxEmbedded) {
+        ShlContentDocument content = file.content();
+        if (!mayEmbed(content, maxEmbedded)) {
+            return fileDownloadUrl(shl, content).map(file::location);
+        }
+        if (file.embeddedEntry() != null) {
+            return Mono.just(file.embeddedEntry());
+        }
+        return contentPayloadService.read(content)
+                .onErrorResume(NoSuchKeyException.class, e -> readMovedPayload(shl, content))
+                .flatMap(jweString -> jweString.length() <= maxEmbedded
+                        ? Mono.just(file.embedded(jweString))
+                        : fileDownloadUrl(shl, content).map(file::location));
+    }
+
+    /**
+     * A template's content metadata is a snapshot: {@link InlinePayloadMigration} may since have
+     * moved the payload onto the record and deleted the object, possibly from another instance.
+     * Reads the payload from the current record and drops the stale template so the next
+     * request rebuilds it.
+     */
+    private Mono<String> readMovedPayload(ShlDocument shl, ShlContentDocument content) {
+        manifestTemplateCache.invalidate(shl.getManifestId());
+        return shlContentRepository.findById(content.getId())
+                .switchIfEmpty(Mono.error(new ShlNotFoundException(content.getId())))
+                .flatMap(contentPayloadService::read);
+    }
+
+    private Flux<ShlContentDocument> contentsOf(ShlDocument shl) {
+        return MetricsUtil.timed(shlContentRepository.findByShlIdOrderBySequenceAsc(shl.getId()),
+                meterRegistry, "shl.mongo.query", "query", "contents-by-shl");
+    }
+
+    /**
+     * Whether a payload might fit the receiver's {@code embeddedLengthMax}. Payloads of unknown
+     * length might, and are measured once read.
+     */
+    private static boolean mayEmbed(ShlContentDocument content, Integer maxEmbedded) {
+        return maxEmbedded != null && maxEmbedded > 0
+                && (content.getJweLength() == null || content.getJweLength() <= maxEmbedded);
+    }
+
+    private Mono<String> fileDownloadUrl(ShlDocument shl, ShlContentDocument content) {
+        Mono<String> tokenId = fileTokenService.isSigningEnabled()
+                ? Mono.fromCallable(() -> fileTokenService.issue(content))
+                : createFileToken(shl, content.getId()).map(FileDownloadToken::getId);
+        return tokenId.map(shlPayloadService::buildFileDownloadUrl);
+    }
+
+    private static String lastUpdated(ShlContentDocument content) {
+        return content.getCreatedAt() != null ? content.getCreatedAt().toString() : null;
+    }
+
+    /**
+     * Deactivates a single-use SHL. Only one concurrent request can win the conditional update;
+     * the others see the SHL as inactive.
+     */
+    private Mono<Void> consumeSingleUse(ShlDocument shl) {
+        return shlRepository.deactivate(shl.getId())
+                .doOnNext(deactivated -> shlLookupCache.invalidate(shl))
+                .flatMap(deactivated -> deactivated
+                        ? Mono.<Void>empty()
+                        : Mono.error(new ShlInactiveException(shl.getId())));
+    }
+
     private Mono<FileDownloadToken> createFileToken(ShlDocument shl, String contentId) {
         FileDownloadToken token = FileDownloadToken.builder()
                 .id(SecureRandomUtil.generateBase64UrlRandom(32))
@@ -179,16 +326,27 @@ public class ManifestService {
                 .expiresAt(Instant.now().plus(appProperties.getFileTokenTtlMinutes(), ChronoUnit.MINUTES))
                 .consumed(false)
                 .build();
-        return mongoTemplate.save(token);
+        return MetricsUtil.timed(mongoTemplate.save(token), meterRegistry,
+                "shl.mongo.query", "query", "insert-file-token");
     }
 
-    public Mono<String> downloadFile(String tokenId, ServerHttpRequest httpRequest) {
+    public Mono<PayloadStream> downloadFile(String tokenId, ServerHttpRequest httpRequest) {
+        if (FileTokenService.isSignedToken(tokenId)) {
+            return MetricsUtil.timed(fileTokenService.redeem(tokenId)
+                            .flatMap(token -> accessLogService.logAccess(token.shlId(), AccessAction.FILE_DOWNLOAD,
+                                            null, httpRequest, true, null)
+                                    .then(streamSignedPayload(token))),
+                    meterRegistry, "shl.file.download", "token", "signed");
+        }
+
         // Atomically find and mark token as consumed
         Query tokenQuery = Query.query(Criteria.where("id").is(tokenId)
                 .and("consumed").is(false));
         Update tokenUpdate = new Update().set("consumed", true);
 
-        return mongoTemplate.findAndModify(tokenQuery, tokenUpdate, FileDownloadToken.class)
+        Mono<PayloadStream> download = MetricsUtil.timed(
+                        mongoTemplate.findAndModify(tokenQuery, tokenUpdate, FileDownloadToken.class),
+                        meterRegistry, "shl.mongo.query", "query", "consume-file-token")
                 .switchIfEmpty(Mono.error(new ShlNotFoundException("Token not found or already consumed: " + tokenId)))
                 .flatMap(token -> {
                     if (token.getExpiresAt() != null && Instant.now().isAfter(token.getExpiresAt())) {
@@ -199,19 +357,35 @@ public class ManifestService {
                             .flatMap(content ->
                                     accessLogService.logAccess(content.getShlId(), AccessAction.FILE_DOWNLOAD,
                                                     null, httpRequest, true, null)
-                                            .then(s3StorageService.downloadPayload(content.getS3Key()))
+                                            .then(contentPayloadService.stream(content))
                             );
                 });
+        return MetricsUtil.timed(download, meterRegistry, "shl.file.download", "token", "stored");
+    }
+
+    /**
+     * Streams a signed token's payload from the S3 key in its claims. Inline payloads, and
+     * payloads moved inline since the token was issued, are read from their content record.
+     */
+    private Mono<PayloadStream> streamSignedPayload(FileTokenService.SignedFileToken token) {
+        Mono<PayloadStream> fromRecord = Mono.defer(() -> shlContentRepository.findById(token.contentId())
+                .switchIfEmpty(Mono.error(new ShlNotFoundException(token.contentId())))
+                .flatMap(contentPayloadService::stream));
+        if (token.s3Key() == null) {
+            return fromRecord;
+        }
+        return s3StorageService.streamPayload(token.s3Key())
+                .onErrorResume(NoSuchKeyException.class, e -> fromRecord);
     }
 
     /**
-     * Spec-compliant U-flag direct access: returns raw JWE string.
+     * Spec-compliant U-flag direct access: streams the raw JWE.
      * Per SHL spec, GET to the manifest URL with ?recipient= returns
      * the encrypted file directly with Content-Type: application/jose.
      */
-    public Mono<String> processDirectAccessRawJwe(String manifestId, String recipient,
+    public Mono<PayloadStream> processDirectAccessRawJwe(String manifestId, String recipient,
                                                    ServerHttpRequest httpRequest) {
-        return shlRepository.findByManifestId(manifestId)
+        Mono<PayloadStream> payload = shlLookupCache.findByManifestId(manifestId)
                 .switchIfEmpty(Mono.error(new ShlNotFoundException(manifestId)))
                 .flatMap(shl -> {
                     // For U-flag direct access, inactive SHLs return 404 (no manifest wrapper for "no-longer-valid")
@@ -225,21 +399,21 @@ public class ManifestService {
                         return Mono.error(new IllegalArgumentException("Direct access requires U flag"));
                     }
 
-                    return shlContentRepository.findByShlId(shl.getId())
-                            .next()
+                    return MetricsUtil.timed(shlContentRepository.findByShlIdOrderBySequenceAsc(shl.getId()).next(),
+                                    meterRegistry, "shl.mongo.query", "query", "contents-by-shl")
                             .flatMap(content -> {
                                 Mono<Void> deactivateMono = Mono.empty();
                                 if (shl.isSingleUse()) {
-                                    shl.setActive(false);
-                                    deactivateMono = shlRepository.save(shl).then();
+                                    deactivateMono = consumeSingleUse(shl);
                                 }
 
                                 return deactivateMono
                                         .then(accessLogService.logAccess(shl.getId(), AccessAction.DIRECT_ACCESS,
                                                 recipient, httpRequest, true, null))
-                                        .then(s3StorageService.downloadPayload(content.getS3Key()));
+                                        .then(contentPayloadService.stream(content));
                             });
                 });
+        return MetricsUtil.timed(payload, meterRegistry, "shl.manifest.direct-access");
     }
 
 }
@@ -0,0 +1,115 @@
+package com.chanakya.shl.service;
+
+import com.chanakya.shl.config.AppProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.DelegatingPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.crypto.password.Pbkdf2PasswordEncoder;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashes and verifies SHL passcodes off the Netty event loop.
+ * <p>
+ * Work runs on a dedicated, bounded thread pool: when its queue is full new requests are
+ * rejected with {@link RejectedExecutionException} (mapped to 503) rather than piling up.
+ * Hashes are stored in Spring Security's {@code {id}hash} format so the algorithm and cost
+ * can change over time; hashes created before that (bare bcrypt) still verify, and
+ * {@link #needsUpgrade(String)} reports hashes from another algorithm or a weaker bcrypt cost.
+ * The pbkdf2 format does not record its iteration count, so {@code pbkdf2-iterations} must not
+ * change once pbkdf2 hashes are stored.
+ */
+@Service
+@Slf4j
+public class PasscodeService {
+
+    private final PasswordEncoder encoder;
+    private final ThreadPoolExecutor executor;
+    private final Scheduler scheduler;
+    private final Timer hashTimer;
+    private final Timer verifyTimer;
+
+    public PasscodeService(AppProperties appProperties, MeterRegistry meterRegistry) {
+        AppProperties.PasscodeProperties props = appProperties.getPasscode();
+        this.encoder = buildEncoder(props);
+
+        Counter rejected = Counter.builder("shl.passcode.rejected")
+                .description("Passcode hash/verify tasks rejected because the queue was full")
+                .register(meterRegistry);
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(props.getExecutorThreads(), props.getExecutorThreads(),
+                0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(props.getQueueCapacity()),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "passcode-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (runnable, pool) -> {
+                    rejected.increment();
+                    throw new RejectedExecutionException("Passcode executor queue is full");
+                });
+        this.scheduler = Schedulers.fromExecutorService(executor, "passcode");
+
+        Gauge.builder("shl.passcode.queue.depth", executor, pool -> pool.getQueue().size())
+                .description("Passcode tasks waiting for a thread")
+                .register(meterRegistry);
+        this.hashTimer = Timer.builder("shl.passcode.hash").register(meterRegistry);
+        this.verifyTimer = Timer.builder("shl.passcode.verify").register(meterRegistry);
+    }
+
+    public Mono<String> hash(String passcode) {
+        return Mono.fromCallable(() -> hashTimer.recordCallable(() -> encoder.encode(passcode)))
+                .subscribeOn(scheduler);
+    }
+
+    public Mono<Boolean> matches(String passcode, String passcodeHash) {
+        return Mono.fromCallable(() -> verifyTimer.recordCallable(() -> encoder.matches(passcode, passcodeHash)))
+                .subscribeOn(scheduler);
+    }
+
+    /**
+     * Whether a stored hash should be re-hashed after the next successful verification: it was
+     * produced by an algorithm other than the configured one, or by bcrypt with a lower strength.
+     * A pbkdf2 hash never reports an upgrade, because its iteration count is not stored with it.
+     */
+    public boolean needsUpgrade(String passcodeHash) {
+        return encoder.upgradeEncoding(passcodeHash);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.dispose();
+    }
+
+    private static PasswordEncoder buildEncoder(AppProperties.PasscodeProperties props) {
+        BCryptPasswordEncoder bcrypt = new BCryptPasswordEncoder(props.getBcryptStrength());
+        Pbkdf2PasswordEncoder pbkdf2 = new Pbkdf2PasswordEncoder("", 16, props.getPbkdf2Iterations(),
+                Pbkdf2PasswordEncoder.SecretKeyFactoryAlgorithm.PBKDF2WithHmacSHA256);
+
+        String idForEncode = props.getAlgorithm().toLowerCase();
+        if (!idForEncode.equals("bcrypt") && !idForEncode.equals("pbkdf2")) {
+            throw new IllegalStateException("Unsupported passcode algorithm: " + props.getAlgorithm()
+                    + " (expected bcrypt or pbkdf2)");
+        }
+        DelegatingPasswordEncoder delegating = new DelegatingPasswordEncoder(idForEncode,
+                Map.of("bcrypt", bcrypt, "pbkdf2", pbkdf2));
+        // Hashes stored before algorithm prefixes were introduced are bare bcrypt
+        delegating.setDefaultPasswordEncoderForMatches(bcrypt);
+        return delegating;
+    }
+}
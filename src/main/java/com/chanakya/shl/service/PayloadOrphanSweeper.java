@@ -0,0 +1,115 @@
+package com.chanakya.shl.service;
+
+import com.chanakya.shl.config.AppProperties;
+import com.chanakya.shl.model.document.ShlContentDocument;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Deletes payload objects that no {@code shl_contents} document refers to.
+ * <p>
+ * Creation uploads payloads first and inserts their content documents last, so a crash or a
+ * failed rollback between the two leaves objects without metadata. Those are invisible to
+ * readers, and this job reclaims them. Keys are {@code {prefix}{shlId}/{contentId}.jwe}, and a
+ * content document's id is its key's {@code contentId}, so each listing page is checked with one
+ * {@code _id $in} query. An object counts as referenced only while its document still points
+ * at it, so objects left behind by {@link InlinePayloadMigration} are reclaimed too. Objects
+ * younger than {@code app.payload-sweep.grace-period} are skipped, and keys in any other layout
+ * are never deleted.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class PayloadOrphanSweeper {
+
+    /** Keys per existence query and per DeleteObjects request (the S3 maximum). */
+    private static final int BATCH_SIZE = 1000;
+    private static final String PAYLOAD_SUFFIX = ".jwe";
+
+    private final S3StorageService s3StorageService;
+    private final ReactiveMongoTemplate mongoTemplate;
+    private final AppProperties appProperties;
+
+    @Scheduled(cron = "${app.payload-sweep.cron:0 0 4 * * *}")
+    public void scheduledSweep() {
+        sweep().subscribe(
+                deleted -> log.info("Payload sweep deleted {} orphaned objects", deleted),
+                err -> log.warn("Payload sweep failed: {}", err.getMessage()));
+    }
+
+    /**
+     * Emits the number of objects deleted.
+     */
+    public Mono<Long> sweep() {
+        Instant cutoff = Instant.now().minus(appProperties.getPayloadSweep().getGracePeriod());
+        return s3StorageService.listPayloads()
+                .filter(object -> object.lastModified().isBefore(cutoff))
+                .map(S3Object::key)
+                .buffer(BATCH_SIZE)
+                .concatMap(this::deleteOrphans)
+                .reduce(0L, Long::sum);
+    }
+
+    private Mono<Long> deleteOrphans(List<String> keys) {
+        Map<String, String> keysByContentId = keys.stream()
+                .filter(key -> contentIdOf(key) != null)
+                .collect(Collectors.toMap(this::contentIdOf, Function.identity()));
+        if (keysByContentId.isEmpty()) {
+            return Mono.just(0L);
+        }
+
+        Query known = Query.query(Criteria.where("id").in(keysByContentId.keySet()));
+        known.fields().include("id", "s3Key");
+        return mongoTemplate.find(known, ShlContentDocument.class)
+                .filter(content -> keysByContentId.get(content.getId()).equals(content.getS3Key()))
+                .map(ShlContentDocument::getId)
+                .collect(Collectors.toSet())
+                .flatMap(referenced -> {
+                    List<String> orphans = orphanKeys(keysByContentId, referenced);
+                    if (orphans.isEmpty()) {
+                        return Mono.just(0L);
+                    }
+                    log.debug("Deleting {} orphaned payload objects", orphans.size());
+                    return s3StorageService.deleteObjects(orphans).thenReturn((long) orphans.size());
+                });
+    }
+
+    private static List<String> orphanKeys(Map<String, String> keysByContentId, Set<String> referenced) {
+        return keysByContentId.entrySet().stream()
+                .filter(entry -> !referenced.contains(entry.getKey()))
+                .map(Map.Entry::getValue)
+                .toList();
+    }
+
+    /**
+     * The content id in a {@code {prefix}{shlId}/{contentId}.jwe} key, or null for any other key.
+     */
+    private String contentIdOf(String key) {
+        String prefix = appProperties.getS3().getPayloadPrefix();
+        if (!key.startsWith(prefix) || !key.endsWith(PAYLOAD_SUFFIX)) {
+            return null;
+        }
+        String path = key.substring(prefix.length(), key.length() - PAYLOAD_SUFFIX.length());
+        int slash = path.indexOf('/');
+        if (slash <= 0 || slash != path.lastIndexOf('/')) {
+            return null;
+        }
+        String contentId = path.substring(slash + 1);
+        return ObjectId.isValid(contentId) ? contentId : null;
+    }
+}
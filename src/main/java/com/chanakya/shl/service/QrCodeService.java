@@ -1,37 +1,65 @@
 package com.chanakya.shl.service;
 
+import com.chanakya.shl.cache.QrCodeCache;
+import com.chanakya.shl.model.QrImage;
+import com.chanakya.shl.model.enums.QrFormat;
+import com.chanakya.shl.util.MetricsUtil;
+import com.chanakya.shl.util.QrImageEncoder;
 import com.google.zxing.BarcodeFormat;
 import com.google.zxing.EncodeHintType;
-import com.google.zxing.client.j2se.MatrixToImageWriter;
+import com.google.zxing.WriterException;
 import com.google.zxing.common.BitMatrix;
 import com.google.zxing.qrcode.QRCodeWriter;
 import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Schedulers;
 
-import java.io.ByteArrayOutputStream;
 import java.util.Base64;
+import java.util.Locale;
 import java.util.Map;
 
 @Service
+@RequiredArgsConstructor
 @Slf4j
 public class QrCodeService {
 
+    private static final Map<EncodeHintType, Object> HINTS = Map.of(
+            EncodeHintType.ERROR_CORRECTION, ErrorCorrectionLevel.M,
+            EncodeHintType.MARGIN, 2
+    );
+
+    private final QrCodeCache qrCodeCache;
+    private final MeterRegistry meterRegistry;
+
     public Mono<String> generateBase64DataUri(String content, int size) {
-        return Mono.fromCallable(() -> {
-            QRCodeWriter writer = new QRCodeWriter();
-            Map<EncodeHintType, Object> hints = Map.of(
-                    EncodeHintType.ERROR_CORRECTION, ErrorCorrectionLevel.M,
-                    EncodeHintType.MARGIN, 2
-            );
-            BitMatrix bitMatrix = writer.encode(content, BarcodeFormat.QR_CODE, size, size, hints);
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            MatrixToImageWriter.writeToStream(bitMatrix, "PNG", outputStream);
-            byte[] pngBytes = outputStream.toByteArray();
-            String base64 = Base64.getEncoder().encodeToString(pngBytes);
-            return "data:image/png;base64," + base64;
-        }).subscribeOn(Schedulers.boundedElastic());
+        return render(content, size, QrFormat.PNG)
+                .map(image -> "data:" + image.format().getMediaType() + ";base64,"
+                        + Base64.getEncoder().encodeToString(image.bytes()));
+    }
+
+    /**
+     * Returns the QR image for {@code content}, rendering it only on a cache miss. Renders are
+     * timed as {@code shl.qr.render} by format.
+     */
+    public Mono<QrImage> render(String content, int size, QrFormat format) {
+        return qrCodeCache.get(content, size, format, () -> MetricsUtil.timed(Mono.fromCallable(() -> {
+            BitMatrix modules = encodeModules(content);
+            return switch (format) {
+                case PNG -> QrImageEncoder.toPng(modules, size);
+                case SVG -> QrImageEncoder.toSvg(modules, size);
+            };
+        }).subscribeOn(Schedulers.parallel()), meterRegistry, "shl.qr.render",
+                "format", format.name().toLowerCase(Locale.ROOT)));
+    }
+
+    /**
+     * Encodes at one pixel per module; {@link QrImageEncoder} does the scaling.
+     */
+    private static BitMatrix encodeModules(String content) throws WriterException {
+        return new QRCodeWriter().encode(content, BarcodeFormat.QR_CODE, 0, 0, HINTS);
     }
 }
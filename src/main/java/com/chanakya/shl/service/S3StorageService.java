@@ -1,17 +1,38 @@
 package com.chanakya.shl.service;
 
+import com.chanakya.shl.cache.PayloadCache;
 import com.chanakya.shl.config.AppProperties;
+import com.chanakya.shl.model.PayloadStream;
+import com.chanakya.shl.util.MetricsUtil;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
 import software.amazon.awssdk.core.async.AsyncRequestBody;
 import software.amazon.awssdk.core.async.AsyncResponseTransformer;
 import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.model.*;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * S3 access for payloads and auxiliary objects. Each request is timed as {@code shl.s3.request},
+ * tagged with its {@code operation} ({@code get}, {@code stream}, {@code put}, {@code list} or
+ * {@code delete}); cache hits are not S3 requests and are not timed. Object sizes moved by
+ * gets and puts are recorded in {@code shl.s3.object.size}.
+ */
 @Service
 @RequiredArgsConstructor
 @Slf4j
@@ -19,55 +40,222 @@ public class S3StorageService {
 
     private final S3AsyncClient s3AsyncClient;
     private final AppProperties appProperties;
+    private final PayloadCache payloadCache;
+    private final MeterRegistry meterRegistry;
+
+    private final DataBufferFactory bufferFactory = DefaultDataBufferFactory.sharedInstance;
 
     public String buildPayloadKey(String shlId, String contentId) {
         return appProperties.getS3().getPayloadPrefix() + shlId + "/" + contentId + ".jwe";
     }
 
     public Mono<Void> uploadPayload(String s3Key, String jweString) {
-        return Mono.fromFuture(() -> s3AsyncClient.putObject(
+        byte[] bytes = jweString.getBytes(StandardCharsets.UTF_8);
+        return timed(Mono.fromFuture(() -> s3AsyncClient.putObject(
                 PutObjectRequest.builder()
                         .bucket(appProperties.getS3().getBucket())
                         .key(s3Key)
                         .contentType("application/jose")
                         .build(),
-                AsyncRequestBody.fromBytes(jweString.getBytes(StandardCharsets.UTF_8))
-        )).doOnSuccess(r -> log.debug("Uploaded payload to S3: {}", s3Key))
+                AsyncRequestBody.fromBytes(bytes)
+        )), "put").doOnSuccess(r -> {
+                    recordSize("put", bytes.length);
+                    log.debug("Uploaded payload to S3: {}", s3Key);
+                })
                 .then();
     }
 
+    /**
+     * Reads a small object fully into memory, bypassing the payload cache; empty if it does not exist.
+     */
+    public Mono<byte[]> getObjectBytes(String s3Key) {
+        return timed(Mono.fromFuture(() -> s3AsyncClient.getObject(
+                        GetObjectRequest.builder()
+                                .bucket(appProperties.getS3().getBucket())
+                                .key(s3Key)
+                                .build(),
+                        AsyncResponseTransformer.toBytes())), "get")
+                .map(response -> response.asByteArrayUnsafe())
+                .doOnNext(bytes -> recordSize("get", bytes.length))
+                .onErrorResume(NoSuchKeyException.class, e -> Mono.empty());
+    }
+
+    /**
+     * Opens a bounded-memory upload stream for a payload. The caller must close it to
+     * commit the object or abort it on failure, from a thread that may block.
+     */
+    public S3UploadStream openUploadStream(String s3Key) {
+        return new S3UploadStream(s3AsyncClient, appProperties.getS3().getBucket(), s3Key,
+                "application/jose", (int) appProperties.getS3().getMultipartPartSize().toBytes());
+    }
+
     public Mono<String> downloadPayload(String s3Key) {
-        return Mono.fromFuture(() -> s3AsyncClient.getObject(
-                GetObjectRequest.builder()
+        return Mono.defer(() -> {
+            ByteBuffer cached = payloadCache.get(s3Key);
+            if (cached != null) {
+                log.debug("Payload cache hit: {}", s3Key);
+                return Mono.just(StandardCharsets.UTF_8.decode(cached).toString());
+            }
+            return timed(Mono.fromFuture(() -> s3AsyncClient.getObject(
+                    GetObjectRequest.builder()
+                            .bucket(appProperties.getS3().getBucket())
+                            .key(s3Key)
+                            .build(),
+                    AsyncResponseTransformer.toBytes()
+            )), "get").map(response -> {
+                byte[] bytes = response.asByteArrayUnsafe();
+                recordSize("get", bytes.length);
+                payloadCache.put(s3Key, bytes);
+                return new String(bytes, StandardCharsets.UTF_8);
+            }).doOnSuccess(r -> log.debug("Downloaded payload from S3: {}", s3Key));
+        });
+    }
+
+    /**
+     * Streams a stored payload without materializing it. Cache hits are served from the
+     * cached buffer; misses stream the S3 object body chunk by chunk, and small objects are
+     * copied into the payload cache as they pass through.
+     * <p>
+     * The {@code stream} timer runs until the body completes, fails or is cancelled, so it
+     * covers the whole transfer rather than just the time to the response headers. A failed or
+     * cancelled request that never reaches its body is recorded when it ends.
+     */
+    public Mono<PayloadStream> streamPayload(String s3Key) {
+        return Mono.defer(() -> {
+            ByteBuffer cached = payloadCache.get(s3Key);
+            if (cached != null) {
+                log.debug("Payload cache hit: {}", s3Key);
+                return Mono.just(new PayloadStream(cached.remaining(),
+                        Flux.just(bufferFactory.wrap(cached))));
+            }
+            StreamTimer timer = new StreamTimer(Timer.start(meterRegistry));
+            return Mono.fromFuture(() -> s3AsyncClient.getObject(
+                    GetObjectRequest.builder()
+                            .bucket(appProperties.getS3().getBucket())
+                            .key(s3Key)
+                            .build(),
+                    AsyncResponseTransformer.toPublisher()
+            )).doOnError(e -> timer.stop(MetricsUtil.outcome(e)))
+                    .doFinally(signal -> {
+                        if (signal == SignalType.CANCEL) {
+                            timer.stop("cancelled");
+                        }
+                    }).map(publisher -> {
+                long contentLength = publisher.response().contentLength();
+                recordSize("get", contentLength);
+                Flux<ByteBuffer> chunks = Flux.from(publisher);
+                if (payloadCache.accepts(contentLength)) {
+                    ByteArrayOutputStream copy = new ByteArrayOutputStream((int) contentLength);
+                    chunks = chunks
+                            .doOnNext(chunk -> {
+                                byte[] bytes = new byte[chunk.remaining()];
+                                chunk.duplicate().get(bytes);
+                                copy.writeBytes(bytes);
+                            })
+                            .doOnComplete(() -> payloadCache.put(s3Key, copy.toByteArray()));
+                }
+                Flux<DataBuffer> body = chunks.map(bufferFactory::wrap)
+                        .doOnError(e -> timer.stop(MetricsUtil.outcome(e)))
+                        .doFinally(signal -> {
+                            if (signal == SignalType.ON_COMPLETE) {
+                                timer.stop("success");
+                            } else if (signal == SignalType.CANCEL) {
+                                timer.stop("cancelled");
+                            }
+                        });
+                log.debug("Streaming payload from S3: {} ({} bytes)", s3Key, contentLength);
+                return new PayloadStream(contentLength, body);
+            });
+        });
+    }
+
+    /**
+     * Lists every object under the payload prefix, one listing page at a time as it is consumed.
+     */
+    public Flux<S3Object> listPayloads() {
+        return Flux.from(s3AsyncClient.listObjectsV2Paginator(
+                ListObjectsV2Request.builder()
                         .bucket(appProperties.getS3().getBucket())
-                        .key(s3Key)
-                        .build(),
-                AsyncResponseTransformer.toBytes()
-        )).map(response -> response.asString(StandardCharsets.UTF_8))
-                .doOnSuccess(r -> log.debug("Downloaded payload from S3: {}", s3Key));
+                        .prefix(appProperties.getS3().getPayloadPrefix())
+                        .build()
+        ).contents());
+    }
+
+    /**
+     * Deletes the given objects in one request (at most 1000 keys).
+     */
+    public Mono<Void> deleteObjects(List<String> s3Keys) {
+        if (s3Keys.isEmpty()) {
+            return Mono.empty();
+        }
+        var objectIds = s3Keys.stream()
+                .map(key -> ObjectIdentifier.builder().key(key).build())
+                .toList();
+        return timed(Mono.fromFuture(() -> s3AsyncClient.deleteObjects(
+                DeleteObjectsRequest.builder()
+                        .bucket(appProperties.getS3().getBucket())
+                        .delete(Delete.builder().objects(objectIds).build())
+                        .build()
+        )), "delete").then();
     }
 
     public Mono<Void> deletePayloads(String shlId) {
         String prefix = appProperties.getS3().getPayloadPrefix() + shlId + "/";
-        return Mono.fromFuture(() -> s3AsyncClient.listObjectsV2(
+        return timed(Mono.fromFuture(() -> s3AsyncClient.listObjectsV2(
                 ListObjectsV2Request.builder()
                         .bucket(appProperties.getS3().getBucket())
                         .prefix(prefix)
                         .build()
-        )).flatMap(listResponse -> {
+        )), "list").flatMap(listResponse -> {
             if (listResponse.contents().isEmpty()) {
                 return Mono.empty();
             }
             var objectIds = listResponse.contents().stream()
                     .map(s3Object -> ObjectIdentifier.builder().key(s3Object.key()).build())
                     .toList();
-            return Mono.fromFuture(() -> s3AsyncClient.deleteObjects(
+            return timed(Mono.fromFuture(() -> s3AsyncClient.deleteObjects(
                     DeleteObjectsRequest.builder()
                             .bucket(appProperties.getS3().getBucket())
                             .delete(Delete.builder().objects(objectIds).build())
                             .build()
-            ));
+            )), "delete");
         }).doOnSuccess(r -> log.debug("Deleted payloads from S3 for SHL: {}", shlId))
+                .doFinally(signal -> payloadCache.invalidatePrefix(prefix))
                 .then();
     }
+
+    private <T> Mono<T> timed(Mono<T> request, String operation) {
+        return MetricsUtil.timed(request, meterRegistry, "shl.s3.request", "operation", operation);
+    }
+
+    private void recordSize(String operation, long bytes) {
+        DistributionSummary.builder("shl.s3.object.size")
+                .baseUnit("bytes")
+                .tag("operation", operation)
+                .register(meterRegistry)
+                .record(bytes);
+    }
+
+    /**
+     * The {@code stream} request timer, stopped by whichever of the response or its body ends
+     * first; later signals are ignored.
+     */
+    private final class StreamTimer {
+
+        private final Timer.Sample sample;
+        private final AtomicBoolean stopped = new AtomicBoolean();
+
+        private StreamTimer(Timer.Sample sample) {
+            this.sample = sample;
+        }
+
+        void stop(String outcome) {
+            if (stopped.compareAndSet(false, true)) {
+                sample.stop(Timer.builder("shl.s3.request")
+                        .tag("operation", "stream")
+                        .tag("outcome", outcome)
+                        .register(meterRegistry));
+            }
+        }
+    }
 }
@@ -0,0 +1,158 @@
+package com.chanakya.shl.service;
+
+import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Blocking {@link OutputStream} that uploads to S3 with bounded memory: bytes are gathered
+ * into a single part-sized buffer and shipped as multipart upload parts. Objects that never
+ * fill the first part are sent with a plain PutObject instead.
+ * <p>
+ * Must only be used from threads that are allowed to block (e.g. {@code boundedElastic}).
+ * {@link #close()} commits the object; {@link #abort()} discards any uploaded parts.
+ */
+@Slf4j
+public class S3UploadStream extends OutputStream {
+
+    private final S3AsyncClient s3AsyncClient;
+    private final String bucket;
+    private final String key;
+    private final String contentType;
+    private final byte[] buffer;
+    private final List<CompletedPart> completedParts = new ArrayList<>();
+
+    private int position;
+    private String uploadId;
+    private long bytesWritten;
+    private boolean closed;
+
+    S3UploadStream(S3AsyncClient s3AsyncClient, String bucket, String key, String contentType, int partSize) {
+        this.s3AsyncClient = s3AsyncClient;
+        this.bucket = bucket;
+        this.key = key;
+        this.contentType = contentType;
+        this.buffer = new byte[partSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (position == buffer.length) {
+            uploadPart();
+        }
+        buffer[position++] = (byte) b;
+        bytesWritten++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (position == buffer.length) {
+                uploadPart();
+            }
+            int chunk = Math.min(len, buffer.length - position);
+            System.arraycopy(b, off, buffer, position, chunk);
+            position += chunk;
+            off += chunk;
+            len -= chunk;
+            bytesWritten += chunk;
+        }
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (uploadId == null) {
+            await(s3AsyncClient.putObject(
+                    PutObjectRequest.builder()
+                            .bucket(bucket)
+                            .key(key)
+                            .contentType(contentType)
+                            .build(),
+                    AsyncRequestBody.fromByteBufferUnsafe(ByteBuffer.wrap(buffer, 0, position))));
+            log.debug("Uploaded payload to S3: {} ({} bytes)", key, bytesWritten);
+            return;
+        }
+        if (position > 0) {
+            uploadPart();
+        }
+        await(s3AsyncClient.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .uploadId(uploadId)
+                .multipartUpload(CompletedMultipartUpload.builder().parts(completedParts).build())
+                .build()));
+        log.debug("Completed multipart upload to S3: {} ({} parts, {} bytes)",
+                key, completedParts.size(), bytesWritten);
+    }
+
+    /**
+     * Abandons the upload. Safe to call at any point, including after a failed write.
+     */
+    public void abort() {
+        closed = true;
+        if (uploadId == null) {
+            return;
+        }
+        try {
+            await(s3AsyncClient.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .build()));
+            log.debug("Aborted multipart upload to S3: {}", key);
+        } catch (IOException e) {
+            log.warn("Failed to abort multipart upload {} for {}: {}", uploadId, key, e.getMessage());
+        }
+    }
+
+    private void uploadPart() throws IOException {
+        if (uploadId == null) {
+            uploadId = await(s3AsyncClient.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .contentType(contentType)
+                    .build())).uploadId();
+        }
+        int partNumber = completedParts.size() + 1;
+        UploadPartResponse response = await(s3AsyncClient.uploadPart(
+                UploadPartRequest.builder()
+                        .bucket(bucket)
+                        .key(key)
+                        .uploadId(uploadId)
+                        .partNumber(partNumber)
+                        .contentLength((long) position)
+                        .build(),
+                AsyncRequestBody.fromByteBufferUnsafe(ByteBuffer.wrap(buffer, 0, position))));
+        completedParts.add(CompletedPart.builder().partNumber(partNumber).eTag(response.eTag()).build());
+        position = 0;
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw new IOException("S3 request failed", e.getCause());
+        }
+    }
+}
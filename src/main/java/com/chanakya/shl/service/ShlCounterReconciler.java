@@ -0,0 +1,113 @@
+package com.chanakya.shl.service;
+
+import com.chanakya.shl.model.document.AccessLogDocument;
+import com.chanakya.shl.model.document.ShlContentDocument;
+import com.chanakya.shl.model.document.ShlDocument;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.result.UpdateResult;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.ReactiveBulkOperations;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Recomputes the denormalized {@code contentCount} and {@code successfulAccessCount} counters on
+ * {@link ShlDocument} from {@code shl_contents} and {@code access_logs}, repairing any drift left
+ * by failed increments or dropped events.
+ * <p>
+ * Each source collection is grouped by {@code shlId} in one aggregation, and only SHLs whose
+ * stored counter differs are updated. SHLs with no source rows never appear in that output, so
+ * a second pass walks the SHLs whose counter is above zero, in chunks, and resets those with no
+ * matching source rows to zero. Events still buffered by {@link AccessLogWriter} while the
+ * job runs can make a counter briefly off by the size of one flush; the next run corrects it.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ShlCounterReconciler {
+
+    private static final int BULK_SIZE = 500;
+
+    private final ReactiveMongoTemplate mongoTemplate;
+
+    @Scheduled(cron = "${app.counters.reconcile-cron:0 30 3 * * *}")
+    public void scheduledReconcile() {
+        reconcile().subscribe(
+                corrected -> log.info("Counter reconciliation corrected {} SHLs", corrected),
+                err -> log.warn("Counter reconciliation failed: {}", err.getMessage()));
+    }
+
+    /**
+     * Emits the number of counter fields that were corrected.
+     */
+    public Mono<Long> reconcile() {
+        return reconcileCounter(ShlContentDocument.class, new Criteria(), "contentCount")
+                .zipWith(reconcileCounter(AccessLogDocument.class, Criteria.where("success").is(true),
+                        "successfulAccessCount"), Long::sum);
+    }
+
+    private Mono<Long> reconcileCounter(Class<?> source, Criteria filter, String counterField) {
+        return correctCounts(source, filter, counterField)
+                .zipWith(resetCountsWithoutSources(source, filter, counterField), Long::sum);
+    }
+
+    private Mono<Long> correctCounts(Class<?> source, Criteria filter, String counterField) {
+        Aggregation aggregation = Aggregation.newAggregation(
+                        Aggregation.match(filter),
+                        Aggregation.group("shlId").count().as("count"))
+                .withOptions(AggregationOptions.builder().allowDiskUse(true).build());
+
+        return mongoTemplate.aggregate(aggregation, source, Document.class)
+                .buffer(BULK_SIZE)
+                .concatMap(rows -> {
+                    ReactiveBulkOperations bulk = mongoTemplate.bulkOps(
+                            BulkOperations.BulkMode.UNORDERED, ShlDocument.class);
+                    rows.forEach(row -> {
+                        Number count = row.get("count", Number.class);
+                        bulk.updateOne(
+                                Query.query(Criteria.where("id").is(row.getString("_id"))
+                                        .and(counterField).ne(count)),
+                                new Update().set(counterField, count));
+                    });
+                    return bulk.execute().map(BulkWriteResult::getModifiedCount);
+                })
+                .reduce(0L, (total, modified) -> total + modified);
+    }
+
+    private Mono<Long> resetCountsWithoutSources(Class<?> source, Criteria filter, String counterField) {
+        Query counted = Query.query(Criteria.where(counterField).gt(0));
+        counted.fields().include("id");
+
+        return mongoTemplate.find(counted, ShlDocument.class)
+                .map(ShlDocument::getId)
+                .buffer(BULK_SIZE)
+                .concatMap(ids -> mongoTemplate.findDistinct(
+                                Query.query(new Criteria().andOperator(Criteria.where("shlId").in(ids), filter)),
+                                "shlId", source, String.class)
+                        .collect(Collectors.toSet())
+                        .flatMap(withSources -> {
+                            List<String> missing = ids.stream().filter(id -> !withSources.contains(id)).toList();
+                            if (missing.isEmpty()) {
+                                return Mono.just(0L);
+                            }
+                            return mongoTemplate.updateMulti(
+                                            Query.query(Criteria.where("id").in(missing).and(counterField).gt(0)),
+                                            new Update().set(counterField, 0), ShlDocument.class)
+                                    .map(UpdateResult::getModifiedCount);
+                        }))
+                .reduce(0L, Long::sum);
+    }
+}
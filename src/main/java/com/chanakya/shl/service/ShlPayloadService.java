@@ -49,6 +49,10 @@ public class ShlPayloadService {
         return appProperties.getBaseUrl() + "/api/shl/" + shlId;
     }
 
+    public String buildQrCodeUrl(String shlId) {
+        return buildManagementUrl(shlId) + "/qr";
+    }
+
     public String buildFileDownloadUrl(String tokenId) {
         return appProperties.getBaseUrl() + "/api/shl/file/" + tokenId;
     }
@@ -1,30 +1,52 @@
 package com.chanakya.shl.service;
 
+import com.chanakya.shl.cache.ShlLookupCache;
 import com.chanakya.shl.config.AppProperties;
 import com.chanakya.shl.exception.ShlNotFoundException;
+import com.chanakya.shl.model.CursorPage;
+import com.chanakya.shl.model.PageCursor;
+import com.chanakya.shl.model.QrImage;
+import com.chanakya.shl.model.ShlListFilter;
 import com.chanakya.shl.model.document.ShlContentDocument;
 import com.chanakya.shl.model.document.ShlDocument;
 import com.chanakya.shl.model.dto.request.CreateShlRequest;
+import com.chanakya.shl.model.dto.response.BatchCreateResult;
 import com.chanakya.shl.model.dto.response.CreateShlResponse;
 import com.chanakya.shl.model.dto.response.ShlDetailResponse;
 import com.chanakya.shl.model.dto.response.ShlSummaryResponse;
 import com.chanakya.shl.model.enums.FhirCategory;
+import com.chanakya.shl.model.enums.PayloadStorage;
+import com.chanakya.shl.model.enums.QrFormat;
 import com.chanakya.shl.model.enums.ShlFlag;
 import com.chanakya.shl.repository.ShlContentRepository;
 import com.chanakya.shl.repository.ShlRepository;
+import com.chanakya.shl.util.DigestUtil;
 import com.chanakya.shl.util.FhirDocumentReferenceUtil;
+import com.chanakya.shl.util.MetricsUtil;
 import com.chanakya.shl.util.SecureRandomUtil;
 import tools.jackson.databind.ObjectMapper;
+import jakarta.validation.Validator;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.bson.types.ObjectId;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.data.domain.Pageable;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 @Service
 @RequiredArgsConstructor
@@ -32,80 +54,288 @@ import java.util.List;
 public class ShlService {
 
     private final ShlRepository shlRepository;
+    private final ShlLookupCache shlLookupCache;
     private final ShlContentRepository shlContentRepository;
     private final EncryptionService encryptionService;
     private final S3StorageService s3StorageService;
     private final ShlPayloadService shlPayloadService;
     private final QrCodeService qrCodeService;
-    private final AccessLogService accessLogService;
     private final HealthLakeService healthLakeService;
     private final AppProperties appProperties;
     private final ObjectMapper objectMapper;
-
-    private final BCryptPasswordEncoder passwordEncoder = new BCryptPasswordEncoder();
+    private final PasscodeService passcodeService;
+    private final Validator validator;
+    private final MeterRegistry meterRegistry;
 
     public Mono<CreateShlResponse> createFromJson(CreateShlRequest request) {
-        return Mono.defer(() -> {
+        return MetricsUtil.timed(Mono.defer(() -> {
             validateFlags(request);
             validateDataSource(request);
 
-            String encryptionKey = SecureRandomUtil.generateBase64UrlRandom(32);
-            String manifestId = SecureRandomUtil.generateBase64UrlRandom(32);
-            String flags = ShlFlag.toFlagString(request.isLongTerm(),
-                    request.getPasscode() != null, request.isDirectAccess());
+            return hashPasscode(newShl(request).build(), request.getPasscode())
+                    .flatMap(shl -> encryptAndUploadAll(shl, contentSources(request))
+                            .collectList()
+                            .flatMap(contents -> insertShl(shl, contents))
+                            .onErrorResume(e -> rollbackCreate(shl).then(Mono.error(e))))
+                    .flatMap(savedShl -> toCreateResponse(savedShl, request.isIncludeQrCode()));
+        }), meterRegistry, "shl.create", "source", "json");
+    }
 
-            ShlDocument shl = ShlDocument.builder()
-                    .manifestId(manifestId)
-                    .encryptionKey(encryptionKey)
-                    .label(request.getLabel())
-                    .flags(flags)
-                    .passcodeHash(request.getPasscode() != null ?
-                            passwordEncoder.encode(request.getPasscode()) : null)
-                    .passcodeFailuresRemaining(request.getPasscode() != null ?
-                            appProperties.getDefaultPasscodeAttempts() : null)
-                    .expiresAt(request.getExpirationInSeconds() != null ?
-                            Instant.now().plusSeconds(request.getExpirationInSeconds()) : null)
-                    .active(true)
-                    .singleUse(request.isSingleUse())
-                    .build();
+    /**
+     * Creates one SHL per request and emits a result per request, in completion order, as soon
+     * as its insert chunk is written. Items are prepared (passcode hash, HealthLake fetch,
+     * encryption, S3 upload) with bounded parallelism and then written with one insertMany per
+     * collection per chunk, so memory is bounded by {@code app.batch} rather than the batch size.
+     * <p>
+     * Payloads are uploaded before documents are inserted, so an SHL is never visible without
+     * its content. A failed item is reported with its error and its uploaded payloads removed;
+     * it does not affect the other items. If the request stream itself breaks (e.g. a malformed
+     * line), items already read are finished and a final line with index -1 reports the error.
+     * Each result is counted in {@code shl.batch.items} by outcome.
+     */
+    public Flux<BatchCreateResult> createBatch(Flux<CreateShlRequest> requests) {
+        AppProperties.BatchProperties props = appProperties.getBatch();
+        AtomicReference<Throwable> streamError = new AtomicReference<>();
+
+        return requests.index()
+                .onErrorResume(e -> {
+                    streamError.set(e);
+                    return Flux.empty();
+                })
+                .flatMap(indexed -> prepareBatchItem(indexed.getT1(), indexed.getT2()), props.getConcurrency())
+                .bufferTimeout(props.getInsertBatchSize(), props.getInsertFlushInterval(), true)
+                .concatMap(this::persistBatch)
+                .doOnNext(result -> meterRegistry.counter("shl.batch.items",
+                        "outcome", result.getError() == null ? "success" : "error").increment())
+                .concatWith(Mono.defer(() -> {
+                    Throwable error = streamError.get();
+                    return error == null ? Mono.empty() : Mono.just(BatchCreateResult.builder()
+                            .index(-1)
+                            .error("Could not read request stream: " + error.getMessage())
+                            .build());
+                }));
+    }
 
-            return shlRepository.save(shl)
-                    .flatMap(savedShl -> storeAllContent(savedShl, request))
-                    .flatMap(this::toCreateResponse);
-        });
+    private Mono<BatchItem> prepareBatchItem(long index, CreateShlRequest request) {
+        return Mono.defer(() -> {
+                    validateBatchItem(request);
+                    validateFlags(request);
+                    validateDataSource(request);
+
+                    ShlDocument shl = newShl(request).build();
+
+                    return hashPasscode(shl, request.getPasscode())
+                            .flatMap(hashed -> encryptAndUploadAll(hashed, contentSources(request))
+                                    .collectList()
+                                    .onErrorResume(e -> discardPayloads(List.of(hashed.getId())).then(Mono.error(e))))
+                            .map(contents -> {
+                                shl.setContentCount(contents.size());
+                                return new BatchItem(index, request, shl, contents, null);
+                            });
+                })
+                .onErrorResume(e -> Mono.just(new BatchItem(index, request, null, List.of(), describeBatchError(index, e))));
+    }
+
+    /**
+     * The request's payloads in manifest order: HealthLake bundles in category order, then the
+     * inline content.
+     */
+    private Flux<String> contentSources(CreateShlRequest request) {
+        Flux<String> sources = Flux.empty();
+        if (request.getCategories() != null && !request.getCategories().isEmpty()) {
+            sources = healthLakeService.fetchBundles(request.getPatientId(), request.getCategories());
+        }
+        if (request.getContent() != null) {
+            sources = sources.concatWith(Mono.fromCallable(() -> objectMapper.writeValueAsString(request.getContent())));
+        }
+        return sources;
+    }
+
+    /**
+     * Encrypts and uploads the payloads, up to {@code app.s3.upload-concurrency} at a time, and
+     * emits their (not yet saved) content documents in source order, numbered from
+     * {@code firstSequence} so the manifest lists them in that order whatever order the
+     * uploads finish in. Payloads within {@code app.inline-payloads.max-size} are not uploaded
+     * but carried on their document.
+     */
+    private Flux<ShlContentDocument> encryptAndUploadAll(ShlDocument shl, Flux<String> sources, int firstSequence) {
+        String contentType = "application/fhir+json;fhirVersion=4.0.1";
+        long inlineMaxSize = appProperties.getInlinePayloads().getMaxSize().toBytes();
+        return sources.index()
+                .flatMapSequential(indexed -> {
+                    String json = indexed.getT2();
+                    return encryptionService.encrypt(json, shl.getEncryptionKey(), contentType)
+                            .flatMap(jweString -> {
+                                String contentId = new ObjectId().toHexString();
+                                ShlContentDocument.ShlContentDocumentBuilder contentDoc = ShlContentDocument.builder()
+                                        .id(contentId)
+                                        .shlId(shl.getId())
+                                        .contentType(contentType)
+                                        .contentLength(json.getBytes(java.nio.charset.StandardCharsets.UTF_8).length)
+                                        .jweLength((long) jweString.length())
+                                        .contentHash(DigestUtil.sha256Hex(jweString))
+                                        .sequence(firstSequence + indexed.getT1().intValue())
+                                        .createdAt(shl.getCreatedAt());
+                                if (jweString.length() <= inlineMaxSize) {
+                                    return Mono.just(contentDoc
+                                            .storage(PayloadStorage.INLINE)
+                                            .inlinePayload(jweString)
+                                            .build());
+                                }
+                                String s3Key = s3StorageService.buildPayloadKey(shl.getId(), contentId);
+                                return s3StorageService.uploadPayload(s3Key, jweString)
+                                        .thenReturn(contentDoc.storage(PayloadStorage.S3).s3Key(s3Key).build());
+                            });
+                }, appProperties.getS3().getUploadConcurrency());
     }
 
-    private Mono<ShlDocument> storeAllContent(ShlDocument shl, CreateShlRequest request) {
-        Mono<ShlDocument> healthLakeMono = Mono.just(shl);
+    private Flux<ShlContentDocument> encryptAndUploadAll(ShlDocument shl, Flux<String> sources) {
+        return encryptAndUploadAll(shl, sources, 0);
+    }
+
+    /**
+     * Saves an SHL whose payloads are all uploaded: its content documents with one insertMany,
+     * then the SHL itself, so an SHL is never visible without its content.
+     */
+    private Mono<ShlDocument> insertShl(ShlDocument shl, List<ShlContentDocument> contents) {
+        shl.setContentCount(contents.size());
+        Mono<Void> insertContents = contents.isEmpty() ? Mono.empty() : shlContentRepository.insert(contents).then();
+        return insertContents.then(shlRepository.insert(shl));
+    }
 
-        List<FhirCategory> categories = request.getCategories();
-        if (categories != null && !categories.isEmpty()) {
-            healthLakeMono = healthLakeService.fetchBundles(request.getPatientId(), categories)
-                    .concatMap(bundleJson -> encryptAndStore(shl, bundleJson,
-                            "application/fhir+json;fhirVersion=4.0.1", null, null, 0))
-                    .then(Mono.just(shl));
+    /**
+     * Undoes a failed single create: whatever content documents were saved, the SHL if it got
+     * that far, and every uploaded payload. Cleanup failures are logged, so the caller still
+     * sees the original error. Payloads whose upload outlives this are left to
+     * {@link PayloadOrphanSweeper}.
+     */
+    private Mono<Void> rollbackCreate(ShlDocument shl) {
+        List<String> shlIds = List.of(shl.getId());
+        return shlContentRepository.deleteByShlIdIn(shlIds)
+                .then(shlRepository.deleteById(shl.getId()))
+                .then(discardPayloads(shlIds))
+                .onErrorResume(e -> {
+                    log.warn("Cleanup after failed create of SHL {} incomplete: {}", shl.getId(), e.getMessage());
+                    return Mono.empty();
+                });
+    }
+
+    /**
+     * Inserts a chunk of prepared items (contents first, so an SHL never appears without them)
+     * and emits their results followed by the chunk's failed items.
+     */
+    private Flux<BatchCreateResult> persistBatch(List<BatchItem> chunk) {
+        List<BatchItem> prepared = chunk.stream().filter(item -> item.error() == null).toList();
+        Flux<BatchCreateResult> failed = Flux.fromIterable(chunk)
+                .filter(item -> item.error() != null)
+                .map(item -> BatchCreateResult.builder().index(item.index()).error(item.error()).build());
+        if (prepared.isEmpty()) {
+            return failed;
         }
 
-        return healthLakeMono.flatMap(s -> {
-            if (request.getContent() != null) {
-                try {
-                    String contentJson = objectMapper.writeValueAsString(request.getContent());
-                    return encryptAndStore(s, contentJson, "application/fhir+json;fhirVersion=4.0.1", null, null, 0);
-                } catch (Exception e) {
-                    return Mono.error(new RuntimeException("Failed to serialize content", e));
-                }
-            }
-            return Mono.just(s);
-        });
+        List<ShlDocument> shls = prepared.stream().map(BatchItem::shl).toList();
+        List<ShlContentDocument> contents = prepared.stream().flatMap(item -> item.contents().stream()).toList();
+        List<String> shlIds = shls.stream().map(ShlDocument::getId).toList();
+
+        Mono<Void> insertContents = contents.isEmpty() ? Mono.empty() : shlContentRepository.insert(contents).then();
+        Flux<BatchCreateResult> created = insertContents
+                .thenMany(shlRepository.insert(shls))
+                .then(Mono.just(true))
+                .onErrorResume(e -> {
+                    log.warn("Failed to insert batch chunk of {} SHLs: {}", shls.size(), e.getMessage());
+                    return shlRepository.deleteAllById(shlIds)
+                            .then(shlContentRepository.deleteByShlIdIn(shlIds))
+                            .then(discardPayloads(shlIds))
+                            .onErrorResume(cleanup -> {
+                                log.warn("Cleanup after failed batch insert incomplete: {}", cleanup.getMessage());
+                                return Mono.empty();
+                            })
+                            .thenReturn(false);
+                })
+                .flatMapMany(inserted -> inserted
+                        ? Flux.fromIterable(prepared)
+                                .flatMapSequential(item -> toCreateResponse(item.shl(), item.request().isIncludeQrCode())
+                                        .map(response -> BatchCreateResult.builder()
+                                                .index(item.index())
+                                                .shl(response)
+                                                .build()))
+                        : Flux.fromIterable(prepared)
+                                .map(item -> BatchCreateResult.builder()
+                                        .index(item.index())
+                                        .error("Failed to store SHL")
+                                        .build()));
+
+        return created.concatWith(failed);
+    }
+
+    private Mono<Void> discardPayloads(List<String> shlIds) {
+        return Flux.fromIterable(shlIds)
+                .flatMap(shlId -> s3StorageService.deletePayloads(shlId)
+                        .onErrorResume(e -> {
+                            log.warn("Failed to remove payloads of unsaved SHL {}: {}", shlId, e.getMessage());
+                            return Mono.empty();
+                        }))
+                .then();
+    }
+
+    private void validateBatchItem(CreateShlRequest request) {
+        if (request == null) {
+            throw new IllegalArgumentException("Empty batch item");
+        }
+        validator.validate(request).stream()
+                .findFirst()
+                .ifPresent(violation -> {
+                    throw new IllegalArgumentException(violation.getPropertyPath() + ": " + violation.getMessage());
+                });
+    }
+
+    private static String describeBatchError(long index, Throwable e) {
+        if (e instanceof IllegalArgumentException) {
+            return e.getMessage();
+        }
+        log.warn("Batch item {} failed: {}", index, e.getMessage());
+        return "Failed to create SHL";
     }
 
-    public Mono<CreateShlResponse> createFromFile(byte[] fileBytes, String contentType,
+    private ShlDocument.ShlDocumentBuilder newShl(CreateShlRequest request) {
+        return newShl()
+                .manifestId(SecureRandomUtil.generateBase64UrlRandom(32))
+                .encryptionKey(SecureRandomUtil.generateBase64UrlRandom(32))
+                .label(request.getLabel())
+                .flags(ShlFlag.toFlagString(request.isLongTerm(),
+                        request.getPasscode() != null, request.isDirectAccess()))
+                .passcodeFailuresRemaining(request.getPasscode() != null ?
+                        appProperties.getDefaultPasscodeAttempts() : null)
+                .expiresAt(request.getExpirationInSeconds() != null ?
+                        Instant.now().plusSeconds(request.getExpirationInSeconds()) : null)
+                .active(true)
+                .singleUse(request.isSingleUse());
+    }
+
+    /**
+     * Ids and timestamps are assigned up front: the S3 keys need the ids before anything is
+     * inserted, and auditing only fills createdAt for documents without an id.
+     */
+    private static ShlDocument.ShlDocumentBuilder newShl() {
+        Instant now = Instant.now();
+        return ShlDocument.builder()
+                .id(new ObjectId().toHexString())
+                .createdAt(now)
+                .updatedAt(now);
+    }
+
+    private record BatchItem(long index, CreateShlRequest request, ShlDocument shl,
+                             List<ShlContentDocument> contents, String error) {
+    }
+
+    public Mono<CreateShlResponse> createFromFile(Flux<DataBuffer> fileContent, String contentType,
                                                     String originalFileName, String label,
                                                     String passcode, Long expirationInSeconds,
                                                     boolean singleUse, boolean directAccess,
                                                     boolean longTerm,
-                                                    String patientId, List<FhirCategory> categories) {
-        return Mono.defer(() -> {
+                                                    String patientId, List<FhirCategory> categories,
+                                                    boolean includeQrCode) {
+        return MetricsUtil.timed(Mono.defer(() -> {
             if (directAccess && longTerm) {
                 return Mono.error(new IllegalArgumentException("Cannot combine direct access (U) with long-term (L) flag"));
             }
@@ -117,12 +347,11 @@ public class ShlService {
             String manifestId = SecureRandomUtil.generateBase64UrlRandom(32);
             String flags = ShlFlag.toFlagString(longTerm, passcode != null, directAccess);
 
-            ShlDocument shl = ShlDocument.builder()
+            ShlDocument shl = newShl()
                     .manifestId(manifestId)
                     .encryptionKey(encryptionKey)
                     .label(label)
                     .flags(flags)
-                    .passcodeHash(passcode != null ? passwordEncoder.encode(passcode) : null)
                     .passcodeFailuresRemaining(passcode != null ?
                             appProperties.getDefaultPasscodeAttempts() : null)
                     .expiresAt(expirationInSeconds != null ?
@@ -131,66 +360,111 @@ public class ShlService {
                     .singleUse(singleUse)
                     .build();
 
-            return shlRepository.save(shl)
-                    .flatMap(savedShl -> {
+            return hashPasscode(shl, passcode)
+                    .flatMap(hashed -> {
                         // Store HealthLake bundles if categories provided
-                        Mono<ShlDocument> healthLakeMono = Mono.just(savedShl);
-                        if (categories != null && !categories.isEmpty() && patientId != null) {
-                            healthLakeMono = healthLakeService.fetchBundles(patientId, categories)
-                                    .concatMap(bundleJson -> encryptAndStore(savedShl, bundleJson,
-                                            "application/fhir+json;fhirVersion=4.0.1", null, null, 0))
-                                    .then(Mono.just(savedShl));
-                        }
-                        // Then store the uploaded file
-                        return healthLakeMono.flatMap(s -> {
-                            String manifestContentType;
-                            String fileContent;
-                            String origType = null;
-                            int origLength = 0;
-
-                            if (FhirDocumentReferenceUtil.isShlCompliantContentType(contentType)) {
-                                fileContent = new String(fileBytes, java.nio.charset.StandardCharsets.UTF_8);
-                                manifestContentType = contentType;
-                            } else {
-                                fileContent = FhirDocumentReferenceUtil.wrapInDocumentReference(
-                                        fileBytes, contentType, originalFileName);
-                                manifestContentType = "application/fhir+json;fhirVersion=4.0.1";
-                                origType = contentType;
-                                origLength = fileBytes.length;
-                            }
-                            return encryptAndStore(s, fileContent, manifestContentType,
-                                    originalFileName, origType, origLength);
-                        });
+                        Flux<String> bundles = categories != null && !categories.isEmpty() && patientId != null
+                                ? healthLakeService.fetchBundles(patientId, categories)
+                                : Flux.empty();
+                        // Then stream the uploaded file into S3, listed after the bundles
+                        return encryptAndUploadAll(hashed, bundles)
+                                .collectList()
+                                .flatMap(contents -> encryptAndUploadStream(hashed, fileContent, contentType,
+                                                originalFileName, contents.size())
+                                        .map(fileContentDoc -> {
+                                            List<ShlContentDocument> all = new ArrayList<>(contents);
+                                            all.add(fileContentDoc);
+                                            return all;
+                                        }))
+                                .flatMap(contents -> insertShl(hashed, contents))
+                                .onErrorResume(e -> rollbackCreate(hashed).then(Mono.error(e)));
                     })
-                    .flatMap(this::toCreateResponse);
+                    .flatMap(savedShl -> toCreateResponse(savedShl, includeQrCode));
+        }), meterRegistry, "shl.create", "source", "file");
+    }
+
+    /**
+     * Streaming counterpart of {@link #encryptAndUploadAll} for uploaded files: part chunks flow
+     * through the DocumentReference wrapper (for non-SHL content types), the JWE writer and an S3
+     * multipart upload, so memory per upload is bounded by the part size rather than the file
+     * size. Emits the (not yet saved) content document once the object is committed.
+     */
+    private Mono<ShlContentDocument> encryptAndUploadStream(ShlDocument shl, Flux<DataBuffer> fileContent,
+                                                            String contentType, String originalFileName,
+                                                            int sequence) {
+        return Mono.defer(() -> {
+            boolean shlCompliant = FhirDocumentReferenceUtil.isShlCompliantContentType(contentType);
+            String manifestContentType = shlCompliant ? contentType : "application/fhir+json;fhirVersion=4.0.1";
+            String contentId = new ObjectId().toHexString();
+            String s3Key = s3StorageService.buildPayloadKey(shl.getId(), contentId);
+            S3UploadStream upload = s3StorageService.openUploadStream(s3Key);
+            MessageDigest jweDigest = DigestUtil.sha256();
+            AtomicLong originalLength = new AtomicLong();
+
+            return Mono.fromCallable(() -> {
+                        OutputStream jwe = encryptionService.openEncryptingStream(
+                                new DigestOutputStream(upload, jweDigest), shl.getEncryptionKey(), manifestContentType);
+                        return shlCompliant ? jwe : FhirDocumentReferenceUtil
+                                .openDocumentReferenceStream(jwe, contentType, originalFileName);
+                    })
+                    .subscribeOn(Schedulers.boundedElastic())
+                    .flatMap(plaintext -> DataBufferUtils.write(fileContent
+                                            .publishOn(Schedulers.boundedElastic())
+                                            .doOnNext(buffer -> originalLength.addAndGet(buffer.readableByteCount())),
+                                    plaintext)
+                            .doOnNext(DataBufferUtils::release)
+                            .then(Mono.fromCallable(() -> {
+                                plaintext.close();
+                                return upload.getBytesWritten();
+                            }).subscribeOn(Schedulers.boundedElastic())))
+                    .onErrorResume(e -> Mono.fromRunnable(upload::abort)
+                            .subscribeOn(Schedulers.boundedElastic())
+                            .then(Mono.error(e)))
+                    .map(jweLength -> {
+                        log.debug("Streamed {} bytes into {} byte JWE at {}",
+                                originalLength.get(), jweLength, s3Key);
+                        return ShlContentDocument.builder()
+                                .id(contentId)
+                                .shlId(shl.getId())
+                                .contentType(manifestContentType)
+                                .storage(PayloadStorage.S3)
+                                .s3Key(s3Key)
+                                .originalFileName(originalFileName)
+                                .originalContentType(shlCompliant ? null : contentType)
+                                .contentLength(originalLength.get())
+                                .jweLength(jweLength)
+                                .contentHash(DigestUtil.hex(jweDigest))
+                                .sequence(sequence)
+                                .createdAt(shl.getCreatedAt())
+                                .build();
+                    });
         });
     }
 
-    private Mono<ShlDocument> encryptAndStore(ShlDocument shl, String content,
-                                               String contentType, String originalFileName,
-                                               String originalContentType, int originalContentLength) {
-        return encryptionService.encrypt(content, shl.getEncryptionKey(), contentType)
-                .flatMap(jweString -> {
-                    ShlContentDocument contentDoc = ShlContentDocument.builder()
-                            .shlId(shl.getId())
-                            .contentType(contentType)
-                            .originalFileName(originalFileName)
-                            .originalContentType(originalContentType)
-                            .contentLength(originalContentLength > 0 ? originalContentLength :
-                                    content.getBytes(java.nio.charset.StandardCharsets.UTF_8).length)
-                            .build();
-
-                    return shlContentRepository.save(contentDoc)
-                            .flatMap(savedContent -> {
-                                String s3Key = s3StorageService.buildPayloadKey(shl.getId(), savedContent.getId());
-                                savedContent.setS3Key(s3Key);
-                                return shlContentRepository.save(savedContent)
-                                        .then(s3StorageService.uploadPayload(s3Key, jweString));
-                            });
-                })
-                .thenReturn(shl);
+    /**
+     * Keyset-paginated listing, newest first. {@code cursor} is the {@code nextCursor} of the
+     * previous page, or null for the first page.
+     */
+    public Mono<CursorPage<ShlSummaryResponse>> listShls(ShlListFilter filter, String cursor, int size,
+                                                        boolean includeTotal) {
+        return Mono.defer(() -> {
+            PageCursor after = PageCursor.decode(cursor);
+            // An unfiltered total is cheaper from collection metadata than from counting in the pipeline
+            boolean countInPipeline = includeTotal && !filter.isEmpty();
+            Mono<Optional<Long>> estimatedTotal = includeTotal && filter.isEmpty()
+                    ? shlRepository.estimatedCount().map(Optional::of)
+                    : Mono.just(Optional.empty());
+
+            return Mono.zip(shlRepository.findSummaries(filter, after, size + 1, countInPipeline), estimatedTotal)
+                    .map(tuple -> CursorPage.of(tuple.getT1().rows(), size,
+                            shl -> new PageCursor(shl.getCreatedAt(), shl.getId()), this::toSummaryResponse,
+                            tuple.getT1().total() != null ? tuple.getT1().total() : tuple.getT2().orElse(null)));
+        });
     }
 
+    /**
+     * Offset-based listing kept for existing clients; cost grows with the page number.
+     */
     public Flux<ShlSummaryResponse> listShls(Boolean active, Pageable pageable) {
         Flux<ShlDocument> shls;
         if (active != null) {
@@ -198,24 +472,28 @@ public class ShlService {
         } else {
             shls = shlRepository.findAllBy(pageable);
         }
-        return shls.flatMap(this::toSummaryResponse);
+        return shls.map(this::toSummaryResponse);
     }
 
+    /**
+     * Exact count when filtered (served from the {@code active} index), otherwise the
+     * collection's metadata estimate, which is constant-time at any size.
+     */
     public Mono<Long> countShls(Boolean active) {
         if (active != null) {
             return shlRepository.countByActive(active);
         }
-        return shlRepository.count();
+        return shlRepository.estimatedCount();
     }
 
-    public Mono<ShlDetailResponse> getShlDetail(String id) {
+    public Mono<ShlDetailResponse> getShlDetail(String id, boolean includeQrCode) {
         return shlRepository.findById(id)
                 .switchIfEmpty(Mono.error(new ShlNotFoundException(id)))
                 .flatMap(shl -> {
                     String shlinkUrl = shlPayloadService.buildShlinkUrl(shl);
 
                     Mono<java.util.List<ShlDetailResponse.ContentSummary>> contentsMono =
-                            shlContentRepository.findByShlId(id)
+                            shlContentRepository.findByShlIdOrderBySequenceAsc(id)
                                     .map(c -> ShlDetailResponse.ContentSummary.builder()
                                             .id(c.getId())
                                             .contentType(c.getOriginalContentType() != null ?
@@ -226,12 +504,7 @@ public class ShlService {
                                             .build())
                                     .collectList();
 
-                    Mono<Long> accessCountMono = accessLogService.getAccessCount(id);
-
-                    Mono<String> qrCodeMono = qrCodeService.generateBase64DataUri(
-                            shlinkUrl, appProperties.getQrCodeDefaultSize());
-
-                    return Mono.zip(contentsMono, accessCountMono, qrCodeMono)
+                    return Mono.zip(contentsMono, inlineQrCode(shlinkUrl, includeQrCode))
                             .map(tuple -> ShlDetailResponse.builder()
                                     .id(shl.getId())
                                     .label(shl.getLabel())
@@ -242,9 +515,10 @@ public class ShlService {
                                     .createdAt(shl.getCreatedAt() != null ? shl.getCreatedAt().toString() : null)
                                     .updatedAt(shl.getUpdatedAt() != null ? shl.getUpdatedAt().toString() : null)
                                     .shlinkUrl(shlinkUrl)
-                                    .qrCode(tuple.getT3())
+                                    .qrCode(tuple.getT2().orElse(null))
+                                    .qrCodeUrl(shlPayloadService.buildQrCodeUrl(shl.getId()))
                                     .contents(tuple.getT1())
-                                    .totalAccesses(tuple.getT2())
+                                    .totalAccesses(shl.getSuccessfulAccessCount())
                                     .build());
                 });
     }
@@ -252,13 +526,22 @@ public class ShlService {
     public Mono<Void> deactivate(String id) {
         return shlRepository.findById(id)
                 .switchIfEmpty(Mono.error(new ShlNotFoundException(id)))
-                .flatMap(shl -> {
-                    shl.setActive(false);
-                    return shlRepository.save(shl);
-                })
+                .flatMap(shl -> shlRepository.deactivate(id)
+                        .doOnNext(deactivated -> shlLookupCache.invalidate(shl)))
                 .then();
     }
 
+    private Mono<ShlDocument> hashPasscode(ShlDocument shl, String passcode) {
+        if (passcode == null) {
+            return Mono.just(shl);
+        }
+        return passcodeService.hash(passcode)
+                .map(hash -> {
+                    shl.setPasscodeHash(hash);
+                    return shl;
+                });
+    }
+
     private void validateFlags(CreateShlRequest request) {
         if (request.isDirectAccess() && request.isLongTerm()) {
             throw new IllegalArgumentException("Cannot combine direct access (U) with long-term (L) flag");
@@ -280,13 +563,37 @@ public class ShlService {
         }
     }
 
-    private Mono<CreateShlResponse> toCreateResponse(ShlDocument shl) {
-        String shlinkUrl = shlPayloadService.buildShlinkUrl(shl);
+    /**
+     * Renders (or fetches from cache) the QR code for an SHL's shlink URL.
+     */
+    public Mono<QrImage> getQrCode(String id, Integer requestedSize, QrFormat format) {
+        AppProperties.QrCacheProperties props = appProperties.getQrCache();
+        int size = requestedSize != null ? requestedSize : appProperties.getQrCodeDefaultSize();
+        if (size < props.getMinSize() || size > props.getMaxImageSize()) {
+            return Mono.error(new IllegalArgumentException("size must be between "
+                    + props.getMinSize() + " and " + props.getMaxImageSize()));
+        }
+        return shlRepository.findById(id)
+                .switchIfEmpty(Mono.error(new ShlNotFoundException(id)))
+                .flatMap(shl -> qrCodeService.render(shlPayloadService.buildShlinkUrl(shl), size, format));
+    }
+
+    private Mono<Optional<String>> inlineQrCode(String shlinkUrl, boolean includeQrCode) {
+        if (!includeQrCode) {
+            return Mono.just(Optional.empty());
+        }
         return qrCodeService.generateBase64DataUri(shlinkUrl, appProperties.getQrCodeDefaultSize())
+                .map(Optional::of);
+    }
+
+    private Mono<CreateShlResponse> toCreateResponse(ShlDocument shl, boolean includeQrCode) {
+        String shlinkUrl = shlPayloadService.buildShlinkUrl(shl);
+        return inlineQrCode(shlinkUrl, includeQrCode)
                 .map(qrCode -> CreateShlResponse.builder()
                         .id(shl.getId())
                         .shlinkUrl(shlinkUrl)
-                        .qrCode(qrCode)
+                        .qrCode(qrCode.orElse(null))
+                        .qrCodeUrl(shlPayloadService.buildQrCodeUrl(shl.getId()))
                         .managementUrl(shlPayloadService.buildManagementUrl(shl.getId()))
                         .label(shl.getLabel())
                         .flags(shl.getFlags())
@@ -295,11 +602,8 @@ public class ShlService {
                         .build());
     }
 
-    private Mono<ShlSummaryResponse> toSummaryResponse(ShlDocument shl) {
-        return Mono.zip(
-                shlContentRepository.countByShlId(shl.getId()),
-                accessLogService.getAccessCount(shl.getId())
-        ).map(tuple -> ShlSummaryResponse.builder()
+    private ShlSummaryResponse toSummaryResponse(ShlDocument shl) {
+        return ShlSummaryResponse.builder()
                 .id(shl.getId())
                 .label(shl.getLabel())
                 .flags(shl.getFlags())
@@ -307,8 +611,8 @@ public class ShlService {
                 .singleUse(shl.isSingleUse())
                 .expiresAt(shl.getExpiresAt() != null ? shl.getExpiresAt().toString() : null)
                 .createdAt(shl.getCreatedAt() != null ? shl.getCreatedAt().toString() : null)
-                .contentCount(tuple.getT1().intValue())
-                .accessCount(tuple.getT2())
-                .build());
+                .contentCount(shl.getContentCount())
+                .accessCount(shl.getSuccessfulAccessCount())
+                .build();
     }
 }
@@ -0,0 +1,35 @@
+package com.chanakya.shl.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+public final class DigestUtil {
+
+    private DigestUtil() {
+    }
+
+    public static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public static String sha256Hex(byte[] bytes) {
+        return HexFormat.of().formatHex(sha256().digest(bytes));
+    }
+
+    /**
+     * SHA-256 of a serialized JWE. Compact JWEs are ASCII, so this hashes the stored bytes.
+     */
+    public static String sha256Hex(String ascii) {
+        return sha256Hex(ascii.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    public static String hex(MessageDigest digest) {
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
@@ -4,6 +4,9 @@ import tools.jackson.databind.ObjectMapper;
 import tools.jackson.databind.node.ObjectNode;
 import tools.jackson.databind.node.ArrayNode;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Base64;
 import java.util.Set;
 
@@ -45,4 +48,66 @@ public final class FhirDocumentReferenceUtil {
 
         return root.toString();
     }
+
+    /**
+     * Streaming counterpart of {@link #wrapInDocumentReference}: writes the DocumentReference
+     * JSON around the attachment data as it is produced. Bytes written to the returned stream
+     * are base64-encoded into {@code attachment.data}; closing it writes the closing JSON and
+     * closes {@code out}.
+     */
+    public static OutputStream openDocumentReferenceStream(OutputStream out, String contentType,
+                                                           String fileName) throws IOException {
+        String prefix = "{\"resourceType\":\"DocumentReference\",\"status\":\"current\","
+                + "\"content\":[{\"attachment\":{\"contentType\":" + MAPPER.writeValueAsString(contentType)
+                + ",\"data\":\"";
+        String suffix = "\"" + (fileName != null ? ",\"title\":" + MAPPER.writeValueAsString(fileName) : "")
+                + "}}]}";
+        out.write(prefix.getBytes(StandardCharsets.UTF_8));
+        return new AttachmentDataStream(out, suffix.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static final class AttachmentDataStream extends OutputStream {
+
+        private final OutputStream out;
+        private final byte[] suffix;
+        private final OutputStream encoder;
+
+        AttachmentDataStream(OutputStream out, byte[] suffix) {
+            this.out = out;
+            this.suffix = suffix;
+            this.encoder = Base64.getEncoder().wrap(new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() {
+                    // Keep the underlying stream open for the JSON suffix
+                }
+            });
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            encoder.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            encoder.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            encoder.close();
+            out.write(suffix);
+            out.close();
+        }
+    }
 }
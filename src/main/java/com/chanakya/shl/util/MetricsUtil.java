@@ -0,0 +1,79 @@
+package com.chanakya.shl.util;
+
+import com.chanakya.shl.exception.InvalidPasscodeException;
+import com.chanakya.shl.exception.ShlExpiredException;
+import com.chanakya.shl.exception.ShlInactiveException;
+import com.chanakya.shl.exception.ShlNotFoundException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+
+/**
+ * Timers for reactive calls, tagged with an {@code outcome} derived from how they ended.
+ * Percentiles, histograms and SLO buckets are not set here but per meter name under
+ * {@code management.metrics.distribution}.
+ */
+public final class MetricsUtil {
+
+    private MetricsUtil() {
+    }
+
+    /**
+     * The {@code outcome} tag for a failure: the protocol's expected refusals by name, anything
+     * else as {@code error}.
+     */
+    public static String outcome(Throwable error) {
+        if (error instanceof ShlNotFoundException || error instanceof NoSuchKeyException) {
+            return "not-found";
+        }
+        if (error instanceof ShlInactiveException) {
+            return "inactive";
+        }
+        if (error instanceof ShlExpiredException) {
+            return "expired";
+        }
+        if (error instanceof InvalidPasscodeException) {
+            return "passcode-failure";
+        }
+        if (error instanceof IllegalArgumentException) {
+            return "invalid";
+        }
+        return "error";
+    }
+
+    /**
+     * Times {@code source} from subscription to completion, error or cancellation under
+     * {@code name}, with the given tags plus {@code outcome}.
+     */
+    public static <T> Mono<T> timed(Mono<T> source, MeterRegistry registry, String name, String... tags) {
+        return Mono.defer(() -> {
+            Timer.Sample sample = Timer.start(registry);
+            return source
+                    .doOnSuccess(value -> sample.stop(timer(registry, name, "success", tags)))
+                    .doOnError(e -> sample.stop(timer(registry, name, outcome(e), tags)))
+                    .doOnCancel(() -> sample.stop(timer(registry, name, "cancelled", tags)));
+        });
+    }
+
+    /**
+     * {@link #timed(Mono, MeterRegistry, String, String...)} for a whole stream.
+     */
+    public static <T> Flux<T> timed(Flux<T> source, MeterRegistry registry, String name, String... tags) {
+        return Flux.defer(() -> {
+            Timer.Sample sample = Timer.start(registry);
+            return source
+                    .doOnComplete(() -> sample.stop(timer(registry, name, "success", tags)))
+                    .doOnError(e -> sample.stop(timer(registry, name, outcome(e), tags)))
+                    .doOnCancel(() -> sample.stop(timer(registry, name, "cancelled", tags)));
+        });
+    }
+
+    private static Timer timer(MeterRegistry registry, String name, String outcome, String... tags) {
+        return Timer.builder(name)
+                .tags(tags)
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+}
@@ -0,0 +1,187 @@
+package com.chanakya.shl.util;
+
+import com.google.zxing.common.BitMatrix;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Encodes a QR module matrix straight to image bytes, without AWT or ImageIO.
+ * <p>
+ * The input is the matrix zxing produces at one pixel per module (quiet zone included), i.e.
+ * {@code QRCodeWriter.encode(content, QR_CODE, 0, 0, hints)}. Scaling matches
+ * {@code QRCodeWriter} at the requested size: modules are drawn at the largest whole multiple
+ * that fits and the result is centered, so output is pixel-identical to rendering the
+ * full-size matrix through {@code MatrixToImageWriter}.
+ */
+public final class QrImageEncoder {
+
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    private static final byte[] IHDR = "IHDR".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PLTE = "PLTE".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] IDAT = "IDAT".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] IEND = "IEND".getBytes(StandardCharsets.US_ASCII);
+    // Index 0 = white (light module), index 1 = black (dark module)
+    private static final byte[] PALETTE = {(byte) 0xff, (byte) 0xff, (byte) 0xff, 0, 0, 0};
+    private static final int BIT_DEPTH = 1;
+    private static final int COLOR_TYPE_INDEXED = 3;
+
+    private QrImageEncoder() {
+    }
+
+    /**
+     * Encodes the modules as a 1-bit indexed PNG of {@code size} x {@code size} pixels (or the
+     * matrix size, if that is larger).
+     */
+    public static byte[] toPng(BitMatrix modules, int size) {
+        int matrixSize = modules.getWidth();
+        int imageSize = Math.max(size, matrixSize);
+        int scale = imageSize / matrixSize;
+        int padding = (imageSize - matrixSize * scale) / 2;
+
+        // One filter byte (0 = None) followed by the packed pixels, MSB first
+        byte[] line = new byte[1 + (imageSize + 7) / 8];
+        byte[] blankLine = new byte[line.length];
+
+        ChunkBuffer idat = new ChunkBuffer(line.length * 8);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            for (int y = 0; y < padding; y++) {
+                idat.deflate(deflater, blankLine);
+            }
+            for (int my = 0; my < matrixSize; my++) {
+                packRow(modules, my, scale, padding, line);
+                for (int i = 0; i < scale; i++) {
+                    idat.deflate(deflater, line);
+                }
+            }
+            for (int y = padding + matrixSize * scale; y < imageSize; y++) {
+                idat.deflate(deflater, blankLine);
+            }
+            idat.finish(deflater);
+        } finally {
+            deflater.end();
+        }
+
+        byte[] header = new byte[13];
+        putInt(header, 0, imageSize);
+        putInt(header, 4, imageSize);
+        header[8] = BIT_DEPTH;
+        header[9] = COLOR_TYPE_INDEXED;
+
+        // Signature plus four chunks of 12 bytes overhead each
+        ByteArrayOutputStream out = new ByteArrayOutputStream(
+                PNG_SIGNATURE.length + 4 * 12 + header.length + PALETTE.length + idat.length);
+        out.writeBytes(PNG_SIGNATURE);
+        writeChunk(out, IHDR, header, header.length);
+        writeChunk(out, PLTE, PALETTE, PALETTE.length);
+        writeChunk(out, IDAT, idat.buffer, idat.length);
+        writeChunk(out, IEND, new byte[0], 0);
+        return out.toByteArray();
+    }
+
+    /**
+     * Encodes the modules as an SVG whose single path draws each horizontal run of dark
+     * modules, in module units scaled to {@code size} by the {@code viewBox}.
+     */
+    public static byte[] toSvg(BitMatrix modules, int size) {
+        int matrixSize = modules.getWidth();
+        StringBuilder svg = new StringBuilder(256 + matrixSize * matrixSize);
+        svg.append("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"").append(size)
+                .append("\" height=\"").append(size)
+                .append("\" viewBox=\"0 0 ").append(matrixSize).append(' ').append(matrixSize)
+                .append("\" shape-rendering=\"crispEdges\"><rect width=\"100%\" height=\"100%\" fill=\"#fff\"/>")
+                .append("<path fill=\"#000\" d=\"");
+        for (int y = 0; y < matrixSize; y++) {
+            int x = 0;
+            while (x < matrixSize) {
+                if (!modules.get(x, y)) {
+                    x++;
+                    continue;
+                }
+                int start = x;
+                while (x < matrixSize && modules.get(x, y)) {
+                    x++;
+                }
+                svg.append('M').append(start).append(' ').append(y)
+                        .append('h').append(x - start).append("v1h-").append(x - start).append('z');
+            }
+        }
+        svg.append("\"/></svg>");
+        return svg.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static void packRow(BitMatrix modules, int my, int scale, int padding, byte[] line) {
+        Arrays.fill(line, (byte) 0);
+        int matrixSize = modules.getWidth();
+        for (int mx = 0; mx < matrixSize; mx++) {
+            if (!modules.get(mx, my)) {
+                continue;
+            }
+            int from = padding + mx * scale;
+            int to = from + scale;
+            for (int px = from; px < to; px++) {
+                line[1 + (px >>> 3)] |= (byte) (0x80 >>> (px & 7));
+            }
+        }
+    }
+
+    private static void writeChunk(ByteArrayOutputStream out, byte[] type, byte[] data, int length) {
+        byte[] lengthBytes = new byte[4];
+        putInt(lengthBytes, 0, length);
+        out.writeBytes(lengthBytes);
+        out.writeBytes(type);
+        out.write(data, 0, length);
+
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(data, 0, length);
+        byte[] crcBytes = new byte[4];
+        putInt(crcBytes, 0, (int) crc.getValue());
+        out.writeBytes(crcBytes);
+    }
+
+    private static void putInt(byte[] target, int offset, int value) {
+        target[offset] = (byte) (value >>> 24);
+        target[offset + 1] = (byte) (value >>> 16);
+        target[offset + 2] = (byte) (value >>> 8);
+        target[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Growable buffer the deflater writes into directly, so the compressed image is not copied
+     * through an intermediate stream.
+     */
+    private static final class ChunkBuffer {
+        private byte[] buffer;
+        private int length;
+
+        ChunkBuffer(int initialCapacity) {
+            this.buffer = new byte[Math.max(initialCapacity, 64)];
+        }
+
+        void deflate(Deflater deflater, byte[] input) {
+            deflater.setInput(input);
+            while (!deflater.needsInput()) {
+                drain(deflater);
+            }
+        }
+
+        void finish(Deflater deflater) {
+            deflater.finish();
+            while (!deflater.finished()) {
+                drain(deflater);
+            }
+        }
+
+        private void drain(Deflater deflater) {
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            length += deflater.deflate(buffer, length, buffer.length - length);
+        }
+    }
+}
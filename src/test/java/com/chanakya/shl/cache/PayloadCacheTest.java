@@ -0,0 +1,143 @@
+package com.chanakya.shl.cache;
+
+import com.chanakya.shl.config.AppProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PayloadCacheTest {
+
+    @TempDir
+    Path directory;
+
+    private final AppProperties appProperties = new AppProperties();
+    private final List<Runnable> pendingWrites = new ArrayList<>();
+    private PayloadCache cache;
+
+    @BeforeEach
+    void setUp() {
+        AppProperties.PayloadCacheProperties props = appProperties.getPayloadCache();
+        props.setHeapMaxSize(DataSize.ofBytes(1_000));
+        props.setHeapMaxEntrySize(DataSize.ofBytes(100));
+        props.setDiskMaxSize(DataSize.ofBytes(1_000));
+        props.setDiskDirectory(directory.toString());
+        cache = new PayloadCache(appProperties, new SimpleMeterRegistry(),
+                Schedulers.fromExecutor(pendingWrites::add), Runnable::run);
+    }
+
+    @AfterEach
+    void tearDown() {
+        cache.clear();
+    }
+
+    @Test
+    void servesSmallPayloadsFromHeapAndLargeOnesFromAMappedFile() {
+        cache.put("payloads/a/small.jwe", payload(50, 'a'));
+        cache.put("payloads/a/large.jwe", payload(400, 'b'));
+
+        assertThat(bytes(cache.get("payloads/a/small.jwe"))).isEqualTo(payload(50, 'a'));
+        assertThat(cache.get("payloads/a/large.jwe")).isNull();
+
+        runPendingWrites();
+
+        ByteBuffer large = cache.get("payloads/a/large.jwe");
+        assertThat(large.isDirect()).isTrue();
+        assertThat(bytes(large)).isEqualTo(payload(400, 'b'));
+        assertThat(cacheFiles()).hasSize(2);
+    }
+
+    @Test
+    void evictsDiskEntriesBeyondTheByteBudgetAndDeletesTheirFiles() {
+        for (char c = 'a'; c <= 'e'; c++) {
+            cache.put("payloads/a/" + c + ".jwe", payload(400, c));
+            runPendingWrites();
+        }
+
+        long cachedBytes = cacheFiles().stream().mapToLong(PayloadCacheTest::size).sum();
+        assertThat(cachedBytes).isLessThanOrEqualTo(1_000);
+        assertThat(cacheFiles()).hasSizeLessThan(5);
+    }
+
+    @Test
+    void invalidatePrefixDropsBothTiersForThatShlOnly() {
+        cache.put("payloads/a/1.jwe", payload(50, 'a'));
+        cache.put("payloads/b/1.jwe", payload(50, 'b'));
+        runPendingWrites();
+
+        cache.invalidatePrefix("payloads/a/");
+
+        assertThat(cache.get("payloads/a/1.jwe")).isNull();
+        assertThat(bytes(cache.get("payloads/b/1.jwe"))).isEqualTo(payload(50, 'b'));
+        assertThat(cacheFiles()).hasSize(1);
+    }
+
+    @Test
+    void diskWritePendingDuringInvalidationIsDiscarded() {
+        cache.put("payloads/a/large.jwe", payload(400, 'a'));
+
+        // deletePayloads runs before the spill to disk does
+        cache.invalidatePrefix("payloads/a/");
+        runPendingWrites();
+
+        assertThat(cache.get("payloads/a/large.jwe")).isNull();
+        assertThat(cacheFiles()).isEmpty();
+    }
+
+    @Test
+    void putsAfterAnInvalidationAreCachedAgain() {
+        cache.invalidatePrefix("payloads/a/");
+        cache.put("payloads/a/large.jwe", payload(400, 'a'));
+        runPendingWrites();
+
+        assertThat(bytes(cache.get("payloads/a/large.jwe"))).isEqualTo(payload(400, 'a'));
+    }
+
+    private void runPendingWrites() {
+        List<Runnable> writes = new ArrayList<>(pendingWrites);
+        pendingWrites.clear();
+        writes.forEach(Runnable::run);
+    }
+
+    private List<Path> cacheFiles() {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(".jwe")).toList();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long size(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] payload(int length, char fill) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) fill);
+        return bytes;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,85 @@
+package com.chanakya.shl.controller;
+
+import com.chanakya.shl.exception.GlobalExceptionHandler;
+import com.chanakya.shl.model.CursorPage;
+import com.chanakya.shl.model.PageCursor;
+import com.chanakya.shl.model.ShlListFilter;
+import com.chanakya.shl.model.dto.response.ShlSummaryResponse;
+import com.chanakya.shl.service.AccessLogService;
+import com.chanakya.shl.service.ShlService;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import tools.jackson.databind.ObjectMapper;
+
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ShlManagementControllerListingTest {
+
+    private final ShlService shlService = mock(ShlService.class);
+    private final WebTestClient client = WebTestClient
+            .bindToController(new ShlManagementController(shlService, mock(AccessLogService.class),
+                    new ObjectMapper()))
+            .controllerAdvice(new GlobalExceptionHandler())
+            .build();
+
+    @Test
+    void legacyPageModeStillReportsTheTotal() {
+        when(shlService.listShls(isNull(), any(Pageable.class)))
+                .thenReturn(Flux.just(summary("b"), summary("a")));
+        when(shlService.countShls(null)).thenReturn(Mono.just(7L));
+
+        client.get().uri("/api/shl?page=1&size=2")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.content.length()").isEqualTo(2)
+                .jsonPath("$.totalElements").isEqualTo(7)
+                .jsonPath("$.page").isEqualTo(1)
+                .jsonPath("$.size").isEqualTo(2);
+
+        verify(shlService, never()).listShls(any(ShlListFilter.class), any(), anyInt(), anyBoolean());
+    }
+
+    @Test
+    void cursorModeReturnsTheNextCursorWithoutATotal() {
+        when(shlService.listShls(any(ShlListFilter.class), isNull(), anyInt(), anyBoolean()))
+                .thenReturn(Mono.just(new CursorPage<>(List.of(summary("b"), summary("a")), "next", null)));
+
+        client.get().uri("/api/shl?size=2")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.content.length()").isEqualTo(2)
+                .jsonPath("$.nextCursor").isEqualTo("next")
+                .jsonPath("$.totalElements").doesNotExist();
+    }
+
+    @Test
+    void malformedCursorIsABadRequest() {
+        when(shlService.listShls(any(ShlListFilter.class), any(), anyInt(), anyBoolean()))
+                .thenAnswer(invocation -> Mono.fromCallable(() -> PageCursor.decode(invocation.getArgument(1)))
+                        .then(Mono.empty()));
+
+        client.get().uri("/api/shl?cursor=not-a-cursor")
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody()
+                .jsonPath("$.error").isEqualTo("Invalid cursor");
+    }
+
+    private static ShlSummaryResponse summary(String id) {
+        return ShlSummaryResponse.builder().id(id).flags("").build();
+    }
+}
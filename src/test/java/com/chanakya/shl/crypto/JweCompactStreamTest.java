@@ -0,0 +1,214 @@
+package com.chanakya.shl.crypto;
+
+import com.nimbusds.jose.CompressionAlgorithm;
+import com.nimbusds.jose.EncryptionMethod;
+import com.nimbusds.jose.JWEAlgorithm;
+import com.nimbusds.jose.JWEHeader;
+import com.nimbusds.jose.JWEObject;
+import com.nimbusds.jose.Payload;
+import com.nimbusds.jose.crypto.DirectDecrypter;
+import com.nimbusds.jose.crypto.DirectEncrypter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Compatibility tests for the streaming JWE engine against nimbus. Payloads of 100 MB and
+ * 500 MB run only with {@code -Dshl.test.largePayloads=true} (and a heap large enough for
+ * nimbus to hold the 500 MB payload, e.g. {@code -Xmx6g}).
+ */
+class JweCompactStreamTest {
+
+    private static final String CONTENT_TYPE = "application/fhir+json;fhirVersion=4.0.1";
+    private static final int KB = 1024;
+    private static final int MB = 1024 * KB;
+
+    private final SecretKey key = testKey();
+
+    private final JWEHeader header = new JWEHeader.Builder(JWEAlgorithm.DIR, EncryptionMethod.A256GCM)
+            .compressionAlgorithm(CompressionAlgorithm.DEF)
+            .contentType(CONTENT_TYPE)
+            .build();
+
+    @ParameterizedTest
+    @ValueSource(ints = {KB, 64 * KB, MB, 16 * MB})
+    void streamingEncryptionIsByteIdenticalToNimbus(int size) throws Exception {
+        byte[] plaintext = payload(size);
+
+        assertThat(streamEncrypt(plaintext, 7)).isEqualTo(nimbusEncrypt(plaintext, 7));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {KB, 64 * KB})
+    void nimbusDecryptsStreamedOutput(int size) throws Exception {
+        byte[] plaintext = payload(size);
+
+        JWEObject parsed = JWEObject.parse(streamEncrypt(plaintext, 11));
+        parsed.decrypt(new DirectDecrypter(key));
+
+        assertThat(parsed.getPayload().toBytes()).isEqualTo(plaintext);
+        assertThat(parsed.getHeader().getContentType()).isEqualTo(CONTENT_TYPE);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {KB, 64 * KB, MB, 16 * MB})
+    void streamingDecryptionReadsNimbusOutput(int size) throws Exception {
+        byte[] plaintext = payload(size);
+        String jwe = nimbusEncrypt(plaintext, 13);
+
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream(size);
+        long written = JweCompactDecryptor.decrypt(
+                new ByteArrayInputStream(jwe.getBytes(StandardCharsets.US_ASCII)), decrypted, key, size);
+
+        assertThat(written).isEqualTo(size);
+        assertThat(decrypted.toByteArray()).isEqualTo(plaintext);
+    }
+
+    @Test
+    void inflationBeyondTheLimitStopsBeforeTheSinkGetsMore() throws Exception {
+        // 16 MB of zeros deflates to a few KB
+        String jwe = streamEncrypt(new byte[16 * MB], 23);
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+
+        assertThatThrownBy(() -> JweCompactDecryptor.decrypt(
+                new ByteArrayInputStream(jwe.getBytes(StandardCharsets.US_ASCII)), decrypted, key, MB))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("exceeds");
+        assertThat(decrypted.size()).isLessThanOrEqualTo(MB);
+    }
+
+    @Test
+    void tamperedCiphertextFailsAuthentication() throws Exception {
+        String jwe = streamEncrypt(payload(4 * KB), 17);
+        int ciphertextStart = jwe.indexOf('.', jwe.indexOf('.', jwe.indexOf('.') + 1) + 1) + 1;
+        char[] chars = jwe.toCharArray();
+        chars[ciphertextStart + 10] = chars[ciphertextStart + 10] == 'A' ? 'B' : 'A';
+
+        assertThatThrownBy(() -> JweCompactDecryptor.decrypt(
+                new ByteArrayInputStream(new String(chars).getBytes(StandardCharsets.US_ASCII)),
+                OutputStream.nullOutputStream(), key, Long.MAX_VALUE))
+                .isInstanceOf(IOException.class);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {100 * MB, 500 * MB})
+    @EnabledIfSystemProperty(named = "shl.test.largePayloads", matches = "true")
+    void largePayloadsMatchNimbusAndRoundTrip(int size) throws Exception {
+        MessageDigest streamedDigest = MessageDigest.getInstance("SHA-256");
+        Path jweFile = Files.createTempFile("jwe-stream", ".jwe");
+        try {
+            try (OutputStream file = new BufferedOutputStream(Files.newOutputStream(jweFile));
+                 JweCompactOutputStream jwe = new JweCompactOutputStream(
+                         new DigestOutputStream(file, streamedDigest), key, header, fixedRandom(19));
+                 InputStream source = payloadStream(size)) {
+                source.transferTo(jwe);
+            }
+
+            MessageDigest plaintextDigest = MessageDigest.getInstance("SHA-256");
+            try (InputStream source = payloadStream(size)) {
+                source.transferTo(new DigestOutputStream(OutputStream.nullOutputStream(), plaintextDigest));
+            }
+            MessageDigest decryptedDigest = MessageDigest.getInstance("SHA-256");
+            try (InputStream in = Files.newInputStream(jweFile)) {
+                JweCompactDecryptor.decrypt(in,
+                        new DigestOutputStream(OutputStream.nullOutputStream(), decryptedDigest), key, size);
+            }
+            assertThat(decryptedDigest.digest()).isEqualTo(plaintextDigest.digest());
+
+            byte[] nimbusDigest = MessageDigest.getInstance("SHA-256").digest(
+                    nimbusEncrypt(payload(size), 19).getBytes(StandardCharsets.US_ASCII));
+            assertThat(streamedDigest.digest()).isEqualTo(nimbusDigest);
+        } finally {
+            Files.deleteIfExists(jweFile);
+        }
+    }
+
+    private String nimbusEncrypt(byte[] plaintext, long ivSeed) throws Exception {
+        DirectEncrypter encrypter = new DirectEncrypter(key);
+        encrypter.getJCAContext().setSecureRandom(fixedRandom(ivSeed));
+        JWEObject jweObject = new JWEObject(header, new Payload(plaintext));
+        jweObject.encrypt(encrypter);
+        return jweObject.serialize();
+    }
+
+    private String streamEncrypt(byte[] plaintext, long ivSeed) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JweCompactOutputStream jwe = new JweCompactOutputStream(out, key, header, fixedRandom(ivSeed))) {
+            // Uneven chunks so output cannot depend on write boundaries
+            for (int off = 0; off < plaintext.length; off += 7919) {
+                jwe.write(plaintext, off, Math.min(7919, plaintext.length - off));
+            }
+        }
+        return out.toString(StandardCharsets.US_ASCII);
+    }
+
+    private static SecretKey testKey() {
+        byte[] keyBytes = new byte[32];
+        new Random(42).nextBytes(keyBytes);
+        return new SecretKeySpec(keyBytes, "AES");
+    }
+
+    private static SecureRandom fixedRandom(long seed) {
+        Random random = new Random(seed);
+        return new SecureRandom() {
+            @Override
+            public void nextBytes(byte[] bytes) {
+                random.nextBytes(bytes);
+            }
+        };
+    }
+
+    private static byte[] payload(int size) throws IOException {
+        try (InputStream in = payloadStream(size)) {
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * Deterministic, moderately compressible JSON-ish bytes generated on the fly.
+     */
+    private static InputStream payloadStream(long size) {
+        byte[] alphabet = "{\"resourceType\":\"Observation\",\"value\":0123456789}".getBytes(StandardCharsets.US_ASCII);
+        Random random = new Random(size);
+        return new InputStream() {
+            private long remaining = size;
+
+            @Override
+            public int read() {
+                if (remaining == 0) {
+                    return -1;
+                }
+                remaining--;
+                return alphabet[random.nextInt(alphabet.length)];
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (remaining == 0) {
+                    return -1;
+                }
+                int n = (int) Math.min(len, remaining);
+                for (int i = 0; i < n; i++) {
+                    b[off + i] = alphabet[random.nextInt(alphabet.length)];
+                }
+                remaining -= n;
+                return n;
+            }
+        };
+    }
+}
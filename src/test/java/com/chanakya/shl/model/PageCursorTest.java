@@ -0,0 +1,42 @@
+package com.chanakya.shl.model;
+
+import com.chanakya.shl.util.Base64UrlUtil;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PageCursorTest {
+
+    @Test
+    void decodesWhatItEncodes() {
+        PageCursor cursor = new PageCursor(Instant.ofEpochMilli(1_700_000_000_123L), "65f0c0ffee0000000000abcd");
+
+        assertThat(PageCursor.decode(cursor.encode())).isEqualTo(cursor);
+    }
+
+    @Test
+    void missingTokenMeansTheFirstPage() {
+        assertThat(PageCursor.decode(null)).isNull();
+        assertThat(PageCursor.decode(" ")).isNull();
+    }
+
+    @Test
+    void rejectsATokenThatIsNotBase64() {
+        assertThatThrownBy(() -> PageCursor.decode("not base64!"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Invalid cursor");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"no-separator", "abc:65f0", ":65f0"})
+    void rejectsATokenWithoutAValidTimestamp(String decoded) {
+        assertThatThrownBy(() -> PageCursor.decode(Base64UrlUtil.encode(decoded)))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Invalid cursor");
+    }
+}
@@ -0,0 +1,155 @@
+package com.chanakya.shl.repository;
+
+import com.chanakya.shl.model.PageCursor;
+import com.chanakya.shl.model.ShlListFilter;
+import com.chanakya.shl.model.document.AccessLogDocument;
+import com.chanakya.shl.model.document.ShlContentDocument;
+import com.chanakya.shl.model.document.ShlDocument;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares the single-aggregation SHL listing with the per-row count queries it replaced
+ * (one {@code shl_contents} and one {@code access_logs} count per SHL). Seeds the configured
+ * MongoDB, so it only runs with {@code -Dshl.test.benchmark=true}; results are logged.
+ */
+@SpringBootTest
+@EnabledIfSystemProperty(named = "shl.test.benchmark", matches = "true")
+@Slf4j
+class ShlListingBenchmarkTest {
+
+    private static final int PAGE_SIZE = 20;
+    private static final int INSERT_BATCH = 10_000;
+    private static final int WARMUP_RUNS = 5;
+    private static final int MEASURED_RUNS = 30;
+
+    @Autowired
+    private ShlRepository shlRepository;
+
+    @Autowired
+    private ShlContentRepository shlContentRepository;
+
+    @Autowired
+    private AccessLogRepository accessLogRepository;
+
+    @Autowired
+    private ReactiveMongoTemplate mongoTemplate;
+
+    private final String labelPrefix = "bench-" + new ObjectId().toHexString() + "-";
+
+    @AfterEach
+    void cleanUp() {
+        mongoTemplate.remove(Query.query(Criteria.where("originalFileName").is(labelPrefix)),
+                ShlContentDocument.class).block();
+        mongoTemplate.remove(Query.query(Criteria.where("recipient").is(labelPrefix)),
+                AccessLogDocument.class).block();
+        mongoTemplate.remove(Query.query(Criteria.where("label").regex("^" + labelPrefix)), ShlDocument.class).block();
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {10_000, 100_000, 1_000_000})
+    void aggregationListingVersusPerRowCounts(int shlCount) throws Exception {
+        seed(shlCount);
+        ShlListFilter labelFilter = new ShlListFilter(true, null, null, null, labelPrefix);
+
+        long[] perRow = measure(() -> shlRepository.findAllBy(PageRequest.of(0, PAGE_SIZE))
+                .flatMap(shl -> Mono.zip(
+                        shlContentRepository.countByShlId(shl.getId()),
+                        accessLogRepository.countByShlIdAndSuccess(shl.getId(), true)))
+                .collectList()
+                .block());
+        long[] aggregation = measure(() -> shlRepository.findSummaries(ShlListFilter.none(), null, PAGE_SIZE + 1, false)
+                .block());
+        long[] deepPage = measure(() -> shlRepository.findSummaries(ShlListFilter.none(),
+                        new PageCursor(Instant.ofEpochMilli(shlCount / 2), new ObjectId().toHexString()),
+                        PAGE_SIZE + 1, false)
+                .block());
+        long[] filteredWithTotal = measure(() -> shlRepository.findSummaries(labelFilter, null, PAGE_SIZE + 1, true)
+                .block());
+
+        log.info("{} SHLs (page of {}): per-row counts {} | aggregation {} | deep page {} | filtered + total {}",
+                String.format("%,d", shlCount), PAGE_SIZE, summary(perRow), summary(aggregation), summary(deepPage),
+                summary(filteredWithTotal));
+
+        ShlRepositoryCustom.Listing listing = shlRepository.findSummaries(labelFilter, null, PAGE_SIZE, true).block();
+        assertThat(listing.rows()).hasSize(PAGE_SIZE);
+        assertThat(listing.total()).isEqualTo(shlCount);
+    }
+
+    private void seed(int shlCount) {
+        Flux.range(0, (shlCount + INSERT_BATCH - 1) / INSERT_BATCH)
+                .concatMap(batch -> {
+                    List<ShlDocument> shls = new ArrayList<>();
+                    List<ShlContentDocument> contents = new ArrayList<>();
+                    List<AccessLogDocument> logs = new ArrayList<>();
+                    int end = Math.min(shlCount, (batch + 1) * INSERT_BATCH);
+                    for (int i = batch * INSERT_BATCH; i < end; i++) {
+                        String id = new ObjectId().toHexString();
+                        // Synthetic creation times keep the (createdAt, _id) order deterministic
+                        Instant createdAt = Instant.ofEpochMilli(i);
+                        shls.add(ShlDocument.builder()
+                                .id(id)
+                                .manifestId(labelPrefix + i)
+                                .label(labelPrefix + i)
+                                .flags(i % 3 == 0 ? "P" : "")
+                                .active(true)
+                                .createdAt(createdAt)
+                                .contentCount(1)
+                                .successfulAccessCount(2)
+                                .build());
+                        contents.add(ShlContentDocument.builder().shlId(id).contentType("application/fhir+json")
+                                .originalFileName(labelPrefix).build());
+                        for (int n = 0; n < 2; n++) {
+                            logs.add(AccessLogDocument.builder().id(new ObjectId().toHexString()).shlId(id)
+                                    .recipient(labelPrefix).action("MANIFEST_REQUEST").success(true)
+                                    .createdAt(createdAt).build());
+                        }
+                    }
+                    return mongoTemplate.insert(shls, ShlDocument.class)
+                            .thenMany(mongoTemplate.insert(contents, ShlContentDocument.class))
+                            .thenMany(mongoTemplate.insert(logs, AccessLogDocument.class))
+                            .then();
+                })
+                .blockLast();
+    }
+
+    private static long[] measure(Callable<?> call) throws Exception {
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            call.call();
+        }
+        long[] micros = new long[MEASURED_RUNS];
+        for (int i = 0; i < MEASURED_RUNS; i++) {
+            long start = System.nanoTime();
+            call.call();
+            micros[i] = (System.nanoTime() - start) / 1_000;
+        }
+        Arrays.sort(micros);
+        return micros;
+    }
+
+    private static String summary(long[] sortedMicros) {
+        return String.format("p50 %.2f ms, p95 %.2f ms",
+                sortedMicros[sortedMicros.length / 2] / 1000.0,
+                sortedMicros[(int) (sortedMicros.length * 0.95)] / 1000.0);
+    }
+}
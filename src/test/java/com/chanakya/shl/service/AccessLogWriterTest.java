@@ -0,0 +1,172 @@
+package com.chanakya.shl.service;
+
+import com.chanakya.shl.config.AppProperties;
+import com.chanakya.shl.config.AppProperties.AccessLogProperties.OverflowPolicy;
+import com.chanakya.shl.model.document.AccessLogDocument;
+import com.chanakya.shl.repository.ShlRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class AccessLogWriterTest {
+
+    private final ReactiveMongoTemplate mongoTemplate = mock(ReactiveMongoTemplate.class);
+    private final ShlRepository shlRepository = mock(ShlRepository.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AppProperties appProperties = new AppProperties();
+    private final List<List<String>> batches = new CopyOnWriteArrayList<>();
+    private final List<String> directInserts = new CopyOnWriteArrayList<>();
+    private final List<Map<String, Long>> counterIncrements = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        AppProperties.AccessLogProperties props = appProperties.getAccessLog();
+        props.setBufferCapacity(5);
+        props.setBatchSize(2);
+        props.setFlushInterval(Duration.ofHours(1));
+
+        when(mongoTemplate.insertAll(anyCollection())).thenAnswer(invocation -> {
+            Collection<AccessLogDocument> docs = invocation.getArgument(0);
+            batches.add(docs.stream().map(AccessLogDocument::getShlId).toList());
+            return Flux.fromIterable(docs);
+        });
+        when(mongoTemplate.insert(any(AccessLogDocument.class))).thenAnswer(invocation -> {
+            AccessLogDocument doc = invocation.getArgument(0);
+            directInserts.add(doc.getShlId());
+            return Mono.just(doc);
+        });
+        when(shlRepository.incrementAccessCounts(anyMap())).thenAnswer(invocation -> {
+            counterIncrements.add(invocation.getArgument(0));
+            return Mono.empty();
+        });
+    }
+
+    @Test
+    void flushWritesInBatches() {
+        AccessLogWriter writer = newWriter();
+        enqueue(writer, 5);
+
+        writer.flush().block();
+
+        assertThat(batches).containsExactly(List.of("shl-0", "shl-1"), List.of("shl-2", "shl-3"), List.of("shl-4"));
+        assertThat(meterRegistry.get("shl.access-log.batch.size").summary().count()).isEqualTo(3);
+        assertThat(meterRegistry.get("shl.access-log.queue.depth").gauge().value()).isZero();
+    }
+
+    @Test
+    void successfulAccessesAreCoalescedPerShl() {
+        appProperties.getAccessLog().setBatchSize(10);
+        AccessLogWriter writer = newWriter();
+        writer.enqueue(event("shl-a", true));
+        writer.enqueue(event("shl-a", true));
+        writer.enqueue(event("shl-b", true));
+        writer.enqueue(event("shl-a", false));
+        writer.enqueue(event("shl-a", true));
+
+        writer.flush().block();
+
+        assertThat(counterIncrements).containsExactly(Map.of("shl-a", 3L, "shl-b", 1L));
+    }
+
+    @Test
+    void dropNewestDiscardsIncomingEvents() {
+        appProperties.getAccessLog().setOverflowPolicy(OverflowPolicy.DROP_NEWEST);
+        AccessLogWriter writer = newWriter();
+        enqueue(writer, 7);
+
+        writer.flush().block();
+
+        assertThat(flattened()).containsExactly("shl-0", "shl-1", "shl-2", "shl-3", "shl-4");
+        assertThat(meterRegistry.get("shl.access-log.dropped").counter().count()).isEqualTo(2);
+    }
+
+    @Test
+    void dropOldestKeepsMostRecentEvents() {
+        appProperties.getAccessLog().setOverflowPolicy(OverflowPolicy.DROP_OLDEST);
+        AccessLogWriter writer = newWriter();
+        enqueue(writer, 7);
+
+        writer.flush().block();
+
+        assertThat(flattened()).containsExactly("shl-2", "shl-3", "shl-4", "shl-5", "shl-6");
+        assertThat(meterRegistry.get("shl.access-log.dropped").counter().count()).isEqualTo(2);
+    }
+
+    @Test
+    void writeThroughBypassesFullBuffer() {
+        appProperties.getAccessLog().setOverflowPolicy(OverflowPolicy.WRITE_THROUGH);
+        AccessLogWriter writer = newWriter();
+        enqueue(writer, 7);
+
+        assertThat(directInserts).containsExactly("shl-5", "shl-6");
+        writer.flush().block();
+        assertThat(flattened()).hasSize(5);
+        assertThat(meterRegistry.get("shl.access-log.dropped").counter().count()).isZero();
+    }
+
+    @Test
+    void stopFlushesBufferedEvents() {
+        AccessLogWriter writer = newWriter();
+        writer.start();
+        enqueue(writer, 1);
+
+        writer.stop();
+
+        assertThat(flattened()).containsExactly("shl-0");
+        assertThat(writer.isRunning()).isFalse();
+    }
+
+    @Test
+    void fullBatchIsWrittenWithoutWaitingForInterval() {
+        AccessLogWriter writer = newWriter();
+        writer.start();
+        try {
+            enqueue(writer, 2);
+
+            long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+            while (batches.isEmpty() && System.nanoTime() < deadline) {
+                Thread.onSpinWait();
+            }
+            assertThat(flattened()).containsExactly("shl-0", "shl-1");
+        } finally {
+            writer.stop();
+        }
+    }
+
+    private AccessLogWriter newWriter() {
+        return new AccessLogWriter(mongoTemplate, shlRepository, appProperties, meterRegistry);
+    }
+
+    private static AccessLogDocument event(String shlId, boolean success) {
+        return AccessLogDocument.builder().shlId(shlId).action("MANIFEST_REQUEST").success(success).build();
+    }
+
+    private static void enqueue(AccessLogWriter writer, int count) {
+        for (int i = 0; i < count; i++) {
+            writer.enqueue(AccessLogDocument.builder().shlId("shl-" + i).action("MANIFEST_REQUEST").build());
+        }
+    }
+
+    private List<String> flattened() {
+        List<String> all = new ArrayList<>();
+        batches.forEach(all::addAll);
+        return all;
+    }
+}
@@ -0,0 +1,112 @@
+package com.chanakya.shl.service;
+
+import com.chanakya.shl.cache.ConsumedFileTokenSet;
+import com.chanakya.shl.config.AppProperties;
+import com.chanakya.shl.exception.ShlExpiredException;
+import com.chanakya.shl.exception.ShlNotFoundException;
+import com.chanakya.shl.model.document.ConsumedFileToken;
+import com.chanakya.shl.model.document.ShlContentDocument;
+import com.chanakya.shl.util.SecureRandomUtil;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class FileTokenServiceTest {
+
+    private final ReactiveMongoTemplate mongoTemplate = mock(ReactiveMongoTemplate.class);
+    private final Set<String> storedIds = ConcurrentHashMap.newKeySet();
+    private final AppProperties appProperties = new AppProperties();
+
+    @BeforeEach
+    void setUp() {
+        appProperties.getFileToken().setMode(AppProperties.FileTokenProperties.Mode.SIGNED);
+        appProperties.getFileToken().setSigningKey(
+                Base64.getEncoder().encodeToString(SecureRandomUtil.generateRandomBytes(32)));
+        // Stands in for the unique _id of consumed_file_tokens
+        when(mongoTemplate.insert(any(ConsumedFileToken.class))).thenAnswer(invocation -> {
+            ConsumedFileToken record = invocation.getArgument(0);
+            return storedIds.add(record.getId())
+                    ? Mono.just(record)
+                    : Mono.error(new DuplicateKeyException("E11000 duplicate key"));
+        });
+    }
+
+    @Test
+    void redeemsATokenOnceFromItsOwnClaims() {
+        FileTokenService tokens = newService();
+        String token = tokens.issue(content());
+
+        FileTokenService.SignedFileToken redeemed = tokens.redeem(token).block(Duration.ofSeconds(5));
+
+        assertThat(FileTokenService.isSignedToken(token)).isTrue();
+        assertThat(redeemed.shlId()).isEqualTo("shl-1");
+        assertThat(redeemed.contentId()).isEqualTo("c-1");
+        assertThat(redeemed.s3Key()).isEqualTo("payloads/shl-1/c-1.jwe");
+        assertThatThrownBy(() -> tokens.redeem(token).block(Duration.ofSeconds(5)))
+                .isInstanceOf(ShlNotFoundException.class);
+        // The replay was answered locally
+        verify(mongoTemplate, times(1)).insert(any(ConsumedFileToken.class));
+    }
+
+    @Test
+    void anotherInstanceSeesTheTokenAsConsumed() {
+        String token = newService().issue(content());
+
+        newService().redeem(token).block(Duration.ofSeconds(5));
+
+        assertThatThrownBy(() -> newService().redeem(token).block(Duration.ofSeconds(5)))
+                .isInstanceOf(ShlNotFoundException.class);
+    }
+
+    @Test
+    void rejectsTamperedForeignAndExpiredTokens() {
+        FileTokenService tokens = newService();
+        String token = tokens.issue(content());
+        String claims = token.substring(0, token.indexOf('.'));
+        String forgedClaims = Base64.getUrlEncoder().withoutPadding().encodeToString(
+                "id\nshl-2\nc-9\npayloads/shl-2/c-9.jwe\n9999999999".getBytes());
+
+        assertThatThrownBy(() -> tokens.verify(forgedClaims + token.substring(claims.length())))
+                .isInstanceOf(ShlNotFoundException.class);
+        assertThatThrownBy(() -> tokens.verify(claims + ".not-a-signature"))
+                .isInstanceOf(ShlNotFoundException.class);
+
+        appProperties.getFileToken().setSigningKey(
+                Base64.getEncoder().encodeToString(SecureRandomUtil.generateRandomBytes(32)));
+        assertThatThrownBy(() -> newService().verify(token)).isInstanceOf(ShlNotFoundException.class);
+
+        FileTokenService expiring = newService();
+        appProperties.setFileTokenTtlMinutes(-1);
+        assertThatThrownBy(() -> expiring.verify(expiring.issue(content())))
+                .isInstanceOf(ShlExpiredException.class);
+    }
+
+    private FileTokenService newService() {
+        return new FileTokenService(appProperties,
+                new ConsumedFileTokenSet(mongoTemplate, appProperties, new SimpleMeterRegistry()));
+    }
+
+    private static ShlContentDocument content() {
+        return ShlContentDocument.builder()
+                .id("c-1")
+                .shlId("shl-1")
+                .s3Key("payloads/shl-1/c-1.jwe")
+                .build();
+    }
+}
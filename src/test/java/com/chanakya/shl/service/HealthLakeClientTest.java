@@ -0,0 +1,150 @@
+package com.chanakya.shl.service;
+
+import com.chanakya.shl.config.AppProperties;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs the HealthLake client against a local stub that fails a set number of times.
+ */
+class HealthLakeClientTest {
+
+    private static final String EMPTY_PAGE = "{\"resourceType\":\"Bundle\",\"type\":\"searchset\",\"entry\":[]}";
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AppProperties appProperties = new AppProperties();
+    private final DefaultCredentialsProvider credentials = mock(DefaultCredentialsProvider.class);
+    private final List<String> authorizations = new CopyOnWriteArrayList<>();
+
+    private HttpServer server;
+    private URI searchUri;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.start();
+        searchUri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/r4/Observation?_count=2");
+        appProperties.getHealthlake().getClient().setRetryMinBackoff(Duration.ofMillis(1));
+        appProperties.getHealthlake().getClient().setRetryMaxBackoff(Duration.ofMillis(5));
+        when(credentials.resolveCredentials()).thenReturn(AwsBasicCredentials.create("test", "test"));
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void retriesServerErrorsUntilTheSearchSucceeds() {
+        serveFailingFirst(2, 503);
+
+        HealthLakeClient.SearchPage page = newClient().get(searchUri, "Observation", null, null)
+                .block(Duration.ofSeconds(10));
+
+        assertThat(page.notModified()).isFalse();
+        assertThat(authorizations).hasSize(3).doesNotContainNull();
+        assertThat(meterRegistry.get("shl.healthlake.retries").tag("reason", "503").counter().count())
+                .isEqualTo(2);
+    }
+
+    @Test
+    void givesUpWithTheLastResponseOnceRetriesAreExhausted() {
+        appProperties.getHealthlake().getClient().setMaxRetries(2);
+        serveFailingFirst(Integer.MAX_VALUE, 429);
+
+        assertThatThrownBy(() -> newClient().get(searchUri, "Observation", null, null)
+                .block(Duration.ofSeconds(10)))
+                .isInstanceOf(WebClientResponseException.TooManyRequests.class);
+        assertThat(authorizations).hasSize(3);
+        assertThat(meterRegistry.get("shl.healthlake.page").tag("outcome", "error").timer().count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void doesNotRetryClientErrors() {
+        serveFailingFirst(Integer.MAX_VALUE, 403);
+
+        assertThatThrownBy(() -> newClient().get(searchUri, "Observation", null, null)
+                .block(Duration.ofSeconds(10)))
+                .isInstanceOf(WebClientResponseException.Forbidden.class);
+        assertThat(authorizations).hasSize(1);
+    }
+
+    @Test
+    void resolvesCredentialsOnceAndReusesThem() {
+        serveFailingFirst(0, 200);
+        HealthLakeClient client = newClient();
+
+        for (int i = 0; i < 3; i++) {
+            client.get(searchUri, "Observation", null, null).block(Duration.ofSeconds(10));
+        }
+
+        verify(credentials, times(1)).resolveCredentials();
+    }
+
+    @Test
+    void refreshesCredentialsInTheBackgroundBeforeTheyExpire() {
+        when(credentials.resolveCredentials()).thenReturn(AwsSessionCredentials.builder()
+                .accessKeyId("test").secretAccessKey("test").sessionToken("token")
+                .expirationTime(Instant.now().plus(Duration.ofMinutes(1)))
+                .build());
+        serveFailingFirst(0, 200);
+        HealthLakeClient client = newClient();
+
+        client.get(searchUri, "Observation", null, null).block(Duration.ofSeconds(10));
+        client.get(searchUri, "Observation", null, null).block(Duration.ofSeconds(10));
+
+        // Inside the refresh-ahead window: the second request is still signed with the cached
+        // credentials, while a refresh runs behind it
+        verify(credentials, timeout(5_000).times(2)).resolveCredentials();
+        assertThat(authorizations).hasSize(2);
+    }
+
+    private HealthLakeClient newClient() {
+        return new HealthLakeClient(appProperties, credentials, meterRegistry);
+    }
+
+    /**
+     * Answers the first {@code failures} requests with {@code status}, then with an empty page.
+     */
+    private void serveFailingFirst(int failures, int status) {
+        AtomicInteger requests = new AtomicInteger();
+        server.createContext("/r4/Observation", exchange -> {
+            authorizations.add(exchange.getRequestHeaders().getFirst("Authorization"));
+            boolean fail = requests.getAndIncrement() < failures;
+            byte[] body = (fail ? "{\"resourceType\":\"OperationOutcome\"}" : EMPTY_PAGE)
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/fhir+json");
+            exchange.sendResponseHeaders(fail ? status : 200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+    }
+}
@@ -0,0 +1,331 @@
+package com.chanakya.shl.service;
+
+import com.chanakya.shl.cache.HealthLakeBundleCache;
+import com.chanakya.shl.config.AppProperties;
+import com.chanakya.shl.model.FhirBundlePage;
+import com.chanakya.shl.model.enums.FhirCategory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscription;
+import reactor.core.publisher.BaseSubscriber;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs the HealthLake client against a local stub datastore serving canned search pages.
+ */
+class HealthLakeServiceTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AppProperties appProperties = new AppProperties();
+    private final List<String> requestedQueries = new CopyOnWriteArrayList<>();
+
+    private HttpServer server;
+    private String datastore;
+    private HealthLakeService healthLakeService;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.start();
+        datastore = "http://127.0.0.1:" + server.getAddress().getPort() + "/datastore/abc";
+        appProperties.getHealthlake().setDatastoreEndpoint(datastore);
+        appProperties.getHealthlake().setPageSize(2);
+
+        healthLakeService = newService();
+    }
+
+    private HealthLakeService newService() {
+        DefaultCredentialsProvider credentials = mock(DefaultCredentialsProvider.class);
+        when(credentials.resolveCredentials()).thenReturn(AwsBasicCredentials.create("test", "test"));
+        return new HealthLakeService(appProperties, new HealthLakeClient(appProperties, credentials, meterRegistry),
+                new HealthLakeBundleCache(appProperties, meterRegistry), objectMapper, meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void followsNextLinksAndMergesPagesIntoOneCollection() {
+        servePages("/datastore/abc/r4/Observation",
+                page(datastore + "/r4/Observation?page=2", "o1", "o2"),
+                page(datastore + "/r4/Observation?page=3", "o3", "o4"),
+                page(null, "o5"));
+
+        String bundle = healthLakeService.fetchBundle("p1", FhirCategory.LAB_RESULTS).block(Duration.ofSeconds(10));
+
+        JsonNode json = objectMapper.readTree(bundle);
+        assertThat(json.get("type").stringValue()).isEqualTo("collection");
+        assertThat(json.get("entry").size()).isEqualTo(5);
+        assertThat(json.get("entry").get(4).get("resource").get("id").stringValue()).isEqualTo("o5");
+        assertThat(json.get("entry").get(0).has("search")).isFalse();
+        assertThat(requestedQueries).containsExactly("patient=Patient/p1&_count=2", "page=2", "page=3");
+        assertThat(meterRegistry.get("shl.healthlake.page").tag("outcome", "success").timer().count()).isEqualTo(3);
+        assertThat(meterRegistry.get("shl.healthlake.fetch").tags("category", "lab_results", "outcome", "success")
+                .timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void refusesNextLinksOutsideTheDatastore() {
+        servePages("/datastore/abc/r4/Observation",
+                page("http://169.254.169.254/latest/meta-data?page=2", "o1"));
+
+        assertThatThrownBy(() -> healthLakeService.fetchBundle("p1", FhirCategory.LAB_RESULTS)
+                .block(Duration.ofSeconds(10)))
+                .hasMessageContaining("outside the datastore");
+        assertThat(requestedQueries).hasSize(1);
+    }
+
+    @Test
+    void stopsAfterMaxPages() {
+        appProperties.getHealthlake().setMaxPages(2);
+        servePages("/datastore/abc/r4/Observation",
+                page(datastore + "/r4/Observation?page=2", "o1"),
+                page(datastore + "/r4/Observation?page=3", "o2"),
+                page(null, "o3"));
+
+        assertThatThrownBy(() -> healthLakeService.fetchBundle("p1", FhirCategory.LAB_RESULTS)
+                .block(Duration.ofSeconds(10)))
+                .hasMessageContaining("exceeded 2 pages");
+    }
+
+    @Test
+    void fetchPagesOnlyRequestsTheNextPageOnceTheLastOneIsConsumed() throws InterruptedException {
+        servePages("/datastore/abc/r4/Observation",
+                page(datastore + "/r4/Observation?page=2", "o1", "o2"),
+                page(null, "o3"));
+        BlockingQueue<FhirBundlePage> received = new LinkedBlockingQueue<>();
+        BaseSubscriber<FhirBundlePage> oneAtATime = new BaseSubscriber<>() {
+            @Override
+            protected void hookOnSubscribe(Subscription subscription) {
+                request(1);
+            }
+
+            @Override
+            protected void hookOnNext(FhirBundlePage page) {
+                received.add(page);
+            }
+        };
+
+        healthLakeService.fetchPages("p1", FhirCategory.LAB_RESULTS).subscribe(oneAtATime);
+
+        assertThat(received.poll(10, TimeUnit.SECONDS).entries()).hasSize(2);
+        // Leave time for an eager request for page 2 to show up
+        Thread.sleep(200);
+        assertThat(requestedQueries).containsExactly("patient=Patient/p1&_count=2");
+
+        oneAtATime.request(1);
+        assertThat(received.poll(10, TimeUnit.SECONDS).entries()).hasSize(1);
+        assertThat(requestedQueries).containsExactly("patient=Patient/p1&_count=2", "page=2");
+    }
+
+    @Test
+    void fetchPagesAppliesTheDatastoreAndPageGuards() {
+        appProperties.getHealthlake().setMaxPages(2);
+        servePages("/datastore/abc/r4/Observation",
+                page("http://169.254.169.254/latest/meta-data?page=2", "o1"));
+        servePages("/datastore/abc/r4/Immunization",
+                page(datastore + "/r4/Immunization?page=2", "i1"),
+                page(datastore + "/r4/Immunization?page=3", "i2"),
+                page(null, "i3"));
+
+        assertThatThrownBy(() -> healthLakeService.fetchPages("p1", FhirCategory.LAB_RESULTS)
+                .blockLast(Duration.ofSeconds(10)))
+                .hasMessageContaining("outside the datastore");
+        assertThatThrownBy(() -> healthLakeService.fetchPages("p1", FhirCategory.IMMUNIZATIONS)
+                .blockLast(Duration.ofSeconds(10)))
+                .hasMessageContaining("exceeded 2 pages");
+        assertThat(requestedQueries).hasSize(3);
+    }
+
+    @Test
+    void everythingModeFetchesAllCategoriesInOneSearchAndSplitsThem() {
+        appProperties.getHealthlake().setFetchMode(AppProperties.HealthLakeProperties.FetchMode.EVERYTHING);
+        servePages("/datastore/abc/r4/Patient/p1/$everything",
+                mixedPage(datastore + "/r4/Patient/p1/$everything?page=2",
+                        "Patient/p1", "Observation/o1", "Immunization/i1"),
+                mixedPage(null, "Observation/o2", "Procedure/x1"));
+
+        List<String> bundles = healthLakeService.fetchBundles("p1",
+                        List.of(FhirCategory.IMMUNIZATIONS, FhirCategory.LAB_RESULTS))
+                .collectList()
+                .block(Duration.ofSeconds(10));
+
+        assertThat(requestedQueries).containsExactly("_type=Immunization,Observation&_count=2", "page=2");
+        assertThat(bundles).hasSize(2);
+        assertThat(resourceIds(bundles.get(0))).containsExactly("i1");
+        assertThat(resourceIds(bundles.get(1))).containsExactly("o1", "o2");
+    }
+
+    @Test
+    void everythingModeCanKeepCategoriesCombined() {
+        appProperties.getHealthlake().setFetchMode(AppProperties.HealthLakeProperties.FetchMode.EVERYTHING);
+        appProperties.getHealthlake().setCombineCategories(true);
+        servePages("/datastore/abc/r4/Patient/p1/$everything",
+                mixedPage(null, "Patient/p1", "Observation/o1", "Immunization/i1", "Observation/o2"));
+
+        List<String> bundles = healthLakeService.fetchBundles("p1",
+                        List.of(FhirCategory.IMMUNIZATIONS, FhirCategory.LAB_RESULTS))
+                .collectList()
+                .block(Duration.ofSeconds(10));
+
+        assertThat(requestedQueries).hasSize(1);
+        assertThat(bundles).hasSize(1);
+        // Entries are cached per category, so the combined bundle follows the requested order
+        assertThat(resourceIds(bundles.get(0))).containsExactly("i1", "o1", "o2");
+    }
+
+    @Test
+    void servesRepeatFetchesFromTheCacheWhileFresh() {
+        servePages("/datastore/abc/r4/Observation",
+                page(datastore + "/r4/Observation?page=2", "o1", "o2"),
+                page(null, "o3"));
+
+        String first = healthLakeService.fetchBundle("p1", FhirCategory.LAB_RESULTS).block(Duration.ofSeconds(10));
+        String second = healthLakeService.fetchBundle("p1", FhirCategory.LAB_RESULTS).block(Duration.ofSeconds(10));
+
+        assertThat(requestedQueries).hasSize(2);
+        assertThat(second).isEqualTo(first);
+        assertThat(resourceIds(second)).containsExactly("o1", "o2", "o3");
+    }
+
+    @Test
+    void revalidatesStaleSinglePageResultsWithTheirEtag() {
+        appProperties.getHealthlake().getCache().setFreshFor(Duration.ZERO);
+        healthLakeService = newService();
+        List<String> ifNoneMatch = new CopyOnWriteArrayList<>();
+        server.createContext("/datastore/abc/r4/Observation", exchange -> {
+            String validator = exchange.getRequestHeaders().getFirst("If-None-Match");
+            ifNoneMatch.add(String.valueOf(validator));
+            exchange.getResponseHeaders().add("ETag", "\"v1\"");
+            if ("\"v1\"".equals(validator)) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+            } else {
+                respond(exchange, page(null, "o1"));
+            }
+        });
+
+        String first = healthLakeService.fetchBundle("p1", FhirCategory.LAB_RESULTS).block(Duration.ofSeconds(10));
+        String second = healthLakeService.fetchBundle("p1", FhirCategory.LAB_RESULTS).block(Duration.ofSeconds(10));
+
+        assertThat(ifNoneMatch).containsExactly("null", "\"v1\"");
+        assertThat(second).isEqualTo(first);
+        assertThat(meterRegistry.get("shl.healthlake.page").tag("outcome", "not-modified").timer().count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void everythingModeOnlySearchesCategoriesWithoutAFreshCachedResult() {
+        servePages("/datastore/abc/r4/Observation", page(null, "o1"));
+        healthLakeService.fetchBundle("p1", FhirCategory.LAB_RESULTS).block(Duration.ofSeconds(10));
+        requestedQueries.clear();
+
+        appProperties.getHealthlake().setFetchMode(AppProperties.HealthLakeProperties.FetchMode.EVERYTHING);
+        servePages("/datastore/abc/r4/Patient/p1/$everything",
+                mixedPage(null, "Patient/p1", "Immunization/i1"));
+
+        List<String> bundles = healthLakeService.fetchBundles("p1",
+                        List.of(FhirCategory.IMMUNIZATIONS, FhirCategory.LAB_RESULTS))
+                .collectList()
+                .block(Duration.ofSeconds(10));
+
+        assertThat(requestedQueries).containsExactly("_type=Immunization&_count=2");
+        assertThat(resourceIds(bundles.get(0))).containsExactly("i1");
+        assertThat(resourceIds(bundles.get(1))).containsExactly("o1");
+    }
+
+    @Test
+    void rejectsPatientIdsThatWouldAlterTheRequestUrl() {
+        assertThatThrownBy(() -> healthLakeService.fetchBundles("p1&_count=1000",
+                        List.of(FhirCategory.LAB_RESULTS))
+                .blockLast(Duration.ofSeconds(10)))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(requestedQueries).isEmpty();
+    }
+
+    private List<String> resourceIds(String bundle) {
+        JsonNode entries = objectMapper.readTree(bundle).get("entry");
+        return IntStream.range(0, entries.size())
+                .mapToObj(i -> entries.get(i).get("resource").get("id").stringValue())
+                .toList();
+    }
+
+    private void servePages(String path, String... pages) {
+        server.createContext(path, exchange -> {
+            String query = exchange.getRequestURI().getRawQuery();
+            requestedQueries.add(query);
+            int index = query.startsWith("page=") ? Integer.parseInt(query.substring(5)) - 1 : 0;
+            respond(exchange, pages[index]);
+        });
+    }
+
+    private static void respond(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/fhir+json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * A page of {@code Type/id} references, as {@code $everything} returns them.
+     */
+    private static String mixedPage(String next, String... references) {
+        StringBuilder json = new StringBuilder("{\"resourceType\":\"Bundle\",\"type\":\"searchset\",\"link\":[");
+        if (next != null) {
+            json.append("{\"relation\":\"next\",\"url\":\"").append(next).append("\"}");
+        }
+        json.append("],\"entry\":[");
+        for (int i = 0; i < references.length; i++) {
+            String[] parts = references[i].split("/");
+            json.append(i > 0 ? "," : "")
+                    .append("{\"resource\":{\"resourceType\":\"").append(parts[0])
+                    .append("\",\"id\":\"").append(parts[1]).append("\"}}");
+        }
+        return json.append("]}").toString();
+    }
+
+    private static String page(String next, String... ids) {
+        StringBuilder json = new StringBuilder("{\"resourceType\":\"Bundle\",\"type\":\"searchset\",\"link\":[")
+                .append("{\"relation\":\"self\",\"url\":\"ignored\"}");
+        if (next != null) {
+            json.append(",{\"relation\":\"next\",\"url\":\"").append(next).append("\"}");
+        }
+        json.append("],\"entry\":[");
+        for (int i = 0; i < ids.length; i++) {
+            json.append(i > 0 ? "," : "")
+                    .append("{\"fullUrl\":\"Observation/").append(ids[i]).append("\",")
+                    .append("\"resource\":{\"resourceType\":\"Observation\",\"id\":\"").append(ids[i]).append("\"},")
+                    .append("\"search\":{\"mode\":\"match\"}}");
+        }
+        return json.append("]}").toString();
+    }
+}
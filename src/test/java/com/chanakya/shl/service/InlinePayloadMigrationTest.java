@@ -0,0 +1,84 @@
+package com.chanakya.shl.service;
+
+import com.chanakya.shl.config.AppProperties;
+import com.chanakya.shl.model.document.ShlContentDocument;
+import com.chanakya.shl.util.DigestUtil;
+import com.mongodb.client.result.UpdateResult;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class InlinePayloadMigrationTest {
+
+    private final ReactiveMongoTemplate mongoTemplate = mock(ReactiveMongoTemplate.class);
+    private final S3StorageService s3StorageService = mock(S3StorageService.class);
+    private final AppProperties appProperties = new AppProperties();
+    private final InlinePayloadMigration migration =
+            new InlinePayloadMigration(mongoTemplate, s3StorageService, appProperties);
+
+    @Test
+    void movesIntactPayloadsInlineAndDeletesTheirObjects() {
+        byte[] jwe = "header..iv.ciphertext.tag".getBytes(StandardCharsets.US_ASCII);
+        when(mongoTemplate.find(any(Query.class), eq(ShlContentDocument.class))).thenReturn(Flux.just(
+                content("moved", DigestUtil.sha256Hex(jwe)),
+                content("corrupt", "0".repeat(64)),
+                content("gone", null)));
+        when(s3StorageService.getObjectBytes("payloads/shl-1/moved.jwe")).thenReturn(Mono.just(jwe));
+        when(s3StorageService.getObjectBytes("payloads/shl-1/corrupt.jwe")).thenReturn(Mono.just(jwe));
+        when(s3StorageService.getObjectBytes("payloads/shl-1/gone.jwe")).thenReturn(Mono.empty());
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(ShlContentDocument.class)))
+                .thenReturn(Mono.just(UpdateResult.acknowledged(1, 1L, null)));
+        when(s3StorageService.deleteObjects(anyList())).thenReturn(Mono.empty());
+
+        assertThat(migration.migrate().block(Duration.ofSeconds(10))).isEqualTo(1);
+        verify(mongoTemplate, times(1)).updateFirst(any(Query.class), any(Update.class), eq(ShlContentDocument.class));
+        verify(s3StorageService).deleteObjects(List.of("payloads/shl-1/moved.jwe"));
+    }
+
+    @Test
+    void keepsTheObjectWhenTheRecordChangedUnderneath() {
+        byte[] jwe = "jwe".getBytes(StandardCharsets.US_ASCII);
+        when(mongoTemplate.find(any(Query.class), eq(ShlContentDocument.class)))
+                .thenReturn(Flux.just(content("raced", null)));
+        when(s3StorageService.getObjectBytes("payloads/shl-1/raced.jwe")).thenReturn(Mono.just(jwe));
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(ShlContentDocument.class)))
+                .thenReturn(Mono.just(UpdateResult.acknowledged(0, 0L, null)));
+
+        assertThat(migration.migrate().block(Duration.ofSeconds(10))).isZero();
+        verify(s3StorageService, never()).deleteObjects(anyList());
+    }
+
+    @Test
+    void doesNothingWhenInlineStorageIsDisabled() {
+        appProperties.getInlinePayloads().setMaxSize(DataSize.ofBytes(0));
+
+        assertThat(migration.migrate().block(Duration.ofSeconds(10))).isZero();
+        verify(mongoTemplate, never()).find(any(Query.class), eq(ShlContentDocument.class));
+    }
+
+    private static ShlContentDocument content(String id, String contentHash) {
+        return ShlContentDocument.builder()
+                .id(id)
+                .s3Key("payloads/shl-1/" + id + ".jwe")
+                .contentHash(contentHash)
+                .build();
+    }
+}
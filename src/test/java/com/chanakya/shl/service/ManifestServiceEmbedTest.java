@@ -0,0 +1,205 @@
+package com.chanakya.shl.service;
+
+import com.chanakya.shl.cache.ManifestTemplateCache;
+import com.chanakya.shl.cache.ShlLookupCache;
+import com.chanakya.shl.config.AppProperties;
+import com.chanakya.shl.model.ManifestJson;
+import com.chanakya.shl.model.document.FileDownloadToken;
+import com.chanakya.shl.model.document.ShlContentDocument;
+import com.chanakya.shl.model.document.ShlDocument;
+import com.chanakya.shl.model.dto.request.ManifestRequest;
+import com.chanakya.shl.model.dto.response.ManifestFileEntry;
+import com.chanakya.shl.model.dto.response.ManifestResponse;
+import com.chanakya.shl.model.enums.PayloadStorage;
+import com.chanakya.shl.repository.ShlContentRepository;
+import com.chanakya.shl.repository.ShlRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.ObjectMapper;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Embed-or-link decisions in the manifest, driven by the stored JWE length and storage tier,
+ * on both the built and the templated path.
+ */
+class ManifestServiceEmbedTest {
+
+    private final ShlLookupCache shlLookupCache = mock(ShlLookupCache.class);
+    private final ShlContentRepository shlContentRepository = mock(ShlContentRepository.class);
+    private final S3StorageService s3StorageService = mock(S3StorageService.class);
+    private final ShlPayloadService shlPayloadService = mock(ShlPayloadService.class);
+    private final AccessLogService accessLogService = mock(AccessLogService.class);
+    private final ReactiveMongoTemplate mongoTemplate = mock(ReactiveMongoTemplate.class);
+    private final AppProperties appProperties = new AppProperties();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private ManifestService manifestService;
+
+    @BeforeEach
+    void setUp() {
+        ShlDocument shl = ShlDocument.builder().id("shl-1").manifestId("m1").flags("").active(true).build();
+        when(shlLookupCache.findByManifestId("m1")).thenReturn(Mono.just(shl));
+        when(shlContentRepository.findByShlIdOrderBySequenceAsc("shl-1")).thenReturn(Flux.just(
+                content("small", 10L),
+                content("large", 1_000L),
+                content("legacy-small", null),
+                content("legacy-large", null),
+                ShlContentDocument.builder().id("inline").shlId("shl-1").contentType("application/fhir+json")
+                        .storage(PayloadStorage.INLINE).inlinePayload("inline-jwe").jweLength(10L).build()));
+        when(s3StorageService.downloadPayload("small")).thenReturn(Mono.just("x".repeat(10)));
+        when(s3StorageService.downloadPayload("legacy-small")).thenReturn(Mono.just("x".repeat(5)));
+        when(s3StorageService.downloadPayload("legacy-large")).thenReturn(Mono.just("x".repeat(50)));
+        when(mongoTemplate.save(any(FileDownloadToken.class)))
+                .thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+        when(shlPayloadService.buildFileDownloadUrl(anyString())).thenReturn("https://shl.example/file");
+        when(accessLogService.logAccess(eq("shl-1"), any(), any(), any(), anyBoolean(), any()))
+                .thenReturn(Mono.empty());
+
+        manifestService = newManifestService();
+    }
+
+    @Test
+    void onlyFetchesPayloadsThatWillBeEmbedded() {
+        ManifestResponse manifest = manifest(20);
+
+        assertThat(manifest.getFiles()).extracting(ManifestFileEntry::getEmbedded)
+                .containsExactly("x".repeat(10), null, "x".repeat(5), null, "inline-jwe");
+        assertThat(manifest.getFiles()).extracting(ManifestFileEntry::getLocation)
+                .containsExactly(null, "https://shl.example/file", null, "https://shl.example/file", null);
+        verify(s3StorageService, never()).downloadPayload("large");
+        verify(s3StorageService, never()).downloadPayload(null);
+    }
+
+    @Test
+    void linksEverythingWithoutAnEmbeddingLimit() {
+        ManifestResponse manifest = manifest(null);
+
+        assertThat(manifest.getFiles()).hasSize(5).allMatch(file -> file.getLocation() != null);
+        verify(s3StorageService, never()).downloadPayload(anyString());
+    }
+
+    @Test
+    void templatedManifestMatchesTheBuiltOneAndIsOnlyBuiltOnce() {
+        JsonNode built = builtManifest(20);
+
+        for (int i = 0; i < 3; i++) {
+            ManifestJson served = serve(20);
+            assertThat(served.status()).isEqualTo("finalized");
+            assertThat(objectMapper.readTree(served.body())).isEqualTo(built);
+        }
+        JsonNode linksOnly = objectMapper.readTree(serve(null).body());
+        assertThat(linksOnly.get("files")).hasSize(5).allMatch(file -> file.has("location") && !file.has("embedded"));
+
+        // Once for the built manifest, once for the template
+        verify(shlContentRepository, times(2)).findByShlIdOrderBySequenceAsc("shl-1");
+    }
+
+    @Test
+    void concurrentRequestsAllGetTheBuiltManifest() {
+        JsonNode built = builtManifest(20);
+
+        List<JsonNode> served = Flux.range(0, 32)
+                .flatMap(i -> manifestService
+                        .serveManifest("m1", request(20), MockServerHttpRequest.post("/").build())
+                        .subscribeOn(Schedulers.parallel()))
+                .map(manifest -> objectMapper.readTree(manifest.body()))
+                .collectList()
+                .block(Duration.ofSeconds(10));
+
+        assertThat(served).hasSize(32).allMatch(built::equals);
+    }
+
+    @Test
+    void templateSurvivesAPayloadMovedInlineAfterItWasBuilt() {
+        serve(20);
+
+        // InlinePayloadMigration moved "small" onto its record and deleted the object
+        ShlContentDocument migrated = ShlContentDocument.builder().id("small").shlId("shl-1")
+                .contentType("application/fhir+json").storage(PayloadStorage.INLINE)
+                .inlinePayload("y".repeat(10)).jweLength(10L).build();
+        when(shlContentRepository.findById("small")).thenReturn(Mono.just(migrated));
+        when(s3StorageService.downloadPayload("small"))
+                .thenReturn(Mono.error(NoSuchKeyException.builder().message("gone").build()));
+        when(shlContentRepository.findByShlIdOrderBySequenceAsc("shl-1")).thenReturn(Flux.just(migrated));
+
+        JsonNode afterMigration = objectMapper.readTree(serve(20).body());
+        assertThat(afterMigration.get("files").get(0).get("embedded").stringValue()).isEqualTo("y".repeat(10));
+
+        assertThat(objectMapper.readTree(serve(20).body()).get("files").get(0).get("embedded").stringValue())
+                .isEqualTo("y".repeat(10));
+        // Built for the first request, rebuilt after the stale template was dropped
+        verify(shlContentRepository, times(2)).findByShlIdOrderBySequenceAsc("shl-1");
+    }
+
+    private ManifestService newManifestService() {
+        return new ManifestService(mock(ShlRepository.class), shlLookupCache, shlContentRepository,
+                s3StorageService, shlPayloadService, accessLogService, appProperties, mongoTemplate,
+                mock(PasscodeService.class), mock(FileTokenService.class),
+                new ContentPayloadService(s3StorageService),
+                new ManifestTemplateCache(objectMapper, appProperties, new SimpleMeterRegistry()), objectMapper,
+                new SimpleMeterRegistry());
+    }
+
+    private ManifestJson serve(Integer embeddedLengthMax) {
+        return serve(manifestService, embeddedLengthMax);
+    }
+
+    private static ManifestJson serve(ManifestService service, Integer embeddedLengthMax) {
+        return service.serveManifest("m1", request(embeddedLengthMax), MockServerHttpRequest.post("/").build())
+                .block(Duration.ofSeconds(10));
+    }
+
+    private ManifestResponse manifest(Integer embeddedLengthMax) {
+        return objectMapper.readValue(serve(embeddedLengthMax).body(), ManifestResponse.class);
+    }
+
+    /**
+     * The same request served without templates, i.e. built from the content records.
+     */
+    private JsonNode builtManifest(Integer embeddedLengthMax) {
+        appProperties.getManifestCache().setTemplatesEnabled(false);
+        try {
+            return objectMapper.readTree(serve(newManifestService(), embeddedLengthMax).body());
+        } finally {
+            appProperties.getManifestCache().setTemplatesEnabled(true);
+        }
+    }
+
+    private static ManifestRequest request(Integer embeddedLengthMax) {
+        return ManifestRequest.builder()
+                .recipient("test")
+                .embeddedLengthMax(embeddedLengthMax)
+                .build();
+    }
+
+    private static ShlContentDocument content(String s3Key, Long jweLength) {
+        return ShlContentDocument.builder()
+                .id(s3Key)
+                .shlId("shl-1")
+                .contentType("application/fhir+json")
+                .s3Key(s3Key)
+                .jweLength(jweLength)
+                .build();
+    }
+}
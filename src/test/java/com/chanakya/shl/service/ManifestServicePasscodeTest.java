@@ -0,0 +1,146 @@
+package com.chanakya.shl.service;
+
+import com.chanakya.shl.exception.InvalidPasscodeException;
+import com.chanakya.shl.exception.ShlInactiveException;
+import com.chanakya.shl.model.ManifestJson;
+import com.chanakya.shl.model.document.ShlDocument;
+import com.chanakya.shl.model.dto.request.ManifestRequest;
+import com.chanakya.shl.repository.ShlRepository;
+import com.chanakya.shl.util.SecureRandomUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import tools.jackson.databind.ObjectMapper;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Concurrent passcode attempts against a real MongoDB (same requirement as
+ * {@code ShlApplicationTests}).
+ */
+@SpringBootTest
+class ManifestServicePasscodeTest {
+
+    private static final String PASSCODE = "correct-horse";
+
+    @Autowired
+    private ManifestService manifestService;
+
+    @Autowired
+    private ShlRepository shlRepository;
+
+    @Autowired
+    private PasscodeService passcodeService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final List<String> createdIds = new ArrayList<>();
+
+    @AfterEach
+    void cleanUp() {
+        shlRepository.deleteAllById(createdIds).block();
+    }
+
+    @Test
+    void concurrentWrongAttemptsConsumeExactlyTheRemainingBudget() {
+        ShlDocument shl = createShl(3, false);
+
+        List<Object> results = attempt(shl, "wrong", 12);
+
+        // The last counted failure deactivates the SHL and evicts it from the lookup cache, so
+        // attempts that look it up afterwards see it as inactive instead
+        assertThat(results).hasSize(12)
+                .allMatch(result -> result instanceof InvalidPasscodeException || result instanceof ShlInactiveException);
+        List<Integer> remaining = results.stream()
+                .filter(InvalidPasscodeException.class::isInstance)
+                .map(result -> ((InvalidPasscodeException) result).getRemainingAttempts())
+                .toList();
+
+        // Three attempts were counted (2, 1, 0); every other one was refused without a write
+        assertThat(remaining).containsOnlyOnce(2, 1).contains(0).filteredOn(r -> r > 0).hasSize(2);
+        ShlDocument stored = shlRepository.findById(shl.getId()).block();
+        assertThat(stored.getPasscodeFailuresRemaining()).isZero();
+        assertThat(stored.isActive()).isFalse();
+    }
+
+    @Test
+    void correctAttemptsDoNotTouchTheCounter() {
+        ShlDocument shl = createShl(3, false);
+
+        List<Object> results = attempt(shl, PASSCODE, 8);
+
+        assertThat(results).hasSize(8).allMatch(ManifestJson.class::isInstance);
+        assertThat(results).extracting(this::status).containsOnly("finalized");
+        ShlDocument stored = shlRepository.findById(shl.getId()).block();
+        assertThat(stored.getPasscodeFailuresRemaining()).isEqualTo(3);
+        assertThat(stored.isActive()).isTrue();
+    }
+
+    @Test
+    void mixedAttemptsOnlyCountFailures() {
+        ShlDocument shl = createShl(5, false);
+
+        Flux.merge(
+                        attemptAsync(shl, "wrong", 2),
+                        attemptAsync(shl, PASSCODE, 6))
+                .collectList()
+                .block(Duration.ofSeconds(30));
+
+        ShlDocument stored = shlRepository.findById(shl.getId()).block();
+        assertThat(stored.getPasscodeFailuresRemaining()).isEqualTo(3);
+        assertThat(stored.isActive()).isTrue();
+    }
+
+    @Test
+    void singleUseLinkIsServedOnlyOnceUnderConcurrency() {
+        ShlDocument shl = createShl(3, true);
+
+        List<Object> results = attempt(shl, PASSCODE, 6);
+
+        assertThat(results).filteredOn(ManifestJson.class::isInstance).extracting(this::status)
+                .containsExactly("finalized");
+        assertThat(results).filteredOn(ShlInactiveException.class::isInstance).hasSize(5);
+        assertThat(shlRepository.findById(shl.getId()).block().isActive()).isFalse();
+    }
+
+    private String status(Object result) {
+        return objectMapper.readTree(((ManifestJson) result).body()).get("status").stringValue();
+    }
+
+    private List<Object> attempt(ShlDocument shl, String passcode, int count) {
+        return attemptAsync(shl, passcode, count).collectList().block(Duration.ofSeconds(30));
+    }
+
+    private Flux<Object> attemptAsync(ShlDocument shl, String passcode, int count) {
+        return Flux.fromStream(IntStream.range(0, count).boxed())
+                .flatMap(i -> manifestService.serveManifest(shl.getManifestId(),
+                                ManifestRequest.builder().recipient("test-" + i).passcode(passcode).build(),
+                                MockServerHttpRequest.post("/api/shl/manifest/" + shl.getManifestId()).build())
+                        .cast(Object.class)
+                        .onErrorResume(Mono::just), count);
+    }
+
+    private ShlDocument createShl(int attempts, boolean singleUse) {
+        ShlDocument shl = ShlDocument.builder()
+                .manifestId(SecureRandomUtil.generateBase64UrlRandom(32))
+                .encryptionKey(SecureRandomUtil.generateBase64UrlRandom(32))
+                .flags("P")
+                .passcodeHash(passcodeService.hash(PASSCODE).block())
+                .passcodeFailuresRemaining(attempts)
+                .singleUse(singleUse)
+                .build();
+        ShlDocument saved = shlRepository.save(shl).block();
+        createdIds.add(saved.getId());
+        return saved;
+    }
+}
@@ -0,0 +1,85 @@
+package com.chanakya.shl.service;
+
+import com.chanakya.shl.config.AppProperties;
+import com.chanakya.shl.model.document.ShlContentDocument;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PayloadOrphanSweeperTest {
+
+    private final S3StorageService s3StorageService = mock(S3StorageService.class);
+    private final ReactiveMongoTemplate mongoTemplate = mock(ReactiveMongoTemplate.class);
+    private final AppProperties appProperties = new AppProperties();
+    private final PayloadOrphanSweeper sweeper = new PayloadOrphanSweeper(s3StorageService, mongoTemplate, appProperties);
+
+    @Test
+    void deletesOnlyOldObjectsWithoutAContentDocument() {
+        String referenced = new ObjectId().toHexString();
+        String orphan = new ObjectId().toHexString();
+        String recentOrphan = new ObjectId().toHexString();
+        Instant old = Instant.now().minus(Duration.ofDays(1));
+
+        when(s3StorageService.listPayloads()).thenReturn(Flux.just(
+                object("payloads/shl-1/" + referenced + ".jwe", old),
+                object("payloads/shl-1/" + orphan + ".jwe", old),
+                object("payloads/shl-2/" + recentOrphan + ".jwe", Instant.now()),
+                object("payloads/shl-3/notes.txt", old)));
+        when(mongoTemplate.find(any(Query.class), eq(ShlContentDocument.class)))
+                .thenReturn(Flux.just(ShlContentDocument.builder().id(referenced)
+                        .s3Key("payloads/shl-1/" + referenced + ".jwe").build()));
+        when(s3StorageService.deleteObjects(anyList())).thenReturn(Mono.empty());
+
+        Long deleted = sweeper.sweep().block(Duration.ofSeconds(10));
+
+        assertThat(deleted).isEqualTo(1);
+        verify(s3StorageService).deleteObjects(List.of("payloads/shl-1/" + orphan + ".jwe"));
+    }
+
+    @Test
+    void leavesTheBucketAloneWhenEveryObjectIsReferenced() {
+        String referenced = new ObjectId().toHexString();
+        when(s3StorageService.listPayloads()).thenReturn(Flux.just(
+                object("payloads/shl-1/" + referenced + ".jwe", Instant.now().minus(Duration.ofDays(1)))));
+        when(mongoTemplate.find(any(Query.class), eq(ShlContentDocument.class)))
+                .thenReturn(Flux.just(ShlContentDocument.builder().id(referenced)
+                        .s3Key("payloads/shl-1/" + referenced + ".jwe").build()));
+
+        assertThat(sweeper.sweep().block(Duration.ofSeconds(10))).isZero();
+        verify(s3StorageService, never()).deleteObjects(anyList());
+    }
+
+    @Test
+    void deletesObjectsWhosePayloadWasMovedInline() {
+        String inlined = new ObjectId().toHexString();
+        when(s3StorageService.listPayloads()).thenReturn(Flux.just(
+                object("payloads/shl-1/" + inlined + ".jwe", Instant.now().minus(Duration.ofDays(1)))));
+        when(mongoTemplate.find(any(Query.class), eq(ShlContentDocument.class)))
+                .thenReturn(Flux.just(ShlContentDocument.builder().id(inlined).build()));
+        when(s3StorageService.deleteObjects(anyList())).thenReturn(Mono.empty());
+
+        assertThat(sweeper.sweep().block(Duration.ofSeconds(10))).isEqualTo(1);
+        verify(s3StorageService).deleteObjects(List.of("payloads/shl-1/" + inlined + ".jwe"));
+    }
+
+    private static S3Object object(String key, Instant lastModified) {
+        return S3Object.builder().key(key).lastModified(lastModified).build();
+    }
+}
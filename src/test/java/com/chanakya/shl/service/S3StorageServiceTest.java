@@ -0,0 +1,70 @@
+package com.chanakya.shl.service;
+
+import com.chanakya.shl.cache.PayloadCache;
+import com.chanakya.shl.config.AppProperties;
+import com.chanakya.shl.model.PayloadStream;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.core.async.ResponsePublisher;
+import software.amazon.awssdk.core.async.SdkPublisher;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class S3StorageServiceTest {
+
+    private final S3AsyncClient s3AsyncClient = mock(S3AsyncClient.class);
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final S3StorageService storage = new S3StorageService(s3AsyncClient, new AppProperties(),
+            mock(PayloadCache.class), registry);
+
+    @Test
+    void streamTimerStopsWhenTheBodyCompletesNotAtTheHeaders() {
+        Sinks.Many<ByteBuffer> body = Sinks.many().unicast().onBackpressureBuffer();
+        respondWith(body.asFlux());
+
+        PayloadStream stream = storage.streamPayload("payloads/a.jwe").block(Duration.ofSeconds(5));
+        assertThat(registry.find("shl.s3.request").timers()).isEmpty();
+
+        body.tryEmitNext(ByteBuffer.wrap(new byte[]{1, 2, 3}));
+        body.tryEmitComplete();
+        assertThat(stream.body().map(DataBuffer::readableByteCount).collectList().block(Duration.ofSeconds(5)))
+                .containsExactly(3);
+
+        assertThat(registry.get("shl.s3.request").tags("operation", "stream", "outcome", "success")
+                .timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void streamTimerRecordsABodyCancelledPartWayOnce() {
+        respondWith(Flux.range(0, 4).map(i -> ByteBuffer.wrap(new byte[]{i.byteValue()})));
+
+        PayloadStream stream = storage.streamPayload("payloads/a.jwe").block(Duration.ofSeconds(5));
+        stream.body().take(1).blockLast(Duration.ofSeconds(5));
+
+        assertThat(registry.find("shl.s3.request").timers()).hasSize(1);
+        assertThat(registry.get("shl.s3.request").tags("operation", "stream", "outcome", "cancelled")
+                .timer().count()).isEqualTo(1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void respondWith(Flux<ByteBuffer> chunks) {
+        ResponsePublisher<GetObjectResponse> publisher = new ResponsePublisher<>(
+                GetObjectResponse.builder().contentLength(3L).build(), SdkPublisher.adapt(chunks));
+        when(s3AsyncClient.getObject(any(GetObjectRequest.class), any(AsyncResponseTransformer.class)))
+                .thenReturn(CompletableFuture.completedFuture(publisher));
+    }
+}
@@ -0,0 +1,93 @@
+package com.chanakya.shl.service;
+
+import com.chanakya.shl.model.document.AccessLogDocument;
+import com.chanakya.shl.model.document.ShlContentDocument;
+import com.chanakya.shl.model.document.ShlDocument;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.ReactiveBulkOperations;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ShlCounterReconcilerTest {
+
+    private final ReactiveMongoTemplate mongoTemplate = mock(ReactiveMongoTemplate.class);
+    private final ReactiveBulkOperations bulk = mock(ReactiveBulkOperations.class);
+    private final ShlCounterReconciler reconciler = new ShlCounterReconciler(mongoTemplate);
+
+    @BeforeEach
+    void setUp() {
+        BulkWriteResult bulkResult = mock(BulkWriteResult.class);
+        when(bulkResult.getModifiedCount()).thenReturn(1);
+        when(bulk.execute()).thenReturn(Mono.just(bulkResult));
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ShlDocument.class)).thenReturn(bulk);
+        when(mongoTemplate.updateMulti(any(Query.class), any(Update.class), eq(ShlDocument.class)))
+                .thenReturn(Mono.just(UpdateResult.acknowledged(1, 1L, null)));
+
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(AccessLogDocument.class), eq(Document.class)))
+                .thenReturn(Flux.empty());
+        when(mongoTemplate.find(withCounter("successfulAccessCount"), eq(ShlDocument.class)))
+                .thenReturn(Flux.empty());
+    }
+
+    @Test
+    void resetsCountersOfShlsWithoutAnySourceRows() {
+        // "a" has contents and is corrected by the aggregation; "b" has none but a drifted count
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(ShlContentDocument.class), eq(Document.class)))
+                .thenReturn(Flux.just(new Document("_id", "a").append("count", 2)));
+        when(mongoTemplate.find(withCounter("contentCount"), eq(ShlDocument.class)))
+                .thenReturn(Flux.just(shl("a"), shl("b")));
+        when(mongoTemplate.findDistinct(any(Query.class), eq("shlId"), eq(ShlContentDocument.class), eq(String.class)))
+                .thenReturn(Flux.just("a"));
+
+        assertThat(reconciler.reconcile().block(Duration.ofSeconds(10))).isEqualTo(2);
+
+        ArgumentCaptor<Query> reset = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).updateMulti(reset.capture(), any(Update.class), eq(ShlDocument.class));
+        Document criteria = reset.getValue().getQueryObject();
+        assertThat(criteria.get("id", Document.class).get("$in")).isEqualTo(List.of("b"));
+        assertThat(criteria).containsKey("contentCount");
+    }
+
+    @Test
+    void leavesCountersAloneWhenEveryCountedShlHasSources() {
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(ShlContentDocument.class), eq(Document.class)))
+                .thenReturn(Flux.just(new Document("_id", "a").append("count", 2)));
+        when(mongoTemplate.find(withCounter("contentCount"), eq(ShlDocument.class)))
+                .thenReturn(Flux.just(shl("a")));
+        when(mongoTemplate.findDistinct(any(Query.class), eq("shlId"), eq(ShlContentDocument.class), eq(String.class)))
+                .thenReturn(Flux.just("a"));
+
+        assertThat(reconciler.reconcile().block(Duration.ofSeconds(10))).isEqualTo(1);
+        verify(mongoTemplate, never()).updateMulti(any(Query.class), any(Update.class), eq(ShlDocument.class));
+    }
+
+    private static Query withCounter(String counterField) {
+        return argThat(query -> query != null && query.getQueryObject().containsKey(counterField));
+    }
+
+    private static ShlDocument shl(String id) {
+        return ShlDocument.builder().id(id).build();
+    }
+}
@@ -0,0 +1,150 @@
+package com.chanakya.shl.service;
+
+import com.chanakya.shl.cache.ShlLookupCache;
+import com.chanakya.shl.config.AppProperties;
+import com.chanakya.shl.model.document.ShlContentDocument;
+import com.chanakya.shl.model.document.ShlDocument;
+import com.chanakya.shl.model.dto.request.CreateShlRequest;
+import com.chanakya.shl.model.dto.response.BatchCreateResult;
+import com.chanakya.shl.repository.ShlContentRepository;
+import com.chanakya.shl.repository.ShlRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.validation.Validation;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import tools.jackson.databind.ObjectMapper;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ShlServiceBatchTest {
+
+    private final ShlRepository shlRepository = mock(ShlRepository.class);
+    private final ShlContentRepository shlContentRepository = mock(ShlContentRepository.class);
+    private final EncryptionService encryptionService = mock(EncryptionService.class);
+    private final S3StorageService s3StorageService = mock(S3StorageService.class);
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final AppProperties appProperties = new AppProperties();
+    private final List<List<String>> insertedShlChunks = new CopyOnWriteArrayList<>();
+    private final List<String> uploadedKeys = new CopyOnWriteArrayList<>();
+
+    private ShlService shlService;
+
+    @BeforeEach
+    void setUp() {
+        appProperties.getBatch().setConcurrency(4);
+        appProperties.getBatch().setInsertBatchSize(3);
+        appProperties.getBatch().setInsertFlushInterval(Duration.ofMillis(50));
+        appProperties.getInlinePayloads().setMaxSize(DataSize.ofBytes(0));
+
+        when(encryptionService.encrypt(anyString(), anyString(), anyString())).thenReturn(Mono.just("jwe"));
+        when(s3StorageService.buildPayloadKey(anyString(), anyString()))
+                .thenAnswer(invocation -> invocation.getArgument(0) + "/" + invocation.getArgument(1));
+        when(s3StorageService.uploadPayload(anyString(), anyString())).thenAnswer(invocation -> {
+            uploadedKeys.add(invocation.getArgument(0));
+            return Mono.empty();
+        });
+        when(s3StorageService.deletePayloads(anyString())).thenReturn(Mono.empty());
+        when(shlContentRepository.insert(anyIterable())).thenAnswer(invocation -> {
+            Iterable<ShlContentDocument> docs = invocation.getArgument(0);
+            return Flux.fromIterable(docs);
+        });
+        when(shlRepository.insert(anyIterable())).thenAnswer(invocation -> {
+            Iterable<ShlDocument> docs = invocation.getArgument(0);
+            List<String> labels = new ArrayList<>();
+            docs.forEach(doc -> labels.add(doc.getLabel()));
+            insertedShlChunks.add(labels);
+            return Flux.fromIterable(docs);
+        });
+
+        shlService = new ShlService(shlRepository, mock(ShlLookupCache.class), shlContentRepository,
+                encryptionService, s3StorageService, mock(ShlPayloadService.class), mock(QrCodeService.class),
+                mock(HealthLakeService.class), appProperties, objectMapper, mock(PasscodeService.class),
+                Validation.buildDefaultValidatorFactory().getValidator(), new SimpleMeterRegistry());
+    }
+
+    @Test
+    void invalidItemsAreReportedWithoutFailingTheBatch() {
+        List<BatchCreateResult> results = run(
+                valid("a"),
+                CreateShlRequest.builder().label("no data source").build(),
+                valid("c"),
+                CreateShlRequest.builder().content(objectMapper.createObjectNode()).label("x".repeat(81)).build(),
+                valid("e"));
+
+        assertThat(results).extracting(BatchCreateResult::getIndex).containsExactly(0L, 1L, 2L, 3L, 4L);
+        assertThat(results.get(1).getError()).contains("data source");
+        assertThat(results.get(3).getError()).startsWith("label:");
+        assertThat(results).filteredOn(r -> r.getShl() != null).hasSize(3);
+        assertThat(insertedShlChunks.stream().flatMap(List::stream)).containsExactlyInAnyOrder("a", "c", "e");
+    }
+
+    @Test
+    void documentsAreInsertedInChunks() {
+        List<BatchCreateResult> results = run(valid("1"), valid("2"), valid("3"), valid("4"), valid("5"),
+                valid("6"), valid("7"));
+
+        assertThat(results).hasSize(7).allMatch(r -> r.getError() == null);
+        assertThat(insertedShlChunks).allMatch(chunk -> chunk.size() <= 3);
+        assertThat(insertedShlChunks.stream().mapToInt(List::size).sum()).isEqualTo(7);
+        assertThat(uploadedKeys).hasSize(7);
+    }
+
+    @Test
+    void failedInsertReportsChunkAndRemovesPayloads() {
+        when(shlRepository.insert(anyIterable())).thenReturn(Flux.error(new IllegalStateException("boom")));
+        when(shlRepository.deleteAllById(anyIterable())).thenReturn(Mono.empty());
+        when(shlContentRepository.deleteByShlIdIn(anyCollection())).thenReturn(Mono.just(0L));
+
+        List<BatchCreateResult> results = run(valid("a"), valid("b"));
+
+        assertThat(results).hasSize(2).allMatch(r -> "Failed to store SHL".equals(r.getError()));
+        verify(s3StorageService, times(2)).deletePayloads(anyString());
+    }
+
+    @Test
+    void unreadableStreamFinishesItemsAlreadyRead() {
+        List<BatchCreateResult> results = shlService.createBatch(Flux.just(valid("a"))
+                        .concatWith(Flux.error(new IllegalArgumentException("bad line"))))
+                .collectList()
+                .block(Duration.ofSeconds(10));
+
+        assertThat(results).hasSize(2);
+        assertThat(results.get(0).getShl()).isNotNull();
+        assertThat(results.get(1).getIndex()).isEqualTo(-1);
+        assertThat(results.get(1).getError()).contains("bad line");
+        verify(s3StorageService, never()).deletePayloads(anyString());
+    }
+
+    private List<BatchCreateResult> run(CreateShlRequest... requests) {
+        List<BatchCreateResult> results = new ArrayList<>(shlService.createBatch(Flux.just(requests))
+                .collectList()
+                .block(Duration.ofSeconds(10)));
+        results.sort(Comparator.comparingLong(BatchCreateResult::getIndex));
+        return results;
+    }
+
+    private CreateShlRequest valid(String label) {
+        return CreateShlRequest.builder()
+                .content(objectMapper.createObjectNode().put("resourceType", "Bundle"))
+                .label(label)
+                .includeQrCode(false)
+                .build();
+    }
+}
@@ -0,0 +1,180 @@
+package com.chanakya.shl.service;
+
+import com.chanakya.shl.cache.ShlLookupCache;
+import com.chanakya.shl.config.AppProperties;
+import com.chanakya.shl.model.document.ShlContentDocument;
+import com.chanakya.shl.model.document.ShlDocument;
+import com.chanakya.shl.model.dto.request.CreateShlRequest;
+import com.chanakya.shl.model.enums.FhirCategory;
+import com.chanakya.shl.model.enums.PayloadStorage;
+import com.chanakya.shl.repository.ShlContentRepository;
+import com.chanakya.shl.repository.ShlRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.validation.Validation;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import tools.jackson.databind.ObjectMapper;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Single creates with several payloads: parallel uploads, manifest order and rollback.
+ */
+class ShlServiceCreateTest {
+
+    private static final List<FhirCategory> CATEGORIES =
+            List.of(FhirCategory.IMMUNIZATIONS, FhirCategory.CONDITIONS, FhirCategory.LAB_RESULTS);
+
+    private final ShlRepository shlRepository = mock(ShlRepository.class);
+    private final ShlContentRepository shlContentRepository = mock(ShlContentRepository.class);
+    private final EncryptionService encryptionService = mock(EncryptionService.class);
+    private final S3StorageService s3StorageService = mock(S3StorageService.class);
+    private final HealthLakeService healthLakeService = mock(HealthLakeService.class);
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final AppProperties appProperties = new AppProperties();
+    private final List<ShlContentDocument> insertedContents = new CopyOnWriteArrayList<>();
+    private final List<ShlDocument> insertedShls = new CopyOnWriteArrayList<>();
+    private final AtomicInteger uploadsInFlight = new AtomicInteger();
+    private final AtomicInteger maxUploadsInFlight = new AtomicInteger();
+
+    private ShlService shlService;
+
+    @BeforeEach
+    void setUp() {
+        appProperties.getInlinePayloads().setMaxSize(DataSize.ofBytes(0));
+        when(shlRepository.insert(any(ShlDocument.class))).thenAnswer(invocation -> {
+            ShlDocument shl = invocation.getArgument(0);
+            insertedShls.add(shl);
+            return Mono.just(shl);
+        });
+        when(shlRepository.deleteById(anyString())).thenReturn(Mono.empty());
+        when(shlContentRepository.deleteByShlIdIn(anyCollection())).thenReturn(Mono.just(0L));
+        when(shlContentRepository.insert(anyIterable())).thenAnswer(invocation -> {
+            Iterable<ShlContentDocument> docs = invocation.getArgument(0);
+            docs.forEach(insertedContents::add);
+            return Flux.fromIterable(docs);
+        });
+        when(encryptionService.encrypt(anyString(), anyString(), anyString()))
+                .thenAnswer(invocation -> Mono.just("jwe:" + invocation.getArgument(0)));
+        when(s3StorageService.buildPayloadKey(anyString(), anyString()))
+                .thenAnswer(invocation -> invocation.getArgument(0) + "/" + invocation.getArgument(1));
+        when(s3StorageService.deletePayloads(anyString())).thenReturn(Mono.empty());
+        when(healthLakeService.fetchBundles(eq("p1"), anyList()))
+                .thenReturn(Flux.just("{\"b\":1}", "{\"b\":2}", "{\"b\":3}"));
+
+        shlService = new ShlService(shlRepository, mock(ShlLookupCache.class), shlContentRepository,
+                encryptionService, s3StorageService, mock(ShlPayloadService.class), mock(QrCodeService.class),
+                healthLakeService, appProperties, objectMapper, mock(PasscodeService.class),
+                Validation.buildDefaultValidatorFactory().getValidator(), new SimpleMeterRegistry());
+    }
+
+    @Test
+    void uploadsInParallelButKeepsSourceOrderInTheManifest() {
+        // Earlier payloads finish last
+        Map<String, Duration> delays = Map.of(
+                "{\"b\":1}", Duration.ofMillis(150), "{\"b\":2}", Duration.ofMillis(100),
+                "{\"b\":3}", Duration.ofMillis(50), "{\"inline\":true}", Duration.ZERO);
+        when(s3StorageService.uploadPayload(anyString(), anyString())).thenAnswer(invocation -> {
+            String plaintext = ((String) invocation.getArgument(1)).substring("jwe:".length());
+            return Mono.delay(delays.get(plaintext))
+                    .doOnSubscribe(s -> maxUploadsInFlight.accumulateAndGet(
+                            uploadsInFlight.incrementAndGet(), Math::max))
+                    .doFinally(signal -> uploadsInFlight.decrementAndGet())
+                    .then();
+        });
+
+        shlService.createFromJson(request()).block(Duration.ofSeconds(10));
+
+        assertThat(maxUploadsInFlight.get()).isGreaterThan(1);
+        assertThat(insertedContents).extracting(ShlContentDocument::getSequence).containsExactly(0, 1, 2, 3);
+        assertThat(insertedContents).extracting(ShlContentDocument::getContentLength)
+                .containsExactly(7L, 7L, 7L, 15L);
+        assertThat(insertedShls).singleElement().satisfies(shl -> assertThat(shl.getContentCount()).isEqualTo(4));
+    }
+
+    @Test
+    void uploadsBeforeWritingAnyDocumentAndWritesContentsInOneInsert() {
+        when(s3StorageService.uploadPayload(anyString(), anyString())).thenReturn(Mono.empty());
+
+        shlService.createFromJson(request()).block(Duration.ofSeconds(10));
+
+        ShlDocument shl = insertedShls.get(0);
+        assertThat(shl.getId()).isNotNull();
+        assertThat(insertedContents).hasSize(4).allSatisfy(content -> {
+            assertThat(content.getShlId()).isEqualTo(shl.getId());
+            assertThat(content.getS3Key()).isEqualTo(shl.getId() + "/" + content.getId());
+            assertThat(content.getCreatedAt()).isEqualTo(shl.getCreatedAt());
+        });
+        InOrder order = inOrder(s3StorageService, shlContentRepository, shlRepository);
+        order.verify(s3StorageService, times(4)).uploadPayload(anyString(), anyString());
+        order.verify(shlContentRepository).insert(anyIterable());
+        order.verify(shlRepository).insert(any(ShlDocument.class));
+        verify(shlRepository, never()).save(any(ShlDocument.class));
+    }
+
+    @Test
+    void failedUploadRollsBackTheWholeCreate() {
+        when(s3StorageService.uploadPayload(anyString(), anyString())).thenAnswer(invocation -> {
+            String jwe = invocation.getArgument(1);
+            return jwe.contains("\"b\":2")
+                    ? Mono.error(new IllegalStateException("S3 unavailable"))
+                    : Mono.empty();
+        });
+
+        assertThatThrownBy(() -> shlService.createFromJson(request()).block(Duration.ofSeconds(10)))
+                .hasMessageContaining("S3 unavailable");
+
+        assertThat(insertedContents).isEmpty();
+        assertThat(insertedShls).isEmpty();
+        verify(shlContentRepository).deleteByShlIdIn(anyCollection());
+        verify(s3StorageService).deletePayloads(anyString());
+    }
+
+    @Test
+    void storesSmallPayloadsOnTheirRecordWithoutUploading() {
+        // Each category JWE ("jwe:{"b":n}") is 11 bytes; the inline content's is 19
+        appProperties.getInlinePayloads().setMaxSize(DataSize.ofBytes(11));
+        when(s3StorageService.uploadPayload(anyString(), anyString())).thenReturn(Mono.empty());
+
+        shlService.createFromJson(request()).block(Duration.ofSeconds(10));
+
+        assertThat(insertedContents).extracting(ShlContentDocument::getStorage).containsExactly(
+                PayloadStorage.INLINE, PayloadStorage.INLINE, PayloadStorage.INLINE, PayloadStorage.S3);
+        assertThat(insertedContents.get(0).getInlinePayload()).isEqualTo("jwe:{\"b\":1}");
+        assertThat(insertedContents.get(0).getS3Key()).isNull();
+        assertThat(insertedContents.get(3).getS3Key()).isNotNull();
+        verify(s3StorageService, times(1)).uploadPayload(anyString(), anyString());
+    }
+
+    private CreateShlRequest request() {
+        return CreateShlRequest.builder()
+                .patientId("p1")
+                .categories(CATEGORIES)
+                .content(objectMapper.createObjectNode().put("inline", true))
+                .includeQrCode(false)
+                .build();
+    }
+}
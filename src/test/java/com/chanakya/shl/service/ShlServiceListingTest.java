@@ -0,0 +1,93 @@
+package com.chanakya.shl.service;
+
+import com.chanakya.shl.model.CursorPage;
+import com.chanakya.shl.model.ShlListFilter;
+import com.chanakya.shl.model.document.ShlDocument;
+import com.chanakya.shl.model.dto.response.ShlSummaryResponse;
+import com.chanakya.shl.repository.ShlRepository;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Keyset pagination against a real MongoDB (same requirement as {@code ShlApplicationTests}).
+ */
+@SpringBootTest
+class ShlServiceListingTest {
+
+    @Autowired
+    private ShlService shlService;
+
+    @Autowired
+    private ShlRepository shlRepository;
+
+    private final String labelPrefix = "listing-" + new ObjectId().toHexString() + "-";
+    private final List<String> createdIds = new ArrayList<>();
+
+    @AfterEach
+    void cleanUp() {
+        shlRepository.deleteAllById(createdIds).block();
+    }
+
+    @Test
+    void walksShlsCreatedInTheSameMillisecondExactlyOnceInIdOrder() {
+        Instant createdAt = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+        for (int i = 0; i < 5; i++) {
+            createShl(i, createdAt);
+        }
+        ShlListFilter filter = new ShlListFilter(null, null, null, null, labelPrefix);
+
+        List<String> seen = new ArrayList<>();
+        List<Integer> pageSizes = new ArrayList<>();
+        String cursor = null;
+        do {
+            CursorPage<ShlSummaryResponse> page = shlService.listShls(filter, cursor, 2, false)
+                    .block(Duration.ofSeconds(10));
+            page.content().forEach(shl -> seen.add(shl.getId()));
+            pageSizes.add(page.content().size());
+            cursor = page.nextCursor();
+        } while (cursor != null);
+
+        // Every row shares createdAt, so only the _id tie-break moves the cursor forward
+        assertThat(pageSizes).containsExactly(2, 2, 1);
+        assertThat(seen).containsExactlyElementsOf(
+                createdIds.stream().sorted(Comparator.reverseOrder()).toList());
+    }
+
+    @Test
+    void countsTheFilteredTotalOnlyWhenAsked() {
+        Instant createdAt = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+        for (int i = 0; i < 3; i++) {
+            createShl(i, createdAt.minusMillis(i));
+        }
+        ShlListFilter filter = new ShlListFilter(null, null, null, null, labelPrefix);
+
+        assertThat(shlService.listShls(filter, null, 2, true).block(Duration.ofSeconds(10)).totalElements())
+                .isEqualTo(3);
+        assertThat(shlService.listShls(filter, null, 2, false).block(Duration.ofSeconds(10)).totalElements())
+                .isNull();
+    }
+
+    private void createShl(int index, Instant createdAt) {
+        ShlDocument shl = ShlDocument.builder()
+                .id(new ObjectId().toHexString())
+                .manifestId(labelPrefix + index)
+                .label(labelPrefix + index)
+                .flags("")
+                .active(true)
+                .createdAt(createdAt)
+                .build();
+        createdIds.add(shlRepository.save(shl).block().getId());
+    }
+}
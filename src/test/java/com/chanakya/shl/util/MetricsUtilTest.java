@@ -0,0 +1,40 @@
+package com.chanakya.shl.util;
+
+import com.chanakya.shl.exception.ShlExpiredException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MetricsUtilTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void tagsEachSubscriptionWithHowItEnded() {
+        Mono<String> ok = MetricsUtil.timed(Mono.just("x"), registry, "test.op", "kind", "a");
+        Mono<String> expired = MetricsUtil.timed(Mono.error(new ShlExpiredException("shl-1")), registry,
+                "test.op", "kind", "a");
+
+        ok.block(Duration.ofSeconds(5));
+        ok.block(Duration.ofSeconds(5));
+        assertThatThrownBy(() -> expired.block(Duration.ofSeconds(5))).isInstanceOf(ShlExpiredException.class);
+
+        assertThat(registry.get("test.op").tags("kind", "a", "outcome", "success").timer().count()).isEqualTo(2);
+        assertThat(registry.get("test.op").tags("kind", "a", "outcome", "expired").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void timesAWholeStreamAndRecordsCancellation() {
+        MetricsUtil.timed(Flux.range(0, 3), registry, "test.stream").blockLast(Duration.ofSeconds(5));
+        MetricsUtil.timed(Flux.range(0, 3), registry, "test.stream").next().block(Duration.ofSeconds(5));
+
+        assertThat(registry.get("test.stream").tag("outcome", "success").timer().count()).isEqualTo(1);
+        assertThat(registry.get("test.stream").tag("outcome", "cancelled").timer().count()).isEqualTo(1);
+    }
+}
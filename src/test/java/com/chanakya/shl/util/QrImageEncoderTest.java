@@ -0,0 +1,72 @@
+package com.chanakya.shl.util;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.client.j2se.MatrixToImageWriter;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.QRCodeWriter;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class QrImageEncoderTest {
+
+    private static final String CONTENT = "shlink:/eyJ1cmwiOiJodHRwOi8vbG9jYWxob3N0OjgwODAvYXBpL3NobC9tYW5pZmVzdC9hYmMiLCJmbGFnIjoiUCJ9";
+    private static final Map<EncodeHintType, Object> HINTS = Map.of(
+            EncodeHintType.ERROR_CORRECTION, ErrorCorrectionLevel.M,
+            EncodeHintType.MARGIN, 2
+    );
+
+    @ParameterizedTest
+    @ValueSource(ints = {10, 150, 300, 333, 1000})
+    void pngMatchesMatrixToImageWriter(int size) throws Exception {
+        BitMatrix modules = new QRCodeWriter().encode(CONTENT, BarcodeFormat.QR_CODE, 0, 0, HINTS);
+        BufferedImage expected = MatrixToImageWriter.toBufferedImage(
+                new QRCodeWriter().encode(CONTENT, BarcodeFormat.QR_CODE, size, size, HINTS));
+
+        BufferedImage actual = ImageIO.read(new ByteArrayInputStream(QrImageEncoder.toPng(modules, size)));
+
+        assertThat(actual.getWidth()).isEqualTo(expected.getWidth());
+        assertThat(actual.getHeight()).isEqualTo(expected.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertThat(actual.getRGB(x, y) & 0xffffff)
+                        .as("pixel (%d, %d)", x, y)
+                        .isEqualTo(expected.getRGB(x, y) & 0xffffff);
+            }
+        }
+    }
+
+    @Test
+    void svgDrawsEveryDarkModuleOnce() throws Exception {
+        BitMatrix modules = new QRCodeWriter().encode(CONTENT, BarcodeFormat.QR_CODE, 0, 0, HINTS);
+
+        String svg = new String(QrImageEncoder.toSvg(modules, 300), StandardCharsets.US_ASCII);
+
+        int n = modules.getWidth();
+        assertThat(svg).startsWith("<svg").endsWith("</svg>")
+                .contains("width=\"300\"", "viewBox=\"0 0 " + n + " " + n + "\"");
+        int drawn = 0;
+        for (String run : svg.substring(svg.indexOf(" d=\"") + 4, svg.lastIndexOf('"')).split("z")) {
+            if (!run.isEmpty()) {
+                drawn += Integer.parseInt(run.substring(run.indexOf('h') + 1, run.indexOf('v')));
+            }
+        }
+        int dark = 0;
+        for (int y = 0; y < n; y++) {
+            for (int x = 0; x < n; x++) {
+                dark += modules.get(x, y) ? 1 : 0;
+            }
+        }
+        assertThat(drawn).isEqualTo(dark);
+    }
+}
@@ -0,0 +1,82 @@
+package com.chanakya.shl.util;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.WriterException;
+import com.google.zxing.client.j2se.MatrixToImageWriter;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.QRCodeWriter;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH comparison of the previous {@code MatrixToImageWriter} PNG path with
+ * {@link QrImageEncoder}, from content string to image bytes. Only runs with
+ * {@code -Dshl.test.benchmark=true}; the GC profiler reports allocation per operation
+ * alongside the timings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QrRenderingBenchmarkTest {
+
+    private static final String CONTENT = "shlink:/eyJ1cmwiOiJodHRwOi8vbG9jYWxob3N0OjgwODAvYXBpL3NobC9tYW5pZmVzdC9"
+            + "hYmNkZWZnaGlqa2xtbm9wcXJzdHV2d3h5ejAxMjM0NTY3ODkiLCJrZXkiOiJyeGZ0Z2hqa2xtbm9wcXJzdHV2d3h5ejAxMjM0NTY3"
+            + "ODlhYmNkZWYiLCJmbGFnIjoiUCIsImxhYmVsIjoiTXkgSGVhbHRoIFJlY29yZCJ9";
+    private static final Map<EncodeHintType, Object> HINTS = Map.of(
+            EncodeHintType.ERROR_CORRECTION, ErrorCorrectionLevel.M,
+            EncodeHintType.MARGIN, 2
+    );
+
+    @Param({"150", "300", "600", "1000"})
+    public int size;
+
+    @Benchmark
+    public byte[] matrixToImageWriterPng() throws WriterException, IOException {
+        BitMatrix matrix = new QRCodeWriter().encode(CONTENT, BarcodeFormat.QR_CODE, size, size, HINTS);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MatrixToImageWriter.writeToStream(matrix, "PNG", out);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] encoderPng() throws WriterException {
+        return QrImageEncoder.toPng(new QRCodeWriter().encode(CONTENT, BarcodeFormat.QR_CODE, 0, 0, HINTS), size);
+    }
+
+    @Benchmark
+    public byte[] encoderSvg() throws WriterException {
+        return QrImageEncoder.toSvg(new QRCodeWriter().encode(CONTENT, BarcodeFormat.QR_CODE, 0, 0, HINTS), size);
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "shl.test.benchmark", matches = "true")
+    void runBenchmarks() throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(QrRenderingBenchmarkTest.class.getName() + "\\.")
+                .addProfiler("gc")
+                .build())
+                .run();
+    }
+}